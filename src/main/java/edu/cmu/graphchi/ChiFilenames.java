@@ -30,6 +30,48 @@ public class ChiFilenames {
     // refactored to a better location
     public static int BLOCK_SIZE_BASE = 1024;
 
+    /* Directories the shards are striped over, for example one per disk. If null, the
+       shards are next to the graph file. Set with -Dgraphchi.shard.dirs=dir1:dir2:... */
+    private static String[] shardDirectories = parseDirectories(System.getProperty("graphchi.shard.dirs"));
+
+    private static String[] parseDirectories(String dirs) {
+        if (dirs == null || dirs.trim().length() == 0) return null;
+        return dirs.trim().split(File.pathSeparator);
+    }
+
+    /**
+     * Stripes the shard files over the given directories: shard p is placed in
+     * directory p % dirs.length. Must be set the same way when the graph is sharded
+     * and when it is computed on.
+     * @param dirs directories, or null to keep the shards next to the graph file
+     */
+    public static void setShardDirectories(String[] dirs) {
+        shardDirectories = (dirs == null || dirs.length == 0 ? null : dirs.clone());
+    }
+
+    public static String[] getShardDirectories() {
+        return shardDirectories;
+    }
+
+    /**
+     * @return number of devices (directories) the shards are striped over
+     */
+    public static int getNumShardDevices() {
+        return (shardDirectories == null ? 1 : shardDirectories.length);
+    }
+
+    /**
+     * @return the device (index of the directory) of shard p
+     */
+    public static int getShardDevice(int p) {
+        return (shardDirectories == null ? 0 : p % shardDirectories.length);
+    }
+
+    private static String getShardBase(String baseFilename, int p) {
+        if (shardDirectories == null) return baseFilename;
+        return new File(shardDirectories[getShardDevice(p)], new File(baseFilename).getName()).getPath();
+    }
+
     public static String getFilenameOfVertexData(String baseFilename, BytesToValueConverter valueConv, boolean sparse) {
         return baseFilename + "." + valueConv.sizeOf() + "Bj.vout" + vertexDataSuffix  + (sparse ? ".sparse" : "");
     }
@@ -43,10 +85,7 @@ public class ChiFilenames {
     }
 
     public static String getDirnameShardEdataBlock(String edataShardName, int blocksize) {
-        if (CompressedIO.isCompressionEnabled()) {
-            edataShardName += ".Z.";
-        }
-        return edataShardName + "_blockdir_" + blocksize;
+        return edataShardName + CompressedIO.getCodec().getDirectorySuffix() + "_blockdir_" + blocksize;
     }
 
     public static String getFilenameShardEdataBlock(String edataShardname, int blockId, int blocksize) {
@@ -63,11 +102,18 @@ public class ChiFilenames {
     }
 
     public static String getFilenameShardEdata(String baseFilename, BytesToValueConverter valueConv, int p, int nShards) {
-        return baseFilename + ".edata_java.e" + valueConv.sizeOf() + "B." + p + "_" + nShards;
+        return getShardBase(baseFilename, p) + ".edata_java.e" + valueConv.sizeOf() + "B." + p + "_" + nShards;
     }
 
     public static String getFilenameShardsAdj(String baseFilename, int p, int nShards) {
-        return baseFilename + ".edata_java." + p + "_" + nShards + ".adj";
+        return getShardBase(baseFilename, p) + ".edata_java." + p + "_" + nShards + ".adj";
+    }
+
+    /**
+     * Edges added to or deleted from a shard but not yet merged into it, see IncrementalSharder.
+     */
+    public static String getFilenameShardDelta(String baseFilename, int p, int nShards) {
+        return getFilenameShardsAdj(baseFilename, p, nShards) + ".delta";
     }
 
     public static String getFilenameIntervals(String baseFilename, int nShards) {
@@ -3,12 +3,16 @@ package edu.cmu.graphchi;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.datablocks.ChiPointer;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatBytesConverter;
+import edu.cmu.graphchi.datablocks.IntBytesConverter;
+import edu.cmu.graphchi.datablocks.LongBytesConverter;
 import edu.cmu.graphchi.engine.auxdata.VertexDegree;
 import sun.misc.Unsafe;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.lang.reflect.Field;
 import java.security.AccessController;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -46,9 +50,11 @@ public class ChiVertex<VertexValue, EdgeValue> {
 
     private volatile int nInedges = 0;
     private int[] inEdgeDataArray = null;
+    private int inBase = 0;
 
     private volatile int nOutedges = 0;
     private int[] outEdgeDataArray = null;
+    private int outBase = 0;
 
     /* Internal management */
     public boolean parallelSafe = true;
@@ -89,24 +95,55 @@ public class ChiVertex<VertexValue, EdgeValue> {
     }
 
     private ChiPointer vertexPtr;
+    private ChiPointer reusablePtr;
 
     public ChiVertex(int id, VertexDegree degree) {
         this.id = id;
 
         if (degree != null) {
             if (!disableInedges) {
-                inEdgeDataArray = new int[degree.inDegree * (edgeValueConverter != null ? 3 : 1)];
+                inEdgeDataArray = new int[degree.inDegree * edgeSlotSize()];
             } else {
                 nInedges =  degree.inDegree;
             }
             if (!disableOutedges) {
-                outEdgeDataArray = new int[degree.outDegree * (edgeValueConverter != null ? 3 : 1)];
+                outEdgeDataArray = new int[degree.outDegree * edgeSlotSize()];
             } else {
                 nOutedges = degree.outDegree;
             }
         }
     }
 
+    /**
+     * Creates an empty vertex for reuse with reset().
+     */
+    public ChiVertex() {
+    }
+
+    /**
+     * Number of ints used for each edge in the edge arrays.
+     */
+    public static int edgeSlotSize() {
+        return (edgeValueConverter != null ? 3 : 1);
+    }
+
+    /**
+     * INTERNAL USE ONLY. Reuses this object for another vertex, whose edges are stored
+     * in a shared buffer: in-edges from inBase and out-edges from outBase,
+     * edgeSlotSize() ints per edge.
+     */
+    public void reset(int id, int inDegree, int outDegree, int[] edgeBuffer, int inBase, int outBase) {
+        this.id = id;
+        this.vertexPtr = null;
+        this.parallelSafe = true;
+        this.inEdgeDataArray = (disableInedges ? null : edgeBuffer);
+        this.inBase = inBase;
+        this.nInedges = (disableInedges ? inDegree : 0);
+        this.outEdgeDataArray = (disableOutedges ? null : edgeBuffer);
+        this.outBase = outBase;
+        this.nOutedges = (disableOutedges ? outDegree : 0);
+    }
+
 
     public int getId() {
         return this.id;
@@ -116,6 +153,19 @@ public class ChiVertex<VertexValue, EdgeValue> {
         this.vertexPtr = vertexPtr;
     }
 
+    /**
+     * Sets the location of the vertex value, reusing the pointer object of this vertex.
+     */
+    public void setDataPtr(int blockId, int offset) {
+        if (reusablePtr == null) {
+            reusablePtr = new ChiPointer(blockId, offset);
+        } else {
+            reusablePtr.blockId = blockId;
+            reusablePtr.offset = offset;
+        }
+        this.vertexPtr = reusablePtr;
+    }
+
 
     /**
      * Access the value of a vertex
@@ -133,6 +183,36 @@ public class ChiVertex<VertexValue, EdgeValue> {
         blockManager.writeValue(vertexPtr, vertexValueConverter, x);
     }
 
+    /*
+     * Primitive accessors of the vertex value, which avoid boxing and temporary arrays.
+     * The vertex value converter must implement FloatBytesConverter, IntBytesConverter
+     * or LongBytesConverter, respectively.
+     */
+
+    public float getFloatValue() {
+        return blockManager.getFloat(vertexPtr.blockId, vertexPtr.offset, (FloatBytesConverter) vertexValueConverter);
+    }
+
+    public void setFloatValue(float x) {
+        blockManager.setFloat(vertexPtr.blockId, vertexPtr.offset, (FloatBytesConverter) vertexValueConverter, x);
+    }
+
+    public int getIntValue() {
+        return blockManager.getInt(vertexPtr.blockId, vertexPtr.offset, (IntBytesConverter) vertexValueConverter);
+    }
+
+    public void setIntValue(int x) {
+        blockManager.setInt(vertexPtr.blockId, vertexPtr.offset, (IntBytesConverter) vertexValueConverter, x);
+    }
+
+    public long getLongValue() {
+        return blockManager.getLong(vertexPtr.blockId, vertexPtr.offset, (LongBytesConverter) vertexValueConverter);
+    }
+
+    public void setLongValue(long x) {
+        blockManager.setLong(vertexPtr.blockId, vertexPtr.offset, (LongBytesConverter) vertexValueConverter, x);
+    }
+
 
     /**
      * Returns a random out-neighbors vertex id.
@@ -142,9 +222,9 @@ public class ChiVertex<VertexValue, EdgeValue> {
         int i = (int) (Math.random() * numOutEdges());
         if (edgeValueConverter != null) {
             int idx = i * 3;
-            return outEdgeDataArray[idx + 2];
+            return outEdgeDataArray[outBase + idx + 2];
         } else {
-            return outEdgeDataArray[i];
+            return outEdgeDataArray[outBase + i];
         }
     }
 
@@ -188,12 +268,12 @@ public class ChiVertex<VertexValue, EdgeValue> {
         tmpInEdges--;
         if (edgeValueConverter != null) {
             int idx = tmpInEdges * 3;
-            inEdgeDataArray[idx] = chunkId;
-            inEdgeDataArray[idx + 1] = offset;
-            inEdgeDataArray[idx + 2] = vertexId;
+            inEdgeDataArray[inBase + idx] = chunkId;
+            inEdgeDataArray[inBase + idx + 1] = offset;
+            inEdgeDataArray[inBase + idx + 2] = vertexId;
         } else {
             if (inEdgeDataArray != null)
-                inEdgeDataArray[tmpInEdges] = vertexId;
+                inEdgeDataArray[inBase + tmpInEdges] = vertexId;
         }
     }
 
@@ -214,12 +294,12 @@ public class ChiVertex<VertexValue, EdgeValue> {
         tmpOutEdges--;
         if (edgeValueConverter != null) {
             int idx = tmpOutEdges * 3;
-            outEdgeDataArray[idx] = chunkId;
-            outEdgeDataArray[idx + 1] = offset;
-            outEdgeDataArray[idx + 2] = vertexId;
+            outEdgeDataArray[outBase + idx] = chunkId;
+            outEdgeDataArray[outBase + idx + 1] = offset;
+            outEdgeDataArray[outBase + idx + 2] = vertexId;
         } else {
             if (outEdgeDataArray != null)
-                outEdgeDataArray[tmpOutEdges] = vertexId;
+                outEdgeDataArray[outBase + tmpOutEdges] = vertexId;
         }
     }
 
@@ -231,9 +311,9 @@ public class ChiVertex<VertexValue, EdgeValue> {
     public ChiEdge<EdgeValue> inEdge(int i) {
         if (edgeValueConverter != null) {
             int idx = i * 3;
-            return new Edge(new ChiPointer(inEdgeDataArray[idx], inEdgeDataArray[idx + 1]), inEdgeDataArray[idx + 2]);
+            return new Edge(new ChiPointer(inEdgeDataArray[inBase + idx], inEdgeDataArray[inBase + idx + 1]), inEdgeDataArray[inBase + idx + 2]);
         } else {
-            return new Edge(null, inEdgeDataArray[i]);
+            return new Edge(null, inEdgeDataArray[inBase + i]);
         }
     }
 
@@ -245,9 +325,9 @@ public class ChiVertex<VertexValue, EdgeValue> {
     public ChiEdge<EdgeValue>  outEdge(int i) {
         if (edgeValueConverter != null) {
             int idx = i * 3;
-            return new Edge(new ChiPointer(outEdgeDataArray[idx], outEdgeDataArray[idx + 1]), outEdgeDataArray[idx + 2]);
+            return new Edge(new ChiPointer(outEdgeDataArray[outBase + idx], outEdgeDataArray[outBase + idx + 1]), outEdgeDataArray[outBase + idx + 2]);
         } else {
-            return new Edge(null, outEdgeDataArray[i]);
+            return new Edge(null, outEdgeDataArray[outBase + i]);
         }
     }
 
@@ -258,12 +338,90 @@ public class ChiVertex<VertexValue, EdgeValue> {
     public int getOutEdgeId(int i) {
         if (edgeValueConverter != null) {
             int idx = i * 3;
-            return outEdgeDataArray[idx + 2];
+            return outEdgeDataArray[outBase + idx + 2];
         } else {
-            return outEdgeDataArray[i];
+            return outEdgeDataArray[outBase + i];
         }
     }
 
+    /**
+     * Get vertex-id of the i'th in edge (avoid creating the edge-object).
+     * @param i
+     */
+    public int getInEdgeId(int i) {
+        if (edgeValueConverter != null) {
+            return inEdgeDataArray[inBase + i * 3 + 2];
+        } else {
+            return inEdgeDataArray[inBase + i];
+        }
+    }
+
+    /*
+     * Primitive accessors of the edge values. They read and write the data blocks
+     * directly, without creating edge or pointer objects. The edge value converter must
+     * implement FloatBytesConverter (or IntBytesConverter for the int-versions).
+     */
+
+    public float getInEdgeFloat(int i) {
+        return getInEdgeFloat(i, 0);
+    }
+
+    public void setInEdgeFloat(int i, float value) {
+        setInEdgeFloat(i, 0, value);
+    }
+
+    public float getOutEdgeFloat(int i) {
+        return getOutEdgeFloat(i, 0);
+    }
+
+    public void setOutEdgeFloat(int i, float value) {
+        setOutEdgeFloat(i, 0, value);
+    }
+
+    /**
+     * Float at byte offset fieldOffset of the i'th in-edge value, for example
+     * 4 for the second component of a FloatPair.
+     */
+    public float getInEdgeFloat(int i, int fieldOffset) {
+        int idx = i * 3;
+        return blockManager.getFloat(inEdgeDataArray[inBase + idx], inEdgeDataArray[inBase + idx + 1] + fieldOffset, (FloatBytesConverter) edgeValueConverter);
+    }
+
+    public void setInEdgeFloat(int i, int fieldOffset, float value) {
+        int idx = i * 3;
+        blockManager.setFloat(inEdgeDataArray[inBase + idx], inEdgeDataArray[inBase + idx + 1] + fieldOffset, (FloatBytesConverter) edgeValueConverter, value);
+    }
+
+    public float getOutEdgeFloat(int i, int fieldOffset) {
+        int idx = i * 3;
+        return blockManager.getFloat(outEdgeDataArray[outBase + idx], outEdgeDataArray[outBase + idx + 1] + fieldOffset, (FloatBytesConverter) edgeValueConverter);
+    }
+
+    public void setOutEdgeFloat(int i, int fieldOffset, float value) {
+        int idx = i * 3;
+        blockManager.setFloat(outEdgeDataArray[outBase + idx], outEdgeDataArray[outBase + idx + 1] + fieldOffset, (FloatBytesConverter) edgeValueConverter, value);
+    }
+
+    public int getInEdgeInt(int i) {
+        int idx = i * 3;
+        return blockManager.getInt(inEdgeDataArray[inBase + idx], inEdgeDataArray[inBase + idx + 1], (IntBytesConverter) edgeValueConverter);
+    }
+
+    public void setInEdgeInt(int i, int value) {
+        int idx = i * 3;
+        blockManager.setInt(inEdgeDataArray[inBase + idx], inEdgeDataArray[inBase + idx + 1], (IntBytesConverter) edgeValueConverter, value);
+    }
+
+    public int getOutEdgeInt(int i) {
+        int idx = i * 3;
+        return blockManager.getInt(outEdgeDataArray[outBase + idx], outEdgeDataArray[outBase + idx + 1], (IntBytesConverter) edgeValueConverter);
+    }
+
+    public void setOutEdgeInt(int i, int value) {
+        int idx = i * 3;
+        blockManager.setInt(outEdgeDataArray[outBase + idx], outEdgeDataArray[outBase + idx + 1], (IntBytesConverter) edgeValueConverter, value);
+    }
+
     /**
      * Get i'th edge (in- our out-edge).
      * @param i
@@ -274,6 +432,24 @@ public class ChiVertex<VertexValue, EdgeValue> {
         else return outEdge(i - nInedges);
     }
 
+    /**
+     * Vertex id of the i'th edge (in- or out-edge), see edge(i).
+     */
+    public int getEdgeId(int i) {
+        if (i < nInedges) return getInEdgeId(i);
+        else return getOutEdgeId(i - nInedges);
+    }
+
+    public int getEdgeInt(int i) {
+        if (i < nInedges) return getInEdgeInt(i);
+        else return getOutEdgeInt(i - nInedges);
+    }
+
+    public void setEdgeInt(int i, int value) {
+        if (i < nInedges) setInEdgeInt(i, value);
+        else setOutEdgeInt(i - nInedges, value);
+    }
+
     /**
      * @return the number of in- and out-edges
      */
@@ -288,11 +464,11 @@ public class ChiVertex<VertexValue, EdgeValue> {
         if (edgeValueConverter != null) {
             int[] nbrs = new int[numOutEdges()];
             for(int i=0; i<nbrs.length; i++) {
-                nbrs[i] = outEdgeDataArray[(i * 3) + 2];
+                nbrs[i] = outEdgeDataArray[outBase + (i * 3) + 2];
             }
             return nbrs;
         } else {
-            return outEdgeDataArray.clone();
+            return Arrays.copyOfRange(outEdgeDataArray, outBase, outBase + nOutedges);
         }
     }
 
@@ -303,7 +479,7 @@ public class ChiVertex<VertexValue, EdgeValue> {
      */
     public EdgeValue getOutEdgeValue(int i) {
         int idx = i * 3;
-        return blockManager.dereference(new ChiPointer(outEdgeDataArray[idx], outEdgeDataArray[idx + 1]),
+        return blockManager.dereference(new ChiPointer(outEdgeDataArray[outBase + idx], outEdgeDataArray[outBase + idx + 1]),
                 (BytesToValueConverter<EdgeValue>) edgeValueConverter);
     }
 
@@ -33,7 +33,7 @@ public class ConnectedComponents implements GraphChiProgram<Integer, Integer> {
 
         /* On first iteration, each vertex chooses a label equalling its id */
         if (iteration == 0) {
-            vertex.setValue(vertex.getId());
+            vertex.setIntValue(vertex.getId());
 
             /* Schedule the vertex itself for execution on next iteration */
             context.getScheduler().addTask(vertex.getId());
@@ -43,10 +43,10 @@ public class ConnectedComponents implements GraphChiProgram<Integer, Integer> {
         /* Choose the smallest id of neighbor vertices. Each vertex
           writes its label to its edges, so it can be accessed by neighbors.
          */
-        int curMin = vertex.getValue();
+        int curMin = vertex.getIntValue();
         for(int i=0; i < numEdges; i++) {
-            int nbLabel = vertex.edge(i).getValue();
-            if (iteration == 0) nbLabel = vertex.edge(i).getVertexId(); // Note!
+            int nbLabel = vertex.getEdgeInt(i);
+            if (iteration == 0) nbLabel = vertex.getEdgeId(i); // Note!
             if (nbLabel < curMin) {
                 curMin = nbLabel;
             }
@@ -55,7 +55,7 @@ public class ConnectedComponents implements GraphChiProgram<Integer, Integer> {
         /**
          * Set my new label
          */
-        vertex.setValue(curMin);
+        vertex.setIntValue(curMin);
         int label = curMin;
 
         /**
@@ -63,15 +63,15 @@ public class ConnectedComponents implements GraphChiProgram<Integer, Integer> {
          */
         if (iteration > 0) {
             for(int i=0; i < numEdges; i++) {
-                if (vertex.edge(i).getValue() > label) {
-                    vertex.edge(i).setValue(label);
-                    context.getScheduler().addTask(vertex.edge(i).getVertexId());
+                if (vertex.getEdgeInt(i) > label) {
+                    vertex.setEdgeInt(i, label);
+                    context.getScheduler().addTask(vertex.getEdgeId(i));
                 }
             }
         } else {
             // Special case for first iteration to avoid overwriting
             for(int i=0; i < vertex.numOutEdges(); i++) {
-                vertex.outEdge(i).setValue(label);
+                vertex.setOutEdgeInt(i, label);
             }
         }
     }
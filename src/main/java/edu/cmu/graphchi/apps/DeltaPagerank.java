@@ -0,0 +1,120 @@
+package edu.cmu.graphchi.apps;
+
+import edu.cmu.graphchi.*;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.GraphChiEngine;
+import edu.cmu.graphchi.engine.PriorityScheduler;
+import edu.cmu.graphchi.engine.VertexInterval;
+import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import edu.cmu.graphchi.preprocessing.VertexIdTranslate;
+import edu.cmu.graphchi.util.IdFloat;
+import edu.cmu.graphchi.util.Toplist;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Example application: delta-based PageRank. Instead of recomputing the rank from
+ * the in-neighbors, each vertex adds its accumulated change (residual) to its rank and
+ * pushes a share of it to its out-neighbors through the PriorityScheduler. Only
+ * vertices whose residual exceeds the threshold are updated, so the work shrinks
+ * as the computation converges. Edge values are not used.
+ */
+public class DeltaPagerank implements GraphChiProgram<Float, Float> {
+
+    private static Logger logger = ChiLogger.getLogger("deltapagerank");
+
+    public void update(ChiVertex<Float, Float> vertex, GraphChiContext context)  {
+        PriorityScheduler scheduler = (PriorityScheduler) context.getScheduler();
+        float delta;
+        if (context.getIteration() == 0) {
+            /* Initialize on first iteration */
+            delta = 0.15f;
+            vertex.setFloatValue(delta);
+        } else {
+            delta = scheduler.takeResidual(vertex.getId());
+            vertex.setFloatValue(vertex.getFloatValue() + delta);
+        }
+
+        /* Push my change (divided by my out-degree) to my out-neighbors */
+        int nOut = vertex.numOutEdges();
+        if (nOut > 0) {
+            float push = 0.85f * delta / nOut;
+            for(int i=0; i < nOut; i++) {
+                scheduler.addTask(vertex.getOutEdgeId(i), push);
+            }
+        }
+    }
+
+    /**
+     * Callbacks (not needed for DeltaPagerank)
+     */
+    public void beginIteration(GraphChiContext ctx) {}
+    public void endIteration(GraphChiContext ctx) {}
+    public void beginInterval(GraphChiContext ctx, VertexInterval interval) {}
+    public void endInterval(GraphChiContext ctx, VertexInterval interval) {}
+    public void beginSubInterval(GraphChiContext ctx, VertexInterval interval) {}
+    public void endSubInterval(GraphChiContext ctx, VertexInterval interval) {}
+
+    /**
+     * Usage: java edu.cmu.graphchi.apps.DeltaPagerank graph-name num-shards filetype(edgelist|adjlist) [threshold]
+     */
+    public static void main(String[] args) throws  Exception {
+        String baseFilename = args[0];
+        int nShards = Integer.parseInt(args[1]);
+        String fileType = (args.length >= 3 ? args[2] : null);
+        float threshold = (args.length >= 4 ? Float.parseFloat(args[3]) : 0.001f);
+
+        CompressedIO.disableCompression();
+
+        /* Create shards */
+        FastSharder sharder = Pagerank.createSharder(baseFilename, nShards);
+        if (baseFilename.equals("pipein")) {     // Allow piping graph in
+            sharder.shard(System.in, fileType);
+        } else {
+            if (!new File(ChiFilenames.getFilenameIntervals(baseFilename, nShards)).exists()) {
+                sharder.shard(new FileInputStream(new File(baseFilename)), fileType);
+            } else {
+                logger.info("Found shards -- no need to preprocess");
+            }
+        }
+
+        /* Run GraphChi until no residual is above the threshold */
+        GraphChiEngine<Float, Float> engine = new GraphChiEngine<Float, Float>(baseFilename, nShards);
+        engine.setOnlyAdjacency(true);
+        engine.setVertexDataConverter(new FloatConverter());
+        engine.setEnableScheduler(true);
+        engine.setScheduler(new PriorityScheduler(engine.numVertices(), threshold));
+
+        engine.run(new DeltaPagerank(), 1000);
+
+        logger.info("Ready.");
+
+        /* Output results */
+        int i = 0;
+        VertexIdTranslate trans = engine.getVertexIdTranslate();
+        TreeSet<IdFloat> top20 = Toplist.topListFloat(baseFilename, engine.numVertices(), 20);
+        for(IdFloat vertexRank : top20) {
+            System.out.println(++i + ": " + trans.backward(vertexRank.getVertexId()) + " = " + vertexRank.getValue());
+        }
+    }
+}
@@ -31,22 +31,22 @@ public class Pagerank implements GraphChiProgram<Float, Float> {
     public void update(ChiVertex<Float, Float> vertex, GraphChiContext context)  {
         if (context.getIteration() == 0) {
             /* Initialize on first iteration */
-            vertex.setValue(1.0f);
+            vertex.setFloatValue(1.0f);
         } else {
             /* On other iterations, set my value to be the weighted
                average of my in-coming neighbors pageranks.
              */
             float sum = 0.f;
             for(int i=0; i<vertex.numInEdges(); i++) {
-                sum += vertex.inEdge(i).getValue();
+                sum += vertex.getInEdgeFloat(i);
             }
-            vertex.setValue(0.15f + 0.85f * sum);
+            vertex.setFloatValue(0.15f + 0.85f * sum);
         }
 
         /* Write my value (divided by my out-degree) to my out-edges so neighbors can read it. */
-        float outValue = vertex.getValue() / vertex.numOutEdges();
+        float outValue = vertex.getFloatValue() / vertex.numOutEdges();
         for(int i=0; i<vertex.numOutEdges(); i++) {
-            vertex.outEdge(i).setValue(outValue);
+            vertex.setOutEdgeFloat(i, outValue);
         }
 
     }
@@ -27,34 +27,38 @@ import java.util.logging.Logger;
 public class WeightedPagerank implements GraphChiProgram<Float, FloatPair> {
 
     private static float randomResetProb = 0.15f;
+
+    /* Byte offsets of the FloatPair components in the edge value */
+    private static final int FIRST = 0;
+    private static final int SECOND = 4;
     private static Logger logger = ChiLogger.getLogger("weighted_pagerank");
 
     public void update(ChiVertex<Float, FloatPair> vertex, GraphChiContext context)  {
         if (context.getIteration() == 0) {
             /* Initialize on first iteration */
-            vertex.setValue(1.0f);
+            vertex.setFloatValue(1.0f);
         } else {
             /* On other iterations, set my value to be the weighted
                average of my in-coming neighbors pageranks.
              */
             float sum = 0.f;
             for(int i=0; i<vertex.numInEdges(); i++) {
-                sum += vertex.inEdge(i).getValue().second;
+                sum += vertex.getInEdgeFloat(i, SECOND);
             }
-            vertex.setValue(randomResetProb/context.getNumVertices() + (1-randomResetProb) * sum);
+            vertex.setFloatValue(randomResetProb/context.getNumVertices() + (1-randomResetProb) * sum);
         }
 
         /* Accumulate edge weights */
         float edgeWeightSum = 0.f;
         for(int i=0; i<vertex.numOutEdges(); i++) {
-            edgeWeightSum += vertex.outEdge(i).getValue().first;
+            edgeWeightSum += vertex.getOutEdgeFloat(i, FIRST);
         }
 
         /* Write my value (divided by my out-degree) to my out-edges so neighbors can read it. */
+        float value = vertex.getFloatValue();
         for(int i=0; i<vertex.numOutEdges(); i++) {
-            FloatPair curValue = vertex.outEdge(i).getValue();
-            float edgeWeight = vertex.outEdge(i).getValue().first;
-            vertex.outEdge(i).setValue(new FloatPair(curValue.first, vertex.getValue() * edgeWeight/edgeWeightSum));
+            float edgeWeight = vertex.getOutEdgeFloat(i, FIRST);
+            vertex.setOutEdgeFloat(i, SECOND, value * edgeWeight/edgeWeightSum);
         }
 
     }
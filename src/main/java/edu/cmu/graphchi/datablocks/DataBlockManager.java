@@ -1,6 +1,8 @@
 package edu.cmu.graphchi.datablocks;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
@@ -26,21 +28,68 @@ import java.util.ArrayList;
 public class DataBlockManager {
 
     private ArrayList<byte[]> blocks = new ArrayList<byte[]>(32678);
+    /* Set when a block is modified through writeValue() or markDirty() */
+    private ArrayList<AtomicBoolean> dirty = new ArrayList<AtomicBoolean>(32678);
+    /* Blocks kept in byte buffers, memory-mapped or off-heap (null for blocks on the heap) */
+    private ArrayList<ByteBuffer> bufferBlocks = new ArrayList<ByteBuffer>(32678);
 
     public DataBlockManager() {
 
     }
 
     public int allocateBlock(int numBytes) {
+        return allocateHeapBlock(numBytes);
+    }
+
+    /**
+     * Allocates a block as a byte array, which can be accessed with getRawBlock().
+     */
+    public int allocateHeapBlock(int numBytes) {
         byte[] dataBlock = new byte[numBytes];
 
         synchronized(blocks) {
             int blockId = blocks.size();
             blocks.add(blockId, dataBlock);
+            bufferBlocks.add(blockId, null);
+            dirty.add(blockId, new AtomicBoolean(false));
+            return blockId;
+        }
+    }
+
+    /**
+     * Registers a memory-mapped block. Values are read and written in place
+     * with dereference() and writeValue(), getRawBlock() cannot be used.
+     */
+    public int allocateMappedBlock(ByteBuffer buffer) {
+        return allocateBufferBlock(buffer);
+    }
+
+    protected int allocateBufferBlock(ByteBuffer buffer) {
+        synchronized(blocks) {
+            int blockId = blocks.size();
+            blocks.add(blockId, null);
+            bufferBlocks.add(blockId, buffer);
+            dirty.add(blockId, new AtomicBoolean(false));
             return blockId;
         }
     }
 
+    /**
+     * @return true if the block is kept in a byte buffer (memory-mapped or off-heap)
+     *         instead of a byte array
+     */
+    public boolean isBufferBlock(int blockId) {
+        return bufferBlocks.get(blockId) != null;
+    }
+
+    public ByteBuffer getBufferBlock(int blockId) {
+        ByteBuffer bb = bufferBlocks.get(blockId);
+        if (bb == null) {
+            throw new IllegalStateException("Null-reference!");
+        }
+        return bb;
+    }
+
     public byte[] getRawBlock(int blockId) {
         byte[] bb = blocks.get(blockId);    /* Note, not synchronized! */
         if (bb == null) {
@@ -50,6 +99,34 @@ public class DataBlockManager {
         return bb;
     }
 
+    /**
+     * Copies the first nbytes of the array to the block.
+     */
+    public void copyToBlock(int blockId, byte[] src, int nbytes) {
+        byte[] raw = blocks.get(blockId);
+        if (raw != null) {
+            System.arraycopy(src, 0, raw, 0, nbytes);
+        } else {
+            ByteBuffer bb = getBufferBlock(blockId).duplicate();
+            bb.clear();
+            bb.put(src, 0, nbytes);
+        }
+    }
+
+    /**
+     * Copies the first nbytes of the block to the array.
+     */
+    public void copyFromBlock(int blockId, byte[] dst, int nbytes) {
+        byte[] raw = blocks.get(blockId);
+        if (raw != null) {
+            System.arraycopy(raw, 0, dst, 0, nbytes);
+        } else {
+            ByteBuffer bb = getBufferBlock(blockId).duplicate();
+            bb.clear();
+            bb.get(dst, 0, nbytes);
+        }
+    }
+
 
     /**
      * Called by the engine to clear the registry. All blocks must be null
@@ -57,16 +134,18 @@ public class DataBlockManager {
      */
     public void reset() {
         for(int i=0; i<blocks.size(); i++) {
-            if (blocks.get(i) != null) {
+            if (blocks.get(i) != null || bufferBlocks.get(i) != null) {
                 throw new RuntimeException("Tried to reset block manager, but it was non-empty at index: " + i);
             }
         }
         blocks.clear();
+        bufferBlocks.clear();
+        dirty.clear();
     }
 
     public boolean empty() {
         for(int i=0; i<blocks.size(); i++) {
-            if (blocks.get(i) != null) {
+            if (blocks.get(i) != null || bufferBlocks.get(i) != null) {
                 return false;
             }
         }
@@ -74,7 +153,33 @@ public class DataBlockManager {
     }
 
     public void release(int blockId) {
-        blocks.set(blockId, null);
+        /* Blocks may be released by asynchronous writers concurrently with allocateBlock() */
+        synchronized(blocks) {
+            blocks.set(blockId, null);
+            bufferBlocks.set(blockId, null);
+            dirty.set(blockId, null);
+        }
+    }
+
+    /**
+     * Marks block as modified. Must be called by code that writes directly to
+     * the raw block (writeValue() does this automatically).
+     */
+    public void markDirty(int blockId) {
+        AtomicBoolean flag = dirty.get(blockId);   /* Note, not synchronized! */
+        if (!flag.get()) flag.set(true);
+    }
+
+    /**
+     * @return true if the block has been modified since it was allocated (or
+     *         since clearDirty()). Clean blocks do not need to be written back.
+     */
+    public boolean isDirty(int blockId) {
+        return dirty.get(blockId).get();
+    }
+
+    public void clearDirty(int blockId) {
+        dirty.get(blockId).set(false);
     }
 
     public <T> T dereference(ChiPointer ptr, BytesToValueConverter<T> conv) {
@@ -84,17 +189,93 @@ public class DataBlockManager {
             throw new IllegalStateException("Tried to dereference a null pointer!");
         }
 
-        System.arraycopy(getRawBlock(ptr.blockId), ptr.offset, arr, 0, arr.length);
+        read(ptr, arr);
         return conv.getValue(arr);
     }
 
     public <T> void writeValue(ChiPointer ptr, BytesToValueConverter<T> conv, T value) {
         byte[] arr = new byte[conv.sizeOf()];
         conv.setValue(arr, value);
-        System.arraycopy(arr, 0, getRawBlock(ptr.blockId), ptr.offset, arr.length);
+        write(ptr, arr);
     }
 
     public <T> void writeValue(ChiPointer ptr, byte[] data) {
-        System.arraycopy(data, 0, getRawBlock(ptr.blockId), ptr.offset, data.length);
+        write(ptr, data);
+    }
+
+    /**
+     * Reads a float in place, without allocating.
+     */
+    public float getFloat(int blockId, int offset, FloatBytesConverter conv) {
+        byte[] raw = blocks.get(blockId);
+        if (raw != null) return conv.getFloat(raw, offset);
+        return conv.getFloat(getBufferBlock(blockId), offset);
+    }
+
+    public void setFloat(int blockId, int offset, FloatBytesConverter conv, float value) {
+        byte[] raw = blocks.get(blockId);
+        if (raw != null) {
+            conv.setFloat(raw, offset, value);
+            markDirty(blockId);
+        } else {
+            conv.setFloat(getBufferBlock(blockId), offset, value);
+            markDirty(blockId);
+        }
+    }
+
+    public int getInt(int blockId, int offset, IntBytesConverter conv) {
+        byte[] raw = blocks.get(blockId);
+        if (raw != null) return conv.getInt(raw, offset);
+        return conv.getInt(getBufferBlock(blockId), offset);
+    }
+
+    public void setInt(int blockId, int offset, IntBytesConverter conv, int value) {
+        byte[] raw = blocks.get(blockId);
+        if (raw != null) {
+            conv.setInt(raw, offset, value);
+            markDirty(blockId);
+        } else {
+            conv.setInt(getBufferBlock(blockId), offset, value);
+            markDirty(blockId);
+        }
+    }
+
+    public long getLong(int blockId, int offset, LongBytesConverter conv) {
+        byte[] raw = blocks.get(blockId);
+        if (raw != null) return conv.getLong(raw, offset);
+        return conv.getLong(getBufferBlock(blockId), offset);
+    }
+
+    public void setLong(int blockId, int offset, LongBytesConverter conv, long value) {
+        byte[] raw = blocks.get(blockId);
+        if (raw != null) {
+            conv.setLong(raw, offset, value);
+            markDirty(blockId);
+        } else {
+            conv.setLong(getBufferBlock(blockId), offset, value);
+            markDirty(blockId);
+        }
+    }
+
+    private void read(ChiPointer ptr, byte[] arr) {
+        byte[] raw = blocks.get(ptr.blockId);
+        if (raw != null) {
+            System.arraycopy(raw, ptr.offset, arr, 0, arr.length);
+        } else {
+            ByteBuffer bb = getBufferBlock(ptr.blockId);
+            /* Absolute gets, so that the buffer can be shared by threads */
+            for(int i=0; i < arr.length; i++) arr[i] = bb.get(ptr.offset + i);
+        }
+    }
+
+    private void write(ChiPointer ptr, byte[] arr) {
+        byte[] raw = blocks.get(ptr.blockId);
+        if (raw != null) {
+            System.arraycopy(arr, 0, raw, ptr.offset, arr.length);
+        } else {
+            ByteBuffer bb = getBufferBlock(ptr.blockId);
+            for(int i=0; i < arr.length; i++) bb.put(ptr.offset + i, arr[i]);
+        }
+        markDirty(ptr.blockId);
     }
 }
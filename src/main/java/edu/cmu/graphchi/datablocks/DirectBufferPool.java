@@ -0,0 +1,112 @@
+package edu.cmu.graphchi.datablocks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Pool of direct (off-heap) byte buffers. Buffers are rounded up to a power of two,
+ * and small ones are cut from larger slabs. Released buffers are kept for reuse;
+ * the memory is never returned to the operating system while the pool is alive.
+ */
+public class DirectBufferPool {
+
+    private static final int MIN_BUFFER_SIZE = 4096;
+
+    private final int slabSize;
+    private ByteBuffer slab = null;
+    private final HashMap<Integer, ArrayDeque<ByteBuffer>> free = new HashMap<Integer, ArrayDeque<ByteBuffer>>();
+    private long allocatedBytes = 0;
+    private long freeBytes = 0;
+
+    /**
+     * @param slabSize size of the slabs that buffers of at most slabSize / 4 bytes are cut from
+     */
+    public DirectBufferPool(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    public DirectBufferPool() {
+        this(64 * 1024 * 1024);
+    }
+
+    /**
+     * @return a buffer with capacity of at least nbytes, and limit nbytes.
+     *         The contents are not cleared.
+     */
+    public synchronized ByteBuffer acquire(int nbytes) {
+        int sizeClass = sizeClass(nbytes);
+        ArrayDeque<ByteBuffer> list = free.get(sizeClass);
+        ByteBuffer buf = (list == null ? null : list.poll());
+        if (buf != null) {
+            freeBytes -= sizeClass;
+        } else if (sizeClass <= slabSize / 4) {
+            if (slab == null || slab.remaining() < sizeClass) {
+                slab = ByteBuffer.allocateDirect(slabSize);
+                allocatedBytes += slabSize;
+            }
+            slab.limit(slab.position() + sizeClass);
+            buf = slab.slice();
+            slab.position(slab.limit());
+            slab.limit(slab.capacity());
+        } else {
+            buf = ByteBuffer.allocateDirect(sizeClass);
+            allocatedBytes += sizeClass;
+        }
+        buf.clear();
+        buf.limit(nbytes);
+        return buf;
+    }
+
+    /**
+     * Returns a buffer acquired from this pool for reuse.
+     */
+    public synchronized void release(ByteBuffer buf) {
+        int sizeClass = buf.capacity();
+        ArrayDeque<ByteBuffer> list = free.get(sizeClass);
+        if (list == null) {
+            list = new ArrayDeque<ByteBuffer>();
+            free.put(sizeClass, list);
+        }
+        list.push(buf);
+        freeBytes += sizeClass;
+    }
+
+    /**
+     * @return bytes of direct memory allocated by the pool
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return bytes in released buffers waiting for reuse
+     */
+    public synchronized long getFreeBytes() {
+        return freeBytes;
+    }
+
+    static int sizeClass(int nbytes) {
+        if (nbytes <= MIN_BUFFER_SIZE) return MIN_BUFFER_SIZE;
+        int c = Integer.highestOneBit(nbytes);
+        if (c == nbytes) return c;
+        if (c == (1 << 30)) throw new IllegalArgumentException("Too large buffer: " + nbytes);
+        return c << 1;
+    }
+}
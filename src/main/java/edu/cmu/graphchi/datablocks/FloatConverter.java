@@ -1,5 +1,7 @@
 package edu.cmu.graphchi.datablocks;
 
+import java.nio.ByteBuffer;
+
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
  *
@@ -20,21 +22,42 @@ package edu.cmu.graphchi.datablocks;
  * Converts byte[4] array to Float and Float to byte[4].
  * @author Aapo Kyrola
  */
-public class FloatConverter implements  BytesToValueConverter<Float> {
+public class FloatConverter implements  BytesToValueConverter<Float>, FloatBytesConverter {
     public int sizeOf() {
         return 4;
     }
 
     public Float getValue(byte[] array) {
-        int x = ((array[3]  & 0xff) << 24) + ((array[2] & 0xff) << 16) + ((array[1] & 0xff) << 8) + (array[0] & 0xff);
-        return Float.intBitsToFloat(x);
+        return getFloat(array, 0);
     }
 
     public void setValue(byte[] array, Float val) {
+        setFloat(array, 0, val);
+    }
+
+    public float getFloat(byte[] array, int offset) {
+        int x = ((array[offset + 3]  & 0xff) << 24) + ((array[offset + 2] & 0xff) << 16) + ((array[offset + 1] & 0xff) << 8) + (array[offset] & 0xff);
+        return Float.intBitsToFloat(x);
+    }
+
+    public void setFloat(byte[] array, int offset, float val) {
+        int x = Float.floatToIntBits(val);
+        array[offset + 3] = (byte) ((x >>> 24) & 0xff);
+        array[offset + 2] = (byte) ((x >>> 16) & 0xff);
+        array[offset + 1] = (byte) ((x >>> 8) & 0xff);
+        array[offset] = (byte) ((x >>> 0) & 0xff);
+    }
+
+    public float getFloat(ByteBuffer buf, int offset) {
+        int x = ((buf.get(offset + 3)  & 0xff) << 24) + ((buf.get(offset + 2) & 0xff) << 16) + ((buf.get(offset + 1) & 0xff) << 8) + (buf.get(offset) & 0xff);
+        return Float.intBitsToFloat(x);
+    }
+
+    public void setFloat(ByteBuffer buf, int offset, float val) {
         int x = Float.floatToIntBits(val);
-        array[3] = (byte) ((x >>> 24) & 0xff);
-        array[2] = (byte) ((x >>> 16) & 0xff);
-        array[1] = (byte) ((x >>> 8) & 0xff);
-        array[0] = (byte) ((x >>> 0) & 0xff);
+        buf.put(offset + 3, (byte) ((x >>> 24) & 0xff));
+        buf.put(offset + 2, (byte) ((x >>> 16) & 0xff));
+        buf.put(offset + 1, (byte) ((x >>> 8) & 0xff));
+        buf.put(offset, (byte) ((x >>> 0) & 0xff));
     }
-}
\ No newline at end of file
+}
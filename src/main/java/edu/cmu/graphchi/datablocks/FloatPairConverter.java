@@ -1,12 +1,15 @@
 package edu.cmu.graphchi.datablocks;
 
+import java.nio.ByteBuffer;
+
 /**
- * Converts byte[8] arrays to FloatPair's and vice versa
+ * Converts byte[8] arrays to FloatPair's and vice versa. As a FloatBytesConverter,
+ * reads and writes the first (offset + 0) or second (offset + 4) float of the pair.
  * @see edu.cmu.graphchi.datablocks.FloatPair
  * @author Aapo Kyrola, akyrola@cs.cmu.edu
  */
 
-public class FloatPairConverter implements  BytesToValueConverter<FloatPair> {
+public class FloatPairConverter implements  BytesToValueConverter<FloatPair>, FloatBytesConverter {
     public int sizeOf() {
         return 8;
     }
@@ -29,4 +32,30 @@ public class FloatPairConverter implements  BytesToValueConverter<FloatPair> {
         array[5] = (byte) ((y >>> 8) & 0xff);
         array[4] = (byte) ((y >>> 0) & 0xff);
     }
-}
\ No newline at end of file
+
+    public float getFloat(byte[] array, int offset) {
+        int x = ((array[offset + 3]  & 0xff) << 24) + ((array[offset + 2] & 0xff) << 16) + ((array[offset + 1] & 0xff) << 8) + (array[offset] & 0xff);
+        return Float.intBitsToFloat(x);
+    }
+
+    public void setFloat(byte[] array, int offset, float val) {
+        int x = Float.floatToIntBits(val);
+        array[offset + 3] = (byte) ((x >>> 24) & 0xff);
+        array[offset + 2] = (byte) ((x >>> 16) & 0xff);
+        array[offset + 1] = (byte) ((x >>> 8) & 0xff);
+        array[offset] = (byte) ((x >>> 0) & 0xff);
+    }
+
+    public float getFloat(ByteBuffer buf, int offset) {
+        int x = ((buf.get(offset + 3)  & 0xff) << 24) + ((buf.get(offset + 2) & 0xff) << 16) + ((buf.get(offset + 1) & 0xff) << 8) + (buf.get(offset) & 0xff);
+        return Float.intBitsToFloat(x);
+    }
+
+    public void setFloat(ByteBuffer buf, int offset, float val) {
+        int x = Float.floatToIntBits(val);
+        buf.put(offset + 3, (byte) ((x >>> 24) & 0xff));
+        buf.put(offset + 2, (byte) ((x >>> 16) & 0xff));
+        buf.put(offset + 1, (byte) ((x >>> 8) & 0xff));
+        buf.put(offset, (byte) ((x >>> 0) & 0xff));
+    }
+}
@@ -1,5 +1,7 @@
 package edu.cmu.graphchi.datablocks;
 
+import java.nio.ByteBuffer;
+
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
  *
@@ -20,20 +22,38 @@ package edu.cmu.graphchi.datablocks;
  * Converts byte[4] ot Integer and vice versa.
  * @author  Aapo Kyrola
  */
-public class IntConverter implements  BytesToValueConverter<Integer> {
+public class IntConverter implements  BytesToValueConverter<Integer>, IntBytesConverter {
     public int sizeOf() {
         return 4;
     }
 
     public Integer getValue(byte[] array) {
-        return ((array[3]  & 0xff) << 24) + ((array[2] & 0xff) << 16) + ((array[1] & 0xff) << 8) + (array[0] & 0xff);
+        return getInt(array, 0);
     }
 
     public void setValue(byte[] array, Integer x) {
-        array[0] = (byte) ((x) & 0xff);
-        array[1] = (byte) ((x >>> 8) & 0xff);
-        array[2] = (byte) ((x >>> 16) & 0xff);
-        array[3] = (byte) ((x >>> 24) & 0xff);
+        setInt(array, 0, x);
+    }
+
+    public int getInt(byte[] array, int offset) {
+        return ((array[offset + 3]  & 0xff) << 24) + ((array[offset + 2] & 0xff) << 16) + ((array[offset + 1] & 0xff) << 8) + (array[offset] & 0xff);
+    }
+
+    public void setInt(byte[] array, int offset, int x) {
+        array[offset] = (byte) ((x) & 0xff);
+        array[offset + 1] = (byte) ((x >>> 8) & 0xff);
+        array[offset + 2] = (byte) ((x >>> 16) & 0xff);
+        array[offset + 3] = (byte) ((x >>> 24) & 0xff);
+    }
+
+    public int getInt(ByteBuffer buf, int offset) {
+        return ((buf.get(offset + 3)  & 0xff) << 24) + ((buf.get(offset + 2) & 0xff) << 16) + ((buf.get(offset + 1) & 0xff) << 8) + (buf.get(offset) & 0xff);
+    }
 
+    public void setInt(ByteBuffer buf, int offset, int x) {
+        buf.put(offset, (byte) ((x) & 0xff));
+        buf.put(offset + 1, (byte) ((x >>> 8) & 0xff));
+        buf.put(offset + 2, (byte) ((x >>> 16) & 0xff));
+        buf.put(offset + 3, (byte) ((x >>> 24) & 0xff));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,37 @@
+package edu.cmu.graphchi.datablocks;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Converter for long values that reads and writes the bytes in place, without
+ * boxing or temporary arrays. Used by the primitive accessors of ChiVertex.
+ * @see edu.cmu.graphchi.datablocks.LongConverter
+ */
+public interface LongBytesConverter {
+
+    public long getLong(byte[] array, int offset);
+
+    public void setLong(byte[] array, int offset, long val);
+
+    /* Same for blocks kept in byte buffers (memory-mapped or off-heap), using absolute gets and puts */
+
+    public long getLong(ByteBuffer buf, int offset);
+
+    public void setLong(ByteBuffer buf, int offset, long val);
+}
@@ -1,5 +1,7 @@
 package edu.cmu.graphchi.datablocks;
 
+import java.nio.ByteBuffer;
+
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
  *
@@ -20,30 +22,53 @@ package edu.cmu.graphchi.datablocks;
  * Converts byte[8] to Long and vice versa.
  * @author Aapo Kyrola
  */
-public class LongConverter implements  BytesToValueConverter<Long> {
+public class LongConverter implements  BytesToValueConverter<Long>, LongBytesConverter {
     public int sizeOf() {
         return 8;
     }
 
     public Long getValue(byte[] array) {
-        return  ((long)(array[0]  & 0xff) << 56) +
-                ((long)(array[1]  & 0xff) << 48) +
-                ((long)(array[2] & 0xff) << 40) +
-                ((long)(array[3] & 0xff) << 32) +
-                ((long)(array[4]  & 0xff) << 24) +
-                ((long)(array[5] & 0xff) << 16) +
-                ((long)(array[6] & 0xff) << 8) +
-                ((long)array[7] & 0xff);
+        return getLong(array, 0);
     }
 
     public void setValue(byte[] array, Long x) {
-        array[0] = (byte) ((x >>> 56) & 0xff);
-        array[1] = (byte) ((x >>> 48) & 0xff);
-        array[2] = (byte) ((x >>> 40) & 0xff);
-        array[3] = (byte) ((x >>> 32) & 0xff);
-        array[4] = (byte) ((x >>> 24) & 0xff);
-        array[5] = (byte) ((x >>> 16) & 0xff);
-        array[6] = (byte) ((x >>> 8) & 0xff);
-        array[7] = (byte) ((x) & 0xff);
+        setLong(array, 0, x);
+    }
+
+    public long getLong(byte[] array, int offset) {
+        return  ((long)(array[offset]  & 0xff) << 56) +
+                ((long)(array[offset + 1]  & 0xff) << 48) +
+                ((long)(array[offset + 2] & 0xff) << 40) +
+                ((long)(array[offset + 3] & 0xff) << 32) +
+                ((long)(array[offset + 4]  & 0xff) << 24) +
+                ((long)(array[offset + 5] & 0xff) << 16) +
+                ((long)(array[offset + 6] & 0xff) << 8) +
+                ((long)array[offset + 7] & 0xff);
+    }
+
+    public void setLong(byte[] array, int offset, long x) {
+        array[offset] = (byte) ((x >>> 56) & 0xff);
+        array[offset + 1] = (byte) ((x >>> 48) & 0xff);
+        array[offset + 2] = (byte) ((x >>> 40) & 0xff);
+        array[offset + 3] = (byte) ((x >>> 32) & 0xff);
+        array[offset + 4] = (byte) ((x >>> 24) & 0xff);
+        array[offset + 5] = (byte) ((x >>> 16) & 0xff);
+        array[offset + 6] = (byte) ((x >>> 8) & 0xff);
+        array[offset + 7] = (byte) ((x) & 0xff);
+    }
+
+    public long getLong(ByteBuffer buf, int offset) {
+        long x = 0;
+        for(int i=0; i < 8; i++) {
+            x = (x << 8) + (buf.get(offset + i) & 0xff);
+        }
+        return x;
+    }
+
+    public void setLong(ByteBuffer buf, int offset, long x) {
+        for(int i=7; i >= 0; i--) {
+            buf.put(offset + i, (byte) (x & 0xff));
+            x >>>= 8;
+        }
     }
-}
\ No newline at end of file
+}
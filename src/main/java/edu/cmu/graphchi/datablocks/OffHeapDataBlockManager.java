@@ -0,0 +1,83 @@
+package edu.cmu.graphchi.datablocks;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Block manager that keeps the blocks from allocateBlock() in direct byte buffers
+ * outside of the Java heap. The buffers come from a DirectBufferPool and are
+ * returned to it on release(), so they are reused instead of garbage collected.
+ * Blocks from allocateHeapBlock() stay on the heap.
+ * The JVM limits direct memory with -XX:MaxDirectMemorySize.
+ */
+public class OffHeapDataBlockManager extends DataBlockManager {
+
+    private final DirectBufferPool pool;
+    private final BitSet pooled = new BitSet();
+
+    public OffHeapDataBlockManager(DirectBufferPool pool) {
+        this.pool = pool;
+        Metrics.defaultRegistry().newGauge(OffHeapDataBlockManager.class, "direct-bytes-allocated", new Gauge<Long>() {
+            public Long value() {
+                return OffHeapDataBlockManager.this.pool.getAllocatedBytes();
+            }
+        });
+    }
+
+    public OffHeapDataBlockManager() {
+        this(new DirectBufferPool());
+    }
+
+    @Override
+    public int allocateBlock(int numBytes) {
+        int blockId = allocateBufferBlock(pool.acquire(numBytes));
+        synchronized (pooled) {
+            pooled.set(blockId);
+        }
+        return blockId;
+    }
+
+    @Override
+    public void release(int blockId) {
+        ByteBuffer buf = null;
+        synchronized (pooled) {
+            if (pooled.get(blockId)) {
+                pooled.clear(blockId);
+                buf = getBufferBlock(blockId);
+            }
+        }
+        super.release(blockId);
+        if (buf != null) pool.release(buf);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        synchronized (pooled) {
+            pooled.clear();
+        }
+    }
+
+    public DirectBufferPool getPool() {
+        return pool;
+    }
+}
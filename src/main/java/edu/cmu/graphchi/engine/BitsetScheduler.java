@@ -3,24 +3,32 @@ package edu.cmu.graphchi.engine;
 import edu.cmu.graphchi.ChiVertex;
 import edu.cmu.graphchi.Scheduler;
 
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Scheduler implementation for "Selective Scheduling". Each vertex in the
  * graph has a bit which is 1 if the vertex should be updated, and 0 otherwise.
  * To obtain the current scheduler during computation, use context.getScheduler().
+ * The bits are kept in 64-bit words that are updated atomically, so tasks can
+ * be added from several update threads at the same time. If the vertex intervals
+ * are set, the number of scheduled vertices in each interval is maintained as well.
  * @see edu.cmu.graphchi.GraphChiContext
  * @author akyrola
  */
 public class BitsetScheduler implements Scheduler {
 
     private int nvertices;
-    private BitSet bitset;
-    private boolean hasNewTasks;
+    private AtomicLongArray words;
+    private volatile boolean hasNewTasks;
+    private int[] intervalEnds = null;
+    private AtomicIntegerArray intervalCounts = null;
 
     public BitsetScheduler(int nvertices) {
         this.nvertices = nvertices;
-        bitset = new BitSet(nvertices);
+        words = new AtomicLongArray((nvertices + 63) >>> 6);
     }
 
     /**
@@ -28,8 +36,65 @@ public class BitsetScheduler implements Scheduler {
      * @param vertexId
      */
     public void addTask(int vertexId) {
-        bitset.set(vertexId, true);
-        hasNewTasks = true;
+        int w = vertexId >>> 6;
+        long mask = 1L << vertexId;
+        while (true) {
+            long old = words.get(w);
+            if ((old & mask) != 0) break;
+            if (words.compareAndSet(w, old, old | mask)) {
+                if (intervalCounts != null) intervalCounts.incrementAndGet(intervalOf(vertexId));
+                break;
+            }
+        }
+        if (!hasNewTasks) hasNewTasks = true;
+    }
+
+    /**
+     * Sets the vertex intervals, after which the number of scheduled vertices in each
+     * of them is available from numTasksInInterval().
+     * @param intervals
+     */
+    public void setIntervals(List<VertexInterval> intervals) {
+        int[] ends = new int[intervals.size()];
+        AtomicIntegerArray counts = new AtomicIntegerArray(intervals.size());
+        for(int i=0; i < ends.length; i++) {
+            ends[i] = intervals.get(i).getLastVertex();
+            counts.set(i, numTasks(intervals.get(i).getFirstVertex(), ends[i]));
+        }
+        intervalEnds = ends;
+        intervalCounts = counts;
+    }
+
+    /**
+     * @param interval index of the interval given to setIntervals()
+     * @return number of scheduled vertices in the interval
+     */
+    public int numTasksInInterval(int interval) {
+        if (intervalCounts == null) throw new IllegalStateException("Intervals have not been set");
+        return intervalCounts.get(interval);
+    }
+
+    private int intervalOf(int vertexId) {
+        int idx = Arrays.binarySearch(intervalEnds, vertexId);
+        return (idx >= 0 ? idx : -(idx + 1));
+    }
+
+    /* Subtracts the cleared bits of a word from the counts of their intervals */
+    private void uncount(int w, long cleared) {
+        if (cleared == 0 || intervalCounts == null) return;
+        int first = (w << 6) + Long.numberOfTrailingZeros(cleared);
+        int last = (w << 6) + 63 - Long.numberOfLeadingZeros(cleared);
+        int a = intervalOf(first), b = intervalOf(last);
+        if (a == b) {
+            intervalCounts.addAndGet(a, -Long.bitCount(cleared));
+            return;
+        }
+        for(int k=a; k <= b; k++) {
+            int lo = Math.max(first, k == 0 ? 0 : intervalEnds[k - 1] + 1);
+            int hi = Math.min(last, intervalEnds[k]);
+            long mask = (-1L << lo) & (-1L >>> (63 - (hi & 63)));
+            intervalCounts.addAndGet(k, -Long.bitCount(cleared & mask));
+        }
     }
 
     /**
@@ -38,9 +103,29 @@ public class BitsetScheduler implements Scheduler {
      * @param to last vertex (inclusive)
      */
     public void removeTasks(int from, int to) {
-        for(int i=from; i<=to; i++) {
-            bitset.set(i, false);
+        to = Math.min(to, nvertices - 1);
+        if (from > to) return;
+        int firstWord = from >>> 6, lastWord = to >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - (to & 63));
+        if (firstWord == lastWord) {
+            clearBits(firstWord, firstMask & lastMask);
+            return;
+        }
+        clearBits(firstWord, firstMask);
+        for(int w = firstWord + 1; w < lastWord; w++) {
+            uncount(w, words.getAndSet(w, 0));
         }
+        clearBits(lastWord, lastMask);
+    }
+
+    private void clearBits(int w, long mask) {
+        long old;
+        do {
+            old = words.get(w);
+            if ((old & mask) == 0) return;
+        } while (!words.compareAndSet(w, old, old & ~mask));
+        uncount(w, old & mask);
     }
 
     /**
@@ -48,7 +133,19 @@ public class BitsetScheduler implements Scheduler {
      */
     public void addAllTasks() {
         hasNewTasks = true;
-        bitset.set(0, bitset.size(), true);
+        int n = words.length();
+        for(int w=0; w < n; w++) {
+            words.set(w, -1L);
+        }
+        if ((nvertices & 63) != 0) {
+            words.set(n - 1, -1L >>> (64 - (nvertices & 63)));
+        }
+        if (intervalCounts != null) {
+            for(int k=0; k < intervalEnds.length; k++) {
+                int lo = (k == 0 ? 0 : intervalEnds[k - 1] + 1);
+                intervalCounts.set(k, Math.max(0, Math.min(intervalEnds[k], nvertices - 1) - lo + 1));
+            }
+        }
     }
 
     /**
@@ -65,14 +162,65 @@ public class BitsetScheduler implements Scheduler {
      * @return
      */
     public boolean isScheduled(int i) {
-        return bitset.get(i);
+        return (words.get(i >>> 6) & (1L << i)) != 0;
+    }
+
+    /**
+     * @param from first vertex to consider
+     * @return the first scheduled vertex from the given one, or -1 if none
+     */
+    public int nextScheduled(int from) {
+        if (from >= nvertices) return -1;
+        if (from < 0) from = 0;
+        int w = from >>> 6;
+        long word = words.get(w) & (-1L << from);
+        int n = words.length();
+        while (word == 0) {
+            if (++w == n) return -1;
+            word = words.get(w);
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @param from first vertex
+     * @param to last vertex (inclusive)
+     * @return number of scheduled vertices in the range
+     */
+    public int numTasks(int from, int to) {
+        to = Math.min(to, nvertices - 1);
+        if (from > to) return 0;
+        int firstWord = from >>> 6, lastWord = to >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - (to & 63));
+        if (firstWord == lastWord) {
+            return Long.bitCount(words.get(firstWord) & firstMask & lastMask);
+        }
+        int count = Long.bitCount(words.get(firstWord) & firstMask);
+        for(int w = firstWord + 1; w < lastWord; w++) {
+            count += Long.bitCount(words.get(w));
+        }
+        return count + Long.bitCount(words.get(lastWord) & lastMask);
+    }
+
+    /**
+     * @return number of scheduled vertices
+     */
+    public int numTasks() {
+        return numTasks(0, nvertices - 1);
     }
 
     /**
      * Sets all bits to zero/
      */
     public void removeAllTasks() {
-        bitset.clear();
+        int n = words.length();
+        for(int w=0; w < n; w++) {
+            words.set(w, 0);
+        }
+        if (intervalCounts != null) {
+            for(int k=0; k < intervalEnds.length; k++) intervalCounts.set(k, 0);
+        }
         hasNewTasks = false;
     }
 
@@ -84,7 +232,7 @@ public class BitsetScheduler implements Scheduler {
      */
     public void scheduleOutNeighbors(ChiVertex vertex) {
         int nEdges = vertex.numOutEdges();
-        for(int i=0; i < nEdges; i++) addTask(vertex.outEdge(i).getVertexId());
+        for(int i=0; i < nEdges; i++) addTask(vertex.getOutEdgeId(i));
     }
 
     @Override
@@ -95,7 +243,7 @@ public class BitsetScheduler implements Scheduler {
      */
     public void scheduleInNeighbors(ChiVertex vertex) {
         int nEdges = vertex.numInEdges();
-        for(int i=0; i < nEdges; i++) addTask(vertex.inEdge(i).getVertexId());
+        for(int i=0; i < nEdges; i++) addTask(vertex.getInEdgeId(i));
     }
 
     /**
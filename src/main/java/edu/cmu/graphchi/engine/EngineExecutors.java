@@ -0,0 +1,221 @@
+package edu.cmu.graphchi.engine;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Timer;
+import edu.cmu.graphchi.ChiFilenames;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The thread pools of the engine:
+ * <ul>
+ *     <li>update: vertex updates</li>
+ *     <li>load: loading sub-intervals from the sliding shards, and loading ahead</li>
+ *     <li>io-read: reading (and decompressing) edge data blocks</li>
+ *     <li>decode: parsing the adjacency of the memory shard</li>
+ *     <li>commit: writing edge data blocks and vertex values</li>
+ * </ul>
+ * The load tasks wait for io-read tasks, so the two must not share a pool.
+ * If the shards are striped over several devices (see ChiFilenames.setShardDirectories()),
+ * each device has its own load and io-read pools ("load-dev0", "io-read-dev0", ...), so
+ * that a slow device does not hold up the reads from the others.
+ * An instance given to GraphChiEngine.setExecutors() can be reused for several runs,
+ * and must be shut down by its owner.
+ * For each pool, the registry has gauges "queue-depth" and "active-threads", and
+ * a timer "busy" for the tasks run, with the pool name as scope.
+ */
+public class EngineExecutors {
+
+    private final int updateThreads;
+    private final ThreadPoolExecutor updatePool;
+    private final ThreadPoolExecutor loadPool;
+    private final ThreadPoolExecutor ioReadPool;
+    private final ThreadPoolExecutor decodePool;
+    private final ThreadPoolExecutor commitPool;
+    private final ThreadPoolExecutor autoLoadPool;
+    private final ThreadPoolExecutor[] deviceLoadPools;
+    private final ThreadPoolExecutor[] deviceIoReadPools;
+
+    public EngineExecutors(int updateThreads, int loadThreads, int ioReadThreads, int decodeThreads, int commitThreads) {
+        this(updateThreads, loadThreads, ioReadThreads, decodeThreads, commitThreads, 1, 0);
+    }
+
+    /**
+     * @param numDevices number of devices the shards are on. If more than one, each device
+     *                   gets load and io-read pools of deviceThreads threads.
+     * @param deviceThreads threads of each per-device pool
+     */
+    public EngineExecutors(int updateThreads, int loadThreads, int ioReadThreads, int decodeThreads, int commitThreads,
+                           int numDevices, int deviceThreads) {
+        this.updateThreads = updateThreads;
+        this.updatePool = createPool("update", updateThreads);
+        this.loadPool = createPool("load", loadThreads);
+        this.ioReadPool = createPool("io-read", ioReadThreads);
+        this.decodePool = createPool("decode", decodeThreads);
+        this.commitPool = createPool("commit", commitThreads);
+        this.autoLoadPool = createPool("autoload", 1);
+        if (numDevices > 1) {
+            deviceLoadPools = new ThreadPoolExecutor[numDevices];
+            deviceIoReadPools = new ThreadPoolExecutor[numDevices];
+            for(int d=0; d < numDevices; d++) {
+                deviceLoadPools[d] = createPool("load-dev" + d, deviceThreads);
+                deviceIoReadPools[d] = createPool("io-read-dev" + d, deviceThreads);
+            }
+        } else {
+            deviceLoadPools = null;
+            deviceIoReadPools = null;
+        }
+    }
+
+    /**
+     * Pool sizes from system properties: num_threads (default: number of processors, at least 4),
+     * graphchi.threads.load (4), graphchi.threads.io (4), graphchi.threads.decode (num_threads)
+     * and graphchi.threads.commit (2). The number of devices is taken from ChiFilenames, and
+     * graphchi.threads.device (2) threads are used for each per-device pool.
+     * Loading ahead always runs in its own single-thread pool.
+     */
+    public static EngineExecutors fromSystemProperties() {
+        int nprocs = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int updateThreads = Integer.parseInt(System.getProperty("num_threads", String.valueOf(nprocs)));
+        return new EngineExecutors(updateThreads,
+                Integer.parseInt(System.getProperty("graphchi.threads.load", "4")),
+                Integer.parseInt(System.getProperty("graphchi.threads.io", "4")),
+                Integer.parseInt(System.getProperty("graphchi.threads.decode", String.valueOf(updateThreads))),
+                Integer.parseInt(System.getProperty("graphchi.threads.commit", "2")),
+                ChiFilenames.getNumShardDevices(),
+                Integer.parseInt(System.getProperty("graphchi.threads.device", "2")));
+    }
+
+    private static ThreadPoolExecutor createPool(final String name, int nthreads) {
+        if (nthreads < 1) throw new IllegalArgumentException("Pool " + name + " needs at least one thread");
+        final Timer busy = Metrics.defaultRegistry().newTimer(EngineExecutors.class, "busy", name,
+                TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        final ThreadLocal<Long> taskStart = new ThreadLocal<Long>();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(nthreads, nthreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("graphchi-" + name)) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                taskStart.set(System.nanoTime());
+            }
+
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                busy.update(System.nanoTime() - taskStart.get(), TimeUnit.NANOSECONDS);
+            }
+        };
+
+        /* The gauges of the latest pool with the name replace the previous ones */
+        Metrics.defaultRegistry().removeMetric(EngineExecutors.class, "queue-depth", name);
+        Metrics.defaultRegistry().newGauge(EngineExecutors.class, "queue-depth", name, new Gauge<Integer>() {
+            public Integer value() {
+                return pool.getQueue().size();
+            }
+        });
+        Metrics.defaultRegistry().removeMetric(EngineExecutors.class, "active-threads", name);
+        Metrics.defaultRegistry().newGauge(EngineExecutors.class, "active-threads", name, new Gauge<Integer>() {
+            public Integer value() {
+                return pool.getActiveCount();
+            }
+        });
+        return pool;
+    }
+
+    public int getUpdateThreads() {
+        return updateThreads;
+    }
+
+    public ExecutorService getUpdateExecutor() {
+        return updatePool;
+    }
+
+    public ExecutorService getLoadExecutor() {
+        return loadPool;
+    }
+
+    public ExecutorService getIoReadExecutor() {
+        return ioReadPool;
+    }
+
+    /**
+     * @return pool for loading the shards on the given device
+     */
+    public ExecutorService getLoadExecutor(int device) {
+        return (deviceLoadPools == null ? loadPool : deviceLoadPools[device % deviceLoadPools.length]);
+    }
+
+    /**
+     * @return pool for reading the edge data blocks on the given device
+     */
+    public ExecutorService getIoReadExecutor(int device) {
+        return (deviceIoReadPools == null ? ioReadPool : deviceIoReadPools[device % deviceIoReadPools.length]);
+    }
+
+    public ExecutorService getDecodeExecutor() {
+        return decodePool;
+    }
+
+    public ExecutorService getCommitExecutor() {
+        return commitPool;
+    }
+
+    /**
+     * @return single-thread pool for loading the next window ahead. It is separate from the
+     *         load pools, because the loading task waits for the shard loads it submits to them.
+     */
+    public ExecutorService getAutoLoadExecutor() {
+        return autoLoadPool;
+    }
+
+    /**
+     * Shuts down all pools. Submitted tasks are still run.
+     */
+    public void shutdown() {
+        updatePool.shutdown();
+        loadPool.shutdown();
+        ioReadPool.shutdown();
+        decodePool.shutdown();
+        commitPool.shutdown();
+        autoLoadPool.shutdown();
+        if (deviceLoadPools != null) {
+            for(int d=0; d < deviceLoadPools.length; d++) {
+                deviceLoadPools[d].shutdown();
+                deviceIoReadPools[d].shutdown();
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            return new Thread(r, prefix + "-" + counter.incrementAndGet());
+        }
+    }
+}
@@ -1,21 +1,28 @@
 package edu.cmu.graphchi.engine;
 
 import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
 import edu.cmu.graphchi.*;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.OffHeapDataBlockManager;
 import edu.cmu.graphchi.engine.auxdata.DegreeData;
 import edu.cmu.graphchi.engine.auxdata.VertexData;
-import edu.cmu.graphchi.engine.auxdata.VertexDegree;
 import edu.cmu.graphchi.hadoop.PigGraphChiBase;
+import edu.cmu.graphchi.io.BlockWriteBehind;
+import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import edu.cmu.graphchi.preprocessing.IncrementalSharder;
 import edu.cmu.graphchi.preprocessing.VertexIdTranslate;
+import edu.cmu.graphchi.shards.EdgeBuffer;
 import edu.cmu.graphchi.shards.MemoryShard;
 import edu.cmu.graphchi.shards.SlidingShard;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
@@ -53,8 +60,15 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
     protected GraphChiContextInternal chiContext = new GraphChiContextInternal();
     private DataBlockManager blockManager;
-    private ExecutorService parallelExecutor;
+    private EngineExecutors executors;
+    private UpdateExecutor<VertexDataType, EdgeDataType> updateExecutor;
+    private ExecutorService decodeExecutor;
     private ExecutorService loadingExecutor;
+    private ExecutorService[] shardLoadExecutors;
+    private ExecutorService[] shardIoExecutors;
+    private ExecutorService commitExecutor;
+    private BlockWriteBehind writeBehind;
+    private final ArrayList<Future<?>> vertexCommits = new ArrayList<Future<?>>();
     private DegreeData degreeHandler;
     private VertexData<VertexDataType> vertexDataHandler;
 
@@ -64,10 +78,16 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     protected boolean enableScheduler = false;
     protected boolean onlyAdjacency = false;
     protected BitsetScheduler scheduler = null;
+    private boolean hasSetScheduler = false;
     protected long nupdates = 0;
     protected boolean enableDeterministicExecution = true;
     private boolean useStaticWindowSize = false;
+    private boolean memoryMappedShards = "1".equals(System.getProperty("graphchi.mmap"));
     protected long memBudget;
+    private boolean adaptiveMemoryBudget = true;
+    private MemoryModel memoryModel = null;
+    private MemoryModel windowMemoryModel;
+    private MemoryBudgetFeedback budgetFeedback;
     protected VertexIdTranslate vertexIdTranslate;
 
     protected boolean hasSetVertexDataConverter = false, hasSetEdgeDataConverter = false;
@@ -76,17 +96,32 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     private static final Logger logger = ChiLogger.getLogger("engine");
 
     /* Automatic loading of next window */
-    private boolean autoLoadNext = false; // Only for only-adjacency cases!
+    private boolean autoLoadNext = false;
     private boolean skipZeroDegreeVertices = false;
 
     private FutureTask<IntervalData> nextWindow;
 
+    /* Reused vertex windows, see nextVertexWindow() */
+    private final VertexWindow<VertexDataType, EdgeDataType>[] vertexWindows = new VertexWindow[] {
+            new VertexWindow<VertexDataType, EdgeDataType>(), new VertexWindow<VertexDataType, EdgeDataType>()};
+    private int vertexWindowIdx = 0;
+
+    /* Edges added while running, buffered per shard of the destination, see addEdge() */
+    private boolean enableDynamicEdges = false;
+    private int maxBufferedEdges = 1000000;
+    private volatile EdgeBuffer[] edgeBuffers;
+    /* Buffered edges seen by the current window, and the blocks of their values */
+    private int[] windowBufferedEdges;
+    private int[] windowBufferBlockIds;
+
     /* Metrics */
     private final Timer loadTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "shard-loading", TimeUnit.SECONDS, TimeUnit.MINUTES);
     private final Timer executionTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "execute-updates", TimeUnit.SECONDS, TimeUnit.MINUTES);
     private final Timer waitForFutureTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "wait-for-future", TimeUnit.SECONDS, TimeUnit.MINUTES);
     private final Timer initVerticesTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "init-vertices", TimeUnit.SECONDS, TimeUnit.MINUTES);
     private final Timer determineNextWindowTimer = Metrics.defaultRegistry().newTimer(GraphChiEngine.class, "det-next-window", TimeUnit.SECONDS, TimeUnit.MINUTES);
+    private final Counter skippedIntervals = Metrics.defaultRegistry().newCounter(GraphChiEngine.class, "skipped-intervals");
+    private final Counter edgeBufferFlushes = Metrics.defaultRegistry().newCounter(GraphChiEngine.class, "edge-buffer-flushes");
 
 
     protected boolean modifiesInedges = true, modifiesOutedges = true;
@@ -104,7 +139,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         this.baseFilename = baseFilename;
         this.nShards = nShards;
         loadIntervals();
-        blockManager = new DataBlockManager();
+        blockManager = ("1".equals(System.getProperty("graphchi.offheap")) ? new OffHeapDataBlockManager() : new DataBlockManager());
         degreeHandler = new DegreeData(baseFilename);
 
         File vertexIdTranslateFile = new File(ChiFilenames.getVertexTranslateDefFile(baseFilename, nShards));
@@ -138,11 +173,40 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
     /**
      * Set the memorybudget in megabytes. Default is JVM's max memory / 4.
      * Memory budget affects the number of vertices loaded into memory at
-     * any time.
+     * any time. Setting the budget disables adapting it, unless
+     * setAdaptiveMemoryBudget(true) is called afterwards.
      * @param mb
      */
     public void setMemoryBudgetMb(long mb) {
         memBudget = mb * 1024 * 1024;
+        adaptiveMemoryBudget = false;
+    }
+
+    public boolean isAdaptiveMemoryBudget() {
+        return adaptiveMemoryBudget;
+    }
+
+    /**
+     * If enabled (default, unless the budget was set), the memory budget is adjusted
+     * after each sub-interval based on the observed heap usage.
+     * @see MemoryBudgetFeedback
+     * @param adaptiveMemoryBudget
+     */
+    public void setAdaptiveMemoryBudget(boolean adaptiveMemoryBudget) {
+        this.adaptiveMemoryBudget = adaptiveMemoryBudget;
+    }
+
+    public MemoryModel getMemoryModel() {
+        return memoryModel;
+    }
+
+    /**
+     * Sets the model used for estimating the memory needed by the vertices of a window.
+     * By default, a LayoutMemoryModel for the engine settings is used.
+     * @param memoryModel
+     */
+    public void setMemoryModel(MemoryModel memoryModel) {
+        this.memoryModel = memoryModel;
     }
 
     /**
@@ -185,6 +249,9 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
             slidingShard.setDataBlockManager(blockManager);
             slidingShard.setModifiesOutedges(modifiesOutedges);
             slidingShard.setOnlyAdjacency(onlyAdjacency);
+            slidingShard.setIoExecutor(shardIoExecutors[p]);
+            slidingShard.setWriteBehind(writeBehind);
+            slidingShard.setMemoryMapped(memoryMappedShards);
             slidingShards.add(slidingShard);
 
         }
@@ -204,6 +271,8 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         newMemoryShard.setConverter(edataConverter);
         newMemoryShard.setDataBlockManager(blockManager);
         newMemoryShard.setOnlyAdjacency(onlyAdjacency);
+        newMemoryShard.setWriteBehind(writeBehind);
+        newMemoryShard.setMemoryMapped(memoryMappedShards);
         return newMemoryShard;
     }
 
@@ -226,27 +295,45 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
             throw new IllegalStateException("You need to call setVertexDataConverter() prior to calling run()!");
         }
 
-        int nprocs = 4;
-        if (Runtime.getRuntime().availableProcessors() > nprocs) {
-            nprocs = Runtime.getRuntime().availableProcessors();
-        }
-
-        if (System.getProperty("num_threads") != null)
-            nprocs = Integer.parseInt(System.getProperty("num_threads"));
+        /* Pools given with setExecutors() are owned by the caller */
+        boolean ownExecutors = (executors == null);
+        EngineExecutors runExecutors = (ownExecutors ? EngineExecutors.fromSystemProperties() : executors);
 
-        logger.info(":::::::: Using " + nprocs + " execution threads :::::::::");
+        logger.info(":::::::: Using " + runExecutors.getUpdateThreads() + " execution threads :::::::::");
 
-        parallelExecutor = Executors.newFixedThreadPool(nprocs);
-        loadingExecutor = Executors.newFixedThreadPool(4);
+        updateExecutor = new UpdateExecutor<VertexDataType, EdgeDataType>(runExecutors.getUpdateExecutor(),
+                runExecutors.getUpdateThreads());
+        decodeExecutor = runExecutors.getDecodeExecutor();
+        loadingExecutor = runExecutors.getAutoLoadExecutor();
+        /* Each shard is loaded through the pools of its device */
+        shardLoadExecutors = new ExecutorService[nShards];
+        shardIoExecutors = new ExecutorService[nShards];
+        for(int p=0; p < nShards; p++) {
+            shardLoadExecutors[p] = runExecutors.getLoadExecutor(ChiFilenames.getShardDevice(p));
+            shardIoExecutors[p] = runExecutors.getIoReadExecutor(ChiFilenames.getShardDevice(p));
+        }
+        commitExecutor = runExecutors.getCommitExecutor();
+        /* Blocks waiting to be written are bounded by a quarter of the memory budget */
+        writeBehind = new BlockWriteBehind(commitExecutor, memBudget / 4);
 
         chiContext.setNumIterations(niters);
 
+        /* Edge data blocks are read with the codec they were written with */
+        CompressedIO.setCodecFromMetadata(FastSharder.readMetadata(baseFilename, nShards));
+        logger.info("Edge data block codec: " + CompressedIO.getCodec().getName());
+
+        if (memoryMappedShards && CompressedIO.isCompressionEnabled()) {
+            logger.warning("Memory mapped shards require disabled compression (graphchi.compression=0), not using memory mapping.");
+            memoryMappedShards = false;
+        }
+
         long startTime = System.currentTimeMillis();
         initializeSlidingShards();
 
         if (enableScheduler) {
             initializeScheduler();
             chiContext.setScheduler(scheduler);
+            scheduler.setIntervals(intervals);
             scheduler.addAllTasks();
             logger.info("Using scheduler!");
         }  else {
@@ -269,13 +356,41 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
         chiContext.setNumEdges(numEdges());
 
+        windowMemoryModel = memoryModel;
+        if (windowMemoryModel == null) {
+            windowMemoryModel = new LayoutMemoryModel(vertexDataConverter != null ? vertexDataConverter.sizeOf() : 0,
+                    onlyAdjacency ? 0 : edataConverter.sizeOf(),
+                    vertexDataHandler != null && vertexDataHandler.isSparse(), !disableInEdges, !disableOutEdges);
+        }
+        budgetFeedback = new MemoryBudgetFeedback();
+
+        if (enableDynamicEdges) {
+            if (autoLoadNext) {
+                /* The degrees of the next window would not include the edges added meanwhile */
+                logger.warning("Loading ahead is not supported with dynamic edges; disabling it.");
+                autoLoadNext = false;
+            }
+            initializeEdgeBuffers();
+        }
+
+        if (autoLoadNext && !onlyAdjacency) {
+            if (enableScheduler) {
+                /* The next window would be chosen before the updates of the current one schedule their tasks */
+                logger.warning("Loading ahead is not supported with scheduler and edge data; disabling it.");
+                autoLoadNext = false;
+            } else {
+                for(SlidingShard shard : slidingShards) {
+                    shard.setDeferRelease(true);
+                }
+            }
+        }
+
 
         for(int iter=0; iter < niters; iter++) {
-            /* Wait for executor have finished all writes */
-            while (!blockManager.empty()) {
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException ie) {}
+            /* Edge data is on disk after the previous iteration; wait for the vertex values */
+            waitForVertexCommits();
+            if (!blockManager.empty()) {
+                logger.warning("Data blocks were not released before iteration " + iter);
             }
             blockManager.reset();
             if(chiContext.isFinishComputation()) {
@@ -292,6 +407,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                     break;
                 }
                 scheduler.reset();
+                logger.info("Scheduled tasks: " + scheduler.numTasks());
             }
 
             for(int execInterval=0; execInterval < nShards; ++execInterval) {
@@ -308,6 +424,15 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
                 program.beginInterval(chiContext, intervals.get(execInterval));
 
+                if (enableScheduler && nextWindow == null && scheduler.numTasksInInterval(execInterval) == 0) {
+                    /* beginInterval() is still called, but neither the memory shard nor the sliding
+                       shards are touched: the sliding shards fast-forward over the interval when
+                       they are read next time. */
+                    logger.info("No vertices scheduled in interval, skipping.");
+                    skippedIntervals.inc();
+                    continue;
+                }
+
                 MemoryShard<EdgeDataType> memoryShard = null;
                 if (!disableInEdges) {
                     if (!onlyAdjacency || !autoLoadNext || nextWindow == null) {
@@ -321,16 +446,27 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                 subIntervalStart = intervalSt;
 
                 while (subIntervalStart <= intervalEn) {
+                    if (enableScheduler && nextWindow == null) {
+                        /* Jump to the next scheduled vertex */
+                        int next = scheduler.nextScheduled(subIntervalStart);
+                        if (next < 0 || next > intervalEn) {
+                            logger.info("No vertices scheduled: " + subIntervalStart + " -- " + intervalEn);
+                            break;
+                        }
+                        subIntervalStart = next;
+                    }
                     int adjMaxWindow = maxWindow;
                     if (Integer.MAX_VALUE - subIntervalStart < maxWindow) adjMaxWindow = Integer.MAX_VALUE - subIntervalStart - 1;
 
                     if (anyVertexScheduled(subIntervalStart, Math.min(intervalEn, subIntervalStart + adjMaxWindow ))) {
                         ChiVertex<VertexDataType, EdgeDataType>[] vertices = null;
                         int vertexBlockId = -1;
+                        WindowPrediction prediction;
 
                         if (!autoLoadNext || nextWindow == null) {
+                            prediction = new WindowPrediction();
                             try {
-                                subIntervalEnd = determineNextWindow(subIntervalStart, Math.min(intervalEn, subIntervalStart + adjMaxWindow ));
+                                subIntervalEnd = determineNextWindow(subIntervalStart, Math.min(intervalEn, subIntervalStart + adjMaxWindow ), prediction);
                             } catch (NoEdgesInIntervalException nie) {
                                 logger.info("No edges, skip: " + subIntervalStart + " -- " + subIntervalEnd);
                                 subIntervalEnd = subIntervalStart + adjMaxWindow;
@@ -341,10 +477,11 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
                             logger.info("Subinterval:: " + subIntervalStart + " -- " + subIntervalEnd + " (iteration " + iter + ")");
 
-                            vertices = new ChiVertex[nvertices];
+                            VertexWindow<VertexDataType, EdgeDataType> window = nextVertexWindow();
 
                             logger.info("Init vertices...");
-                            vertexBlockId = initVertices(nvertices, subIntervalStart, vertices);
+                            vertexBlockId = initVertices(nvertices, subIntervalStart, window);
+                            vertices = window.getVertices();
 
                             logger.info("Loading...");
                             long t0 = System.currentTimeMillis();
@@ -358,6 +495,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                                 IntervalData next = nextWindow.get();
 
                                 memoryShard = next.getMemShard();
+                                prediction = next.getPrediction();
                                 _timer.stop();
                                 logger.info("Waiting for future task loading took " + (System.currentTimeMillis() - tf) + " ms");
                                 if (subIntervalStart != next.getSubInterval().getFirstVertex())
@@ -372,6 +510,14 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                             }
                         }
 
+                        if (autoLoadNext && !onlyAdjacency && !disableOutEdges) {
+                            /* Blocks of the previous window are not used anymore, but the ones
+                               of the current window must stay until its updates are done. */
+                            for(int p=0; p < nShards; p++) {
+                                if (p != execInterval) slidingShards.get(p).releaseDeferred(false);
+                            }
+                        }
+
                         if (autoLoadNext) {
                             /* Start a future for loading the next window */
                             adjMaxWindow = maxWindow;
@@ -380,7 +526,9 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                             if (subIntervalEnd + 1 <= intervalEn) {
                                 nextWindow = new FutureTask<IntervalData>(new AutoLoaderTask(new VertexInterval(subIntervalEnd + 1,
                                         Math.min(intervalEn, subIntervalEnd + 1 + adjMaxWindow)), execInterval, memoryShard));
-                            } else if (execInterval < nShards - 1) {
+                            } else if (onlyAdjacency && execInterval < nShards - 1) {
+                                /* With edge data, the next memory shard can be created only after
+                                   this interval's edges have been written */
                                 int nextIntervalSt = intervals.get(execInterval + 1).getFirstVertex();
                                 int nextIntervalEn = intervals.get(execInterval + 1).getLastVertex();
 
@@ -404,20 +552,20 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                         long t1 = System.currentTimeMillis();
                         execUpdates(program, vertices);
                         logger.info("Update exec: " + (System.currentTimeMillis() - t1) + " ms.");
+                        if (edgeBuffers != null) commitBufferedEdges();
+                        adjustMemoryBudget(prediction);
 
                         // Write vertices (async)
                         final int _firstVertex = subIntervalStart;
                         final int _blockId = vertexBlockId;
-                        parallelExecutor.submit(new Runnable() {
-                            @Override
-                            public void run() {
-                                try {
+                        if (vertexDataHandler != null) {
+                            vertexCommits.add(commitExecutor.submit(new Callable<Object>() {
+                                public Object call() throws IOException {
                                     vertexDataHandler.releaseAndCommit(_firstVertex, _blockId);
-                                } catch (IOException ioe) {
-                                    ioe.printStackTrace();
+                                    return null;
                                 }
-                            }
-                        });
+                            }));
+                        }
 
                         subIntervalStart = subIntervalEnd + 1;
 
@@ -435,7 +583,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                 /* Commit */
                 if (!disableInEdges) {
                     memoryShard.commitAndRelease(modifiesInedges, modifiesOutedges);
-                    if (!disableOutEdges && !autoLoadNext) {
+                    if (!disableOutEdges && (!autoLoadNext || !onlyAdjacency)) {
                         slidingShards.get(execInterval).setOffset(memoryShard.getStreamingOffset(),
                                 memoryShard.getStreamingOffsetVid(), memoryShard.getStreamingOffsetEdgePtr());
                     }
@@ -446,11 +594,24 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                 shard.flush();
                 shard.setOffset(0, 0, 0);
             }
+            /* All edge data of this iteration must be on disk before the next one */
+            writeBehind.barrier();
             program.endIteration(chiContext);
+
+            if (numBufferedEdges() >= maxBufferedEdges) {
+                flushEdgeBuffers();
+            }
         }    // Iterations
 
-        parallelExecutor.shutdown();
-        loadingExecutor.shutdown();
+        if (numBufferedEdges() > 0) {
+            flushEdgeBuffers();
+        }
+
+        /* Vertex values are committed asynchronously */
+        waitForVertexCommits();
+        if (ownExecutors) {
+            runExecutors.shutdown();
+        }
 
         if (vertexDataHandler != null)
             vertexDataHandler.close();
@@ -458,17 +619,50 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         logger.info("Updates: " + nupdates);
     }
 
+    /**
+     * Waits for the asynchronous commits of vertex values, and rethrows their failures.
+     */
+    private void waitForVertexCommits() throws IOException {
+        try {
+            for(Future<?> f : vertexCommits) {
+                f.get();
+            }
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while committing vertex values", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            vertexCommits.clear();
+        }
+    }
+
     private boolean anyVertexScheduled(int subIntervalStart, int lastVertex) {
         if (!enableScheduler) return true;
 
-        for(int i=subIntervalStart; i<= lastVertex; i++) {
-            if (scheduler.isScheduled(i)) return true;
-        }
-        return false;
+        int next = scheduler.nextScheduled(subIntervalStart);
+        return (next >= 0 && next <= lastVertex);
     }
 
     private void initializeScheduler() {
-        scheduler = new BitsetScheduler(numVertices());
+        /* Schedulers created by the engine are not carried over from a previous run */
+        if (!hasSetScheduler) {
+            scheduler = new BitsetScheduler(numVertices());
+        }
+    }
+
+    public BitsetScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Sets the scheduler used when scheduling is enabled, for example a PriorityScheduler.
+     * The scheduler is kept over runs. By default, a new BitsetScheduler is created for each run.
+     * @param scheduler the scheduler, or null to use the default
+     */
+    public void setScheduler(BitsetScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.hasSetScheduler = (scheduler != null);
     }
 
     private void execUpdates(final GraphChiProgram<VertexDataType, EdgeDataType> program,
@@ -484,103 +678,20 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                 }
             }
         } else {
-            final Object termlock = new Object();
-            final int chunkSize = 1 + vertices.length / 64;
-
-            final int nWorkers = vertices.length / chunkSize + 1;
-            final AtomicInteger countDown = new AtomicInteger(1 + nWorkers);
-
             if (!enableDeterministicExecution) {
                 for(ChiVertex<VertexDataType, EdgeDataType> vertex : vertices) {
                     if (vertex != null) vertex.parallelSafe = true;
                 }
             }
 
-            /* Parallel updates. One thread for non-parallel safe updates, others
-     updated in parallel. This guarantees deterministic execution. */
-
-            /* Non-safe updates */
-            parallelExecutor.submit(new Runnable() {
-                public void run() {
-                    int thrupdates = 0;
-                    GraphChiContext threadContext = chiContext.clone(0);
-                    try {
-                        for(ChiVertex<VertexDataType, EdgeDataType> vertex : vertices) {
-                            if (vertex != null && !vertex.parallelSafe) {
-                                thrupdates++;
-                                program.update(vertex, threadContext);
-                            }
-                        }
-
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }  finally {
-                        int pending = countDown.decrementAndGet();
-                        synchronized (termlock) {
-                            nupdates += thrupdates;
-                            if (pending == 0) {
-                                termlock.notifyAll();;
-                            }
-                        }
-                    }
-                }
-            });
-
-
-            /* Parallel updates */
-            for(int thrId = 0; thrId < nWorkers; thrId++) {
-                final int myId = thrId;
-                final int chunkStart = myId * chunkSize;
-                final int chunkEnd = chunkStart + chunkSize;
-
-                parallelExecutor.submit(new Runnable() {
-
-                    public void run() {
-                        int thrupdates = 0;
-                        GraphChiContext threadContext = chiContext.clone(1 + myId);
-
-                        try {
-                            int end = chunkEnd;
-                            if (end > vertices.length) end = vertices.length;
-                            for(int i = chunkStart; i < end; i++) {
-                                ChiVertex<VertexDataType, EdgeDataType> vertex = vertices[i];
-                                if (vertex != null && vertex.parallelSafe) {
-                                    thrupdates++;
-                                    program.update(vertex, threadContext);
-                                }
-                            }
-
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        } finally {
-                            int pending = countDown.decrementAndGet();
-                            synchronized (termlock) {
-                                nupdates += thrupdates;
-                                if (pending == 0) {
-                                    termlock.notifyAll();
-                                }
-                            }
-                        }
-                    }
-                });
-            }
-            synchronized (termlock) {
-                while(countDown.get() > 0) {
-                    try {
-                        termlock.wait(1500);
-                    } catch (InterruptedException e) {
-                        // What to do?
-                        e.printStackTrace();
-                    }
-                    if (countDown.get() > 0) logger.info("Waiting for execution to finish: countDown:" + countDown.get());
-                }
-            }
-
+            /* Vertices that are not parallel safe are colored so that neighbors are
+               updated in the order of their ids, which guarantees deterministic execution. */
+            nupdates += updateExecutor.execute(program, vertices, chiContext);
         }
         _timer.stop();
     }
 
-    protected int initVertices(int nvertices, int firstVertexId, ChiVertex<VertexDataType, EdgeDataType>[] vertices) throws IOException
+    protected int initVertices(int nvertices, int firstVertexId, VertexWindow<VertexDataType, EdgeDataType> window) throws IOException
     {
         final TimerContext _timer = initVerticesTimer.time();
         ChiVertex.edgeValueConverter = edataConverter;
@@ -588,29 +699,61 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         ChiVertex.blockManager = blockManager;
 
         int blockId = (vertexDataConverter != null ? vertexDataHandler.load(firstVertexId, firstVertexId + nvertices - 1) : -1);
+        window.begin(nvertices);
+        int lastVertexId = firstVertexId + nvertices - 1;
+
+        int[] bufferedIn = null, bufferedOut = null;
+        if (edgeBuffers != null) {
+            bufferedIn = new int[nvertices];
+            bufferedOut = new int[nvertices];
+            for(int p=0; p < nShards; p++) {
+                windowBufferedEdges[p] = edgeBuffers[p].size();
+                edgeBuffers[p].countDegrees(windowBufferedEdges[p], firstVertexId, lastVertexId, bufferedIn, bufferedOut);
+            }
+        }
         for(int j=0; j < nvertices; j++) {
-            if (enableScheduler && !scheduler.isScheduled(j + firstVertexId)) {
-                continue;
+            if (enableScheduler) {
+                int next = scheduler.nextScheduled(j + firstVertexId);
+                if (next < 0 || next > lastVertexId) break;
+                j = next - firstVertexId;
             }
 
-            VertexDegree degree = degreeHandler.getDegree(j + firstVertexId);
-            if (skipZeroDegreeVertices && (degree.inDegree + degree.outDegree == 0)) {
+            int inDegree = degreeHandler.getInDegree(j + firstVertexId);
+            int outDegree = degreeHandler.getOutDegree(j + firstVertexId);
+            if (bufferedIn != null) {
+                inDegree += bufferedIn[j];
+                outDegree += bufferedOut[j];
+            }
+            if (skipZeroDegreeVertices && (inDegree + outDegree == 0)) {
                 continue;
             }
+            window.setDegree(j, inDegree, outDegree);
+        }
+        window.allocate(firstVertexId);
 
-            ChiVertex<VertexDataType, EdgeDataType> v = new ChiVertex<VertexDataType, EdgeDataType>(j + firstVertexId, degree);
-
-            if (vertexDataConverter != null) {
-                v.setDataPtr(vertexDataHandler.getVertexValuePtr(j + firstVertexId, blockId));
+        if (vertexDataConverter != null) {
+            ChiVertex<VertexDataType, EdgeDataType>[] vertices = window.getVertices();
+            for(int j=0; j < nvertices; j++) {
+                if (vertices[j] == null) continue;
+                int offset = vertexDataHandler.getVertexValueOffset(j + firstVertexId);
+                if (offset >= 0) vertices[j].setDataPtr(blockId, offset);
             }
-            vertices[j] = v;
         }
 
-
         _timer.stop();
         return blockId;
     }
 
+    /**
+     * Windows are used alternately, so that the next window can be loaded
+     * while the updates of the current one run.
+     */
+    private VertexWindow<VertexDataType, EdgeDataType> nextVertexWindow() {
+        VertexWindow<VertexDataType, EdgeDataType> window = vertexWindows[vertexWindowIdx];
+        vertexWindowIdx = (vertexWindowIdx + 1) % vertexWindows.length;
+        return window;
+    }
+
     private void loadBeforeUpdates(int interval, final ChiVertex<VertexDataType, EdgeDataType>[] vertices,  final MemoryShard<EdgeDataType> memShard,
                                    final int startVertex, final int endVertex) throws IOException {
         final Object terminationLock = new Object();
@@ -624,7 +767,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                 try {
 
                     logger.info("Memshard: " + startVertex + " -- " + endVertex);
-                    memShard.loadVertices(startVertex, endVertex, vertices, disableOutEdges, parallelExecutor);
+                    memShard.loadVertices(startVertex, endVertex, vertices, disableOutEdges, decodeExecutor);
                     logger.info("Loading memory-shard finished." + Thread.currentThread().getName());
 
                     if (countDown.decrementAndGet() == 0) {
@@ -646,7 +789,7 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                     if (p != interval || disableInEdges) {
                         final int _p = p;
                         final SlidingShard<EdgeDataType> shard = slidingShards.get(p);
-                        loadingExecutor.submit(new Runnable() {
+                        shardLoadExecutors[p].submit(new Runnable() {
 
                             public void run() {
                                 try {
@@ -681,9 +824,106 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
                 e.printStackTrace();
             }
         }
+
+        /* Buffered edges come after the edges of the shards */
+        if (edgeBuffers != null) {
+            for(int p=0; p < nShards; p++) {
+                windowBufferBlockIds[p] = edgeBuffers[p].loadVertices(windowBufferedEdges[p], startVertex, endVertex, vertices,
+                        !disableInEdges, !disableOutEdges, onlyAdjacency ? null : blockManager);
+            }
+        }
         _timer.stop();
     }
 
+    private synchronized void initializeEdgeBuffers() {
+        if (edgeBuffers == null) {
+            /* Other threads may add edges as soon as the buffers are published */
+            int sizeOf = (edataConverter != null ? edataConverter.sizeOf() : 0);
+            EdgeBuffer[] buffers = new EdgeBuffer[nShards];
+            for(int p=0; p < nShards; p++) {
+                buffers[p] = new EdgeBuffer(sizeOf);
+            }
+            windowBufferedEdges = new int[nShards];
+            windowBufferBlockIds = new int[nShards];
+            Arrays.fill(windowBufferBlockIds, -1);
+            edgeBuffers = buffers;
+        }
+    }
+
+    /* Values of the buffered edges may have been changed by the updates */
+    private void commitBufferedEdges() {
+        for(int p=0; p < nShards; p++) {
+            edgeBuffers[p].commit(windowBufferedEdges[p], windowBufferBlockIds[p], blockManager);
+            windowBufferBlockIds[p] = -1;
+        }
+    }
+
+    /**
+     * Merges the buffered edges into the shards, and opens the shards and degrees again.
+     */
+    private void flushEdgeBuffers() throws IOException {
+        long t = System.currentTimeMillis();
+        /* The shard files are replaced by the merge */
+        for(SlidingShard shard : slidingShards) {
+            shard.close();
+        }
+        IncrementalSharder<EdgeDataType> sharder = new IncrementalSharder<EdgeDataType>(baseFilename, nShards, null, edataConverter);
+        for(EdgeBuffer buffer : edgeBuffers) {
+            buffer.flushTo(sharder);
+        }
+        sharder.mergeAll();
+
+        degreeHandler.close();
+        degreeHandler = new DegreeData(baseFilename);
+        initializeSlidingShards();
+        chiContext.setNumEdges(numEdges());
+        edgeBufferFlushes.inc();
+        logger.info("Flushed buffered edges to shards in " + (System.currentTimeMillis() - t) + " ms, edges: " + numEdges());
+    }
+
+    /**
+     * Adds an edge to the graph while the engine is running, for example from update().
+     * The edge is kept in memory and seen by the vertices loaded after it was added; it is
+     * merged into the shards once setMaxBufferedEdges() edges are buffered at the end of
+     * an iteration, and at the end of run(). Endpoints are scheduled if the scheduler is enabled.
+     * Requires setEnableDynamicEdges(true). Thread-safe.
+     * @param src internal id of the source (see getVertexIdTranslate())
+     * @param dst internal id of the destination
+     * @param value value of the edge, ignored if there is no edge data converter
+     */
+    public void addEdge(int src, int dst, EdgeDataType value) {
+        if (!enableDynamicEdges) {
+            throw new IllegalStateException("You need to call setEnableDynamicEdges(true) to add edges");
+        }
+        if (src < 0 || src >= numVertices() || dst < 0 || dst >= numVertices()) {
+            throw new IllegalArgumentException("Edge " + src + " -> " + dst + " is outside the vertex id range of the graph");
+        }
+        if (src == dst) return;
+        initializeEdgeBuffers();
+        int sizeOf = (edataConverter != null ? edataConverter.sizeOf() : 0);
+        byte[] valueBytes = new byte[sizeOf];
+        if (sizeOf > 0 && value != null) edataConverter.setValue(valueBytes, value);
+
+        int shard = 0;
+        while (dst > intervals.get(shard).getLastVertex()) shard++;
+        edgeBuffers[shard].add(src, dst, valueBytes);
+
+        if (scheduler != null) {
+            scheduler.addTask(src);
+            scheduler.addTask(dst);
+        }
+    }
+
+    /**
+     * @return number of edges added with addEdge() that have not been merged into the shards
+     */
+    public long numBufferedEdges() {
+        if (edgeBuffers == null) return 0;
+        long n = 0;
+        for(EdgeBuffer buffer : edgeBuffers) n += buffer.size();
+        return n;
+    }
+
     /**
      * @return the current GraphChiContext object
      */
@@ -706,14 +946,16 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         private int vertexBlockId;
         private MemoryShard<EdgeDataType> memShard;
         private int intervalNum;
+        private WindowPrediction prediction;
 
         IntervalData(VertexInterval subInterval, ChiVertex<VertexDataType, EdgeDataType>[] vertices, int vertexBlockId,
-                     MemoryShard<EdgeDataType> memShard, int intervalNum) {
+                     MemoryShard<EdgeDataType> memShard, int intervalNum, WindowPrediction prediction) {
             this.subInterval = subInterval;
             this.vertices = vertices;
             this.vertexBlockId = vertexBlockId;
             this.intervalNum = intervalNum;
             this.memShard = memShard;
+            this.prediction = prediction;
         }
 
         public VertexInterval getSubInterval() {
@@ -735,11 +977,25 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         public int getIntervalNum() {
             return intervalNum;
         }
+
+        public WindowPrediction getPrediction() {
+            return prediction;
+        }
+    }
+
+    /**
+     * Memory predicted for a window, and whether the budget cut the window. Kept with each
+     * window, because the next window may be determined before the updates of the current one.
+     */
+    static class WindowPrediction {
+        long bytes;
+        boolean budgetLimited;
     }
 
     class AutoLoaderTask implements Callable<IntervalData> {
 
         private ChiVertex<VertexDataType, EdgeDataType>[] vertices;
+        private VertexWindow<VertexDataType, EdgeDataType> window;
         private VertexInterval interval;
         private MemoryShard<EdgeDataType> memShard;
         private int intervalNum;
@@ -748,22 +1004,23 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
             this.interval = interval;
             this.memShard = memShard;
             this.intervalNum = intervalNum;
-            if (!onlyAdjacency)  throw new RuntimeException("Can use auto-loading only with only-adjacency mode!");
+            this.window = nextVertexWindow();
         }
 
         @Override
         public IntervalData call() {
+            WindowPrediction prediction = new WindowPrediction();
             try {
-                int lastVertex  = determineNextWindow(interval.getFirstVertex(), interval.getLastVertex());
+                int lastVertex  = determineNextWindow(interval.getFirstVertex(), interval.getLastVertex(), prediction);
                 int nVertices = lastVertex - interval.getFirstVertex() + 1;
-                this.vertices = (ChiVertex<VertexDataType, EdgeDataType>[]) new ChiVertex[nVertices];
-                int vertexBlockid = initVertices(nVertices, interval.getFirstVertex(), vertices);
+                int vertexBlockid = initVertices(nVertices, interval.getFirstVertex(), window);
+                this.vertices = window.getVertices();
 
                 loadBeforeUpdates(intervalNum, vertices, memShard, interval.getFirstVertex(), lastVertex);
-                return new IntervalData(new VertexInterval(interval.getFirstVertex(), lastVertex), vertices, vertexBlockid, memShard, intervalNum);
+                return new IntervalData(new VertexInterval(interval.getFirstVertex(), lastVertex), vertices, vertexBlockid, memShard, intervalNum, prediction);
 
             } catch (NoEdgesInIntervalException nie) {
-                return new IntervalData(new VertexInterval(interval.getFirstVertex(), interval.getLastVertex()), vertices, -1, memShard, intervalNum);
+                return new IntervalData(new VertexInterval(interval.getFirstVertex(), interval.getLastVertex()), vertices, -1, memShard, intervalNum, prediction);
 
             } catch (Exception err) {
                 err.printStackTrace();
@@ -774,7 +1031,8 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
     }
 
-    private int determineNextWindow(int subIntervalStart, int maxVertex) throws IOException, NoEdgesInIntervalException {
+    private int determineNextWindow(int subIntervalStart, int maxVertex, WindowPrediction prediction)
+            throws IOException, NoEdgesInIntervalException {
         final TimerContext _timer = determineNextWindowTimer.time();
         long totalDegree = 0;
         try {
@@ -786,18 +1044,42 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
             long memReq = 0;
             int maxInterval = maxVertex - subIntervalStart;
-            int vertexDataSizeOf = (vertexDataConverter != null ? vertexDataConverter.sizeOf() : 0);
-            int edataSizeOf = (onlyAdjacency ? 0 : edataConverter.sizeOf());
 
-            logger.info("Memory budget: " + memBudget);
+            /* When loading ahead, two windows are in memory at the same time */
+            long windowBudget = (autoLoadNext ? memBudget / 2 : memBudget);
+            logger.info("Memory budget: " + windowBudget);
+
+            if (!enableScheduler && windowMemoryModel instanceof LinearMemoryModel) {
+                /* Binary search over the prefix sums of the degrees */
+                LinearMemoryModel model = (LinearMemoryModel) windowMemoryModel;
+                int lastVertex = degreeHandler.findLastVertex(subIntervalStart, windowBudget, model.getVertexBytes(),
+                        model.getInEdgeBytes(), model.getOutEdgeBytes(), skipZeroDegreeVertices);
+                lastVertex = Math.max(subIntervalStart, lastVertex);
+                totalDegree = degreeHandler.getInDegreeSum(subIntervalStart, lastVertex)
+                        + degreeHandler.getOutDegreeSum(subIntervalStart, lastVertex);
+                if (totalDegree == 0 && vertexDataConverter == null && !hasBufferedEdges(subIntervalStart, lastVertex)) {
+                    throw new NoEdgesInIntervalException();
+                }
+                long nvertices = (skipZeroDegreeVertices ? degreeHandler.getNonZeroCount(subIntervalStart, lastVertex)
+                        : lastVertex - subIntervalStart + 1);
+                memReq = nvertices * model.getVertexBytes()
+                        + (long) (model.getInEdgeBytes() * degreeHandler.getInDegreeSum(subIntervalStart, lastVertex)
+                        + model.getOutEdgeBytes() * degreeHandler.getOutDegreeSum(subIntervalStart, lastVertex));
+                prediction.budgetLimited = (lastVertex < maxVertex);
+                prediction.bytes = memReq;
+                logger.info("Window " + subIntervalStart + " -- " + lastVertex + ": predicted " + memReq + " bytes");
+                return lastVertex;
+            }
 
-            for(int i=0; i< maxInterval; i++) {
+            for(int i=0; i <= maxInterval; i++) {
                 if (enableScheduler) {
-                    if (!scheduler.isScheduled(i + subIntervalStart)) continue;
+                    /* Only scheduled vertices take memory */
+                    int next = scheduler.nextScheduled(i + subIntervalStart);
+                    if (next < 0 || next > maxVertex) break;
+                    i = next - subIntervalStart;
                 }
-                VertexDegree deg = degreeHandler.getDegree(i + subIntervalStart);
-                int inc = deg.inDegree;
-                int outc = deg.outDegree;
+                int inc = degreeHandler.getInDegree(i + subIntervalStart);
+                int outc = degreeHandler.getOutDegree(i + subIntervalStart);
 
                 if (inc + outc == 0 && skipZeroDegreeVertices) {
                     continue;
@@ -805,26 +1087,57 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
 
                 totalDegree += inc + outc;
 
-                // Following calculation contains some perhaps reasonable estimates of the
-                // overhead of Java objects.
-
-                memReq += vertexDataSizeOf + 256 + (edataSizeOf + 4 + 4 + 4) * (inc + outc);
-                if (memReq > memBudget) {
-                    if (totalDegree == 0 && vertexDataConverter == null) {
+                long vertexReq = windowMemoryModel.vertexBytes(inc, outc);
+                if (memReq + vertexReq > windowBudget) {
+                    if (totalDegree == 0 && vertexDataConverter == null && !hasBufferedEdges(subIntervalStart, subIntervalStart + i)) {
                         throw new NoEdgesInIntervalException();
                     }
-                    return subIntervalStart + i - 1; // Previous vertex was enough
+                    /* Previous vertex was enough, but take at least one vertex */
+                    int lastVertex = Math.max(subIntervalStart, subIntervalStart + i - 1);
+                    if (lastVertex == subIntervalStart + i) memReq += vertexReq;
+                    prediction.budgetLimited = true;
+                    prediction.bytes = memReq;
+                    logger.info("Window " + subIntervalStart + " -- " + lastVertex + ": predicted " + memReq + " bytes");
+                    return lastVertex;
                 }
+                memReq += vertexReq;
             }
-            if (totalDegree == 0 && vertexDataConverter == null) {
+            if (totalDegree == 0 && vertexDataConverter == null && !hasBufferedEdges(subIntervalStart, maxVertex)) {
                 throw new NoEdgesInIntervalException();
             }
+            prediction.bytes = memReq;
+            logger.info("Window " + subIntervalStart + " -- " + maxVertex + ": predicted " + memReq + " bytes");
             return maxVertex;
         } finally {
             _timer.stop();
         }
     }
 
+    private boolean hasBufferedEdges(int firstVertex, int lastVertex) {
+        if (edgeBuffers == null) return false;
+        for(EdgeBuffer buffer : edgeBuffers) {
+            if (buffer.hasEdges(firstVertex, lastVertex)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Logs the heap used by the window whose updates have just run, and adapts the memory
+     * budget to it. The budget is adapted only when a garbage collection has measured the
+     * live heap again since the previous adjustment.
+     */
+    private void adjustMemoryBudget(WindowPrediction prediction) {
+        long liveHeap = MemoryBudgetFeedback.liveHeap();
+        logger.info("Window predicted " + prediction.bytes + " bytes, live heap " + liveHeap + " bytes");
+        if (adaptiveMemoryBudget && !useStaticWindowSize && budgetFeedback.hasNewMeasurement()) {
+            long newBudget = budgetFeedback.adjust(memBudget, liveHeap, prediction.budgetLimited);
+            if (newBudget != memBudget) {
+                logger.info("Memory budget: " + memBudget + " -> " + newBudget);
+                memBudget = newBudget;
+            }
+        }
+    }
+
     public boolean isEnableScheduler() {
         return enableScheduler;
     }
@@ -949,14 +1262,80 @@ public class GraphChiEngine <VertexDataType, EdgeDataType> {
         this.useStaticWindowSize = useStaticWindowSize;
     }
 
+    public boolean isMemoryMappedShards() {
+        return memoryMappedShards;
+    }
+
+    /**
+     * Access uncompressed shards through memory mappings instead of copying them to
+     * the heap: edge values are modified in place and written back by the operating system.
+     * Can also be enabled with -Dgraphchi.mmap=1. Ignored if compression is enabled.
+     * @param memoryMappedShards
+     */
+    public void setMemoryMappedShards(boolean memoryMappedShards) {
+        this.memoryMappedShards = memoryMappedShards;
+    }
+
+    /**
+     * Keep the edge data blocks in pooled direct buffers outside of the Java heap
+     * (see OffHeapDataBlockManager), so that the memory budget (setMemoryBudgetMb())
+     * can be larger than the heap. Direct memory is limited by -XX:MaxDirectMemorySize.
+     * Can also be enabled with -Dgraphchi.offheap=1. Must be called before run().
+     * @param offHeapBlocks
+     */
+    public void setOffHeapBlocks(boolean offHeapBlocks) {
+        if (offHeapBlocks != (blockManager instanceof OffHeapDataBlockManager)) {
+            blockManager = (offHeapBlocks ? new OffHeapDataBlockManager() : new DataBlockManager());
+        }
+    }
+
+    public EngineExecutors getExecutors() {
+        return executors;
+    }
+
+    /**
+     * Sets the thread pools used by run(). They are not shut down by the engine,
+     * so the same pools can be used for several runs. By default, each run creates
+     * its pools with EngineExecutors.fromSystemProperties() and shuts them down at the end.
+     * @param executors
+     */
+    public void setExecutors(EngineExecutors executors) {
+        this.executors = executors;
+    }
+
+    public boolean isEnableDynamicEdges() {
+        return enableDynamicEdges;
+    }
+
+    /**
+     * Enables adding edges with addEdge() while the engine is running, for example to
+     * follow an evolving graph without restarting the computation. Loading ahead is disabled.
+     * If the shards have edge data, the edge data converter must be set, even with setOnlyAdjacency().
+     * @param enableDynamicEdges
+     */
+    public void setEnableDynamicEdges(boolean enableDynamicEdges) {
+        this.enableDynamicEdges = enableDynamicEdges;
+    }
+
+    /**
+     * Buffered edges are merged into the shards at the end of the iteration in which
+     * their number reaches this threshold. Default 1000000.
+     * @param maxBufferedEdges
+     */
+    public void setMaxBufferedEdges(int maxBufferedEdges) {
+        this.maxBufferedEdges = maxBufferedEdges;
+    }
+
     public boolean isAutoLoadNext() {
         return autoLoadNext;
     }
 
 
     /**
-     * Experimental feature that enables GraphChi to load data ahead.
-     * This works only with onlyAdjacency-setting. DO NOT USE - NOT TESTED.
+     * Experimental feature that enables GraphChi to load the next sub-interval
+     * while the updates of the current one are running. Each window gets half of the memory budget.
+     * With edge data, loading ahead does not cross interval boundaries, and it is
+     * disabled if the scheduler is enabled.
      * @param autoLoadNext
      */
     public void setAutoLoadNext(boolean autoLoadNext) {
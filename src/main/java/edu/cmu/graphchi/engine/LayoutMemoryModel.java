@@ -0,0 +1,117 @@
+package edu.cmu.graphchi.engine;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Memory model computed from the layout of the window objects in the running JVM:
+ * a ChiVertex with its reusable ChiPointer, the per-vertex arrays of VertexWindow,
+ * the vertex value (and its index entry if vertex data is sparse), and for each edge
+ * its slot in the shared edge buffer and its value in the edge data blocks.
+ */
+public class LayoutMemoryModel implements LinearMemoryModel {
+
+    /* The edge buffer of VertexWindow grows by one eighth */
+    private static final double EDGE_BUFFER_SLACK = 1.125;
+
+    /* Object layout of the running JVM, determined once */
+    private static final int REFERENCE_SIZE;
+    private static final int HEADER_SIZE;
+
+    static {
+        boolean compressed = compressedOops();
+        REFERENCE_SIZE = (is32bit() || compressed ? 4 : 8);
+        HEADER_SIZE = (is32bit() ? 8 : (compressed ? 12 : 16));
+    }
+
+    private final long perVertex;
+    private final double perInEdge;
+    private final double perOutEdge;
+
+    /**
+     * @param vertexValueSize bytes of a vertex value, 0 if none
+     * @param edgeValueSize bytes of an edge value, 0 if only adjacency
+     * @param sparseVertexData whether vertex values are stored sparsely with an id index
+     * @param inEdges whether in-edges are loaded
+     * @param outEdges whether out-edges are loaded
+     */
+    public LayoutMemoryModel(int vertexValueSize, int edgeValueSize, boolean sparseVertexData,
+                             boolean inEdges, boolean outEdges) {
+        this(vertexValueSize, edgeValueSize, sparseVertexData, inEdges, outEdges, REFERENCE_SIZE, HEADER_SIZE);
+    }
+
+    LayoutMemoryModel(int vertexValueSize, int edgeValueSize, boolean sparseVertexData,
+                      boolean inEdges, boolean outEdges, int refSize, int headerSize) {
+        /* ChiVertex: 5 ints, a boolean and 4 references. ChiPointer: 2 ints. */
+        long vertexObject = align(headerSize + 5 * 4 + 1 + 4 * refSize);
+        long pointerObject = align(headerSize + 2 * 4);
+        /* VertexWindow: vertex and pool references, in- and out-degree */
+        long windowArrays = 2 * refSize + 2 * 4;
+        this.perVertex = vertexObject + pointerObject + windowArrays + vertexValueSize
+                + (sparseVertexData ? 4 : 0);
+
+        int slotBytes = 4 * (edgeValueSize > 0 ? 3 : 1);
+        double perEdge = slotBytes * EDGE_BUFFER_SLACK + edgeValueSize;
+        this.perInEdge = (inEdges ? perEdge : 0);
+        this.perOutEdge = (outEdges ? perEdge : 0);
+    }
+
+    public long vertexBytes(int inDegree, int outDegree) {
+        return perVertex + (long) (perInEdge * inDegree + perOutEdge * outDegree);
+    }
+
+    public long getVertexBytes() {
+        return perVertex;
+    }
+
+    public double getInEdgeBytes() {
+        return perInEdge;
+    }
+
+    public double getOutEdgeBytes() {
+        return perOutEdge;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static boolean is32bit() {
+        return "32".equals(System.getProperty("sun.arch.data.model"));
+    }
+
+    private static boolean compressedOops() {
+        try {
+            HotSpotDiagnosticMXBean bean = ManagementFactory.newPlatformMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                    "com.sun.management:type=HotSpotDiagnostic", HotSpotDiagnosticMXBean.class);
+            return "true".equals(bean.getVMOption("UseCompressedOops").getValue());
+        } catch (Exception err) {
+            return compressedOopsByHeapSize();
+        } catch (LinkageError err) {
+            /* The JVM has no HotSpotDiagnosticMXBean class */
+            return compressedOopsByHeapSize();
+        }
+    }
+
+    /* Not HotSpot: assume compressed references below 32 gigabytes of heap */
+    private static boolean compressedOopsByHeapSize() {
+        return Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024;
+    }
+}
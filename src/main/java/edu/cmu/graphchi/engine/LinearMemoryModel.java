@@ -0,0 +1,33 @@
+package edu.cmu.graphchi.engine;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Memory model where the cost of a vertex is linear in its degrees:
+ * getVertexBytes() + getInEdgeBytes() * inDegree + getOutEdgeBytes() * outDegree.
+ * The engine can then find the window boundaries from the prefix sums of
+ * the degrees, instead of summing the cost vertex by vertex.
+ */
+public interface LinearMemoryModel extends MemoryModel {
+
+    long getVertexBytes();
+
+    double getInEdgeBytes();
+
+    double getOutEdgeBytes();
+
+}
@@ -0,0 +1,104 @@
+package edu.cmu.graphchi.engine;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Adapts the memory budget to the observed heap usage. The live heap is measured
+ * as the heap used after the latest garbage collection of each pool, so garbage
+ * does not count. The measurement therefore lags by one collection: it changes only
+ * after a collection, and reflects the windows loaded before it. The budget shrinks when the live heap is above 75% of the maximum
+ * heap, and grows when it is below 40% and the windows were limited by the budget.
+ * The budget stays between 1/64 and 1/2 of the maximum heap.
+ */
+public class MemoryBudgetFeedback {
+
+    private static final double HIGH_WATER = 0.75;
+    private static final double LOW_WATER = 0.40;
+
+    private final long maxHeap;
+    private final long minBudget;
+    private final long maxBudget;
+    private long lastCollectionCount = -1;
+
+    public MemoryBudgetFeedback(long maxHeap) {
+        this.maxHeap = maxHeap;
+        this.minBudget = maxHeap / 64;
+        this.maxBudget = maxHeap / 2;
+    }
+
+    public MemoryBudgetFeedback() {
+        this(Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * @param budget current budget
+     * @param liveHeap observed live heap
+     * @param budgetLimited whether the latest window was cut by the budget
+     * @return the new budget
+     */
+    public long adjust(long budget, long liveHeap, boolean budgetLimited) {
+        long newBudget = budget;
+        if (liveHeap > HIGH_WATER * maxHeap) {
+            newBudget = (long) (budget * Math.max(0.5, HIGH_WATER * maxHeap / liveHeap * 0.9));
+        } else if (liveHeap < LOW_WATER * maxHeap && budgetLimited) {
+            newBudget = budget + budget / 4;
+        }
+        return Math.max(minBudget, Math.min(maxBudget, newBudget));
+    }
+
+    /**
+     * Tells whether liveHeap() has been measured again by a garbage collection since the
+     * previous call, so that the budget is not adapted repeatedly to the same measurement.
+     * The first call returns true.
+     */
+    public boolean hasNewMeasurement() {
+        long count = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        boolean changed = (count != lastCollectionCount);
+        lastCollectionCount = count;
+        return changed;
+    }
+
+    /**
+     * @return heap used after the latest collection, or the heap used now if
+     *         the collection usage is not available
+     */
+    public static long liveHeap() {
+        long live = 0;
+        boolean found = false;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) continue;
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                live += usage.getUsed();
+                found = true;
+            }
+        }
+        if (!found) {
+            live = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        }
+        return live;
+    }
+}
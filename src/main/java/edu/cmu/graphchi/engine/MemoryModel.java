@@ -0,0 +1,32 @@
+package edu.cmu.graphchi.engine;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Estimates the memory taken by the vertices of a sub-interval window.
+ * The engine loads vertices into a window until the sum of the estimates
+ * exceeds the memory budget.
+ * @see LayoutMemoryModel
+ */
+public interface MemoryModel {
+
+    /**
+     * @return bytes needed for a vertex, its value and its edges in a window
+     */
+    long vertexBytes(int inDegree, int outDegree);
+
+}
@@ -0,0 +1,101 @@
+package edu.cmu.graphchi.engine;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Scheduler that accumulates a residual (pending change) for each vertex, and
+ * schedules a vertex only when the absolute value of its residual reaches a threshold.
+ * The update consumes the residual with takeResidual(). As the engine skips
+ * vertices that are not scheduled, sub-intervals without large residuals
+ * are not loaded at all, and the computation ends when all residuals are small.
+ * Use with GraphChiEngine.setScheduler(). See edu.cmu.graphchi.apps.DeltaPagerank.
+ */
+public class PriorityScheduler extends BitsetScheduler {
+
+    /* Float bits of the residuals, so they can be added to atomically */
+    private final AtomicIntegerArray residuals;
+    private final float threshold;
+
+    /**
+     * @param nvertices number of vertices
+     * @param threshold smallest absolute residual that schedules a vertex
+     */
+    public PriorityScheduler(int nvertices, float threshold) {
+        super(nvertices);
+        this.residuals = new AtomicIntegerArray(nvertices);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Adds priority to the residual of a vertex, and schedules it if the
+     * residual reaches the threshold.
+     */
+    public void addTask(int vertexId, float priority) {
+        int old;
+        float residual;
+        do {
+            old = residuals.get(vertexId);
+            residual = Float.intBitsToFloat(old) + priority;
+        } while (!residuals.compareAndSet(vertexId, old, Float.floatToIntBits(residual)));
+
+        if (Math.abs(residual) >= threshold) {
+            addTask(vertexId);
+        }
+    }
+
+    /**
+     * Sets the residual of all vertices and schedules them.
+     */
+    public void addAllTasks(float priority) {
+        int bits = Float.floatToIntBits(priority);
+        for(int i=0; i < residuals.length(); i++) {
+            residuals.set(i, bits);
+        }
+        addAllTasks();
+    }
+
+    /**
+     * @return the residual of a vertex
+     */
+    public float getResidual(int vertexId) {
+        return Float.intBitsToFloat(residuals.get(vertexId));
+    }
+
+    /**
+     * Returns the residual of a vertex and sets it to zero.
+     */
+    public float takeResidual(int vertexId) {
+        return Float.intBitsToFloat(residuals.getAndSet(vertexId, 0));
+    }
+
+    /**
+     * Unschedules all vertices and clears their residuals.
+     */
+    @Override
+    public void removeAllTasks() {
+        for(int i=0; i < residuals.length(); i++) {
+            residuals.set(i, 0);
+        }
+        super.removeAllTasks();
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+}
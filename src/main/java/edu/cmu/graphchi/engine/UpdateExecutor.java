@@ -0,0 +1,258 @@
+package edu.cmu.graphchi.engine;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.GraphChiContext;
+import edu.cmu.graphchi.GraphChiProgram;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Runs the updates of a sub-interval in parallel. The vertices are split into
+ * chunks of about equal number of edges, so that a high-degree vertex gets a chunk
+ * of its own, and the workers claim chunks until none are left. This balances the
+ * load like work stealing does, without requiring the Java 7 fork/join framework.
+ * <p>
+ * Vertices that are not parallel safe share an edge with another vertex of the window.
+ * They are colored greedily in the order of vertex ids: the color of a vertex is one
+ * larger than the largest color of its neighbors with a smaller id. The colors are
+ * executed one after another, and the vertices of one color in parallel. Neighbors
+ * are then updated in the order of their ids, as if the conflicting vertices were
+ * updated sequentially, so the execution is deterministic.
+ * The first color runs together with the parallel safe vertices.
+ * The calling thread is one of the workers.
+ */
+public class UpdateExecutor<VertexDataType, EdgeDataType> {
+
+    /* Chunks per worker: more chunks balance better, but each costs a claim */
+    private static final int CHUNKS_PER_WORKER = 8;
+    /* Colors with less work than this are run by the calling thread */
+    private static final int MIN_CHUNK_WORK = 256;
+
+    private final Counter serialUpdates = Metrics.defaultRegistry().newCounter(UpdateExecutor.class, "serial-updates");
+    private final Counter colors = Metrics.defaultRegistry().newCounter(UpdateExecutor.class, "colors");
+
+    private final ExecutorService executor;
+    private final int nWorkers;
+    private int[] levels = new int[0];
+    private int[] order = new int[0];
+    private int[] chunkEnds = new int[0];
+    private int[] phaseEnds = new int[0];
+    private int nChunks = 0;
+    private int nPhases = 0;
+
+    /**
+     * @param executor executor for the workers other than the calling thread
+     * @param nWorkers number of workers, including the calling thread
+     */
+    public UpdateExecutor(ExecutorService executor, int nWorkers) {
+        if (nWorkers < 1) throw new IllegalArgumentException("Need at least one worker");
+        this.executor = executor;
+        this.nWorkers = nWorkers;
+    }
+
+    /**
+     * Updates the non-null vertices and returns when all updates have finished.
+     * vertices[j] must be the vertex with id firstId + j for some firstId.
+     * Not thread-safe: one sub-interval is executed at a time.
+     * @return number of updates
+     */
+    public long execute(final GraphChiProgram<VertexDataType, EdgeDataType> program,
+                        final ChiVertex<VertexDataType, EdgeDataType>[] vertices,
+                        final GraphChiContext context) {
+        split(vertices);
+        colors.inc(nPhases);
+
+        GraphChiContext[] contexts = new GraphChiContext[nWorkers];
+        for(int w=0; w < nWorkers; w++) contexts[w] = context.clone(w);
+
+        long total = 0;
+        int chunkSt = 0;
+        for(int phase=0; phase < nPhases; phase++) {
+            int chunkEn = phaseEnds[phase];
+            if (chunkEn - chunkSt == 1 || nWorkers == 1) {
+                long n = runWorker(program, vertices, contexts[0], new AtomicInteger(chunkSt), chunkEn);
+                serialUpdates.inc(n);
+                total += n;
+            } else {
+                total += runParallel(program, vertices, contexts, chunkSt, chunkEn);
+            }
+            chunkSt = chunkEn;
+        }
+        return total;
+    }
+
+    private long runParallel(final GraphChiProgram<VertexDataType, EdgeDataType> program,
+                             final ChiVertex<VertexDataType, EdgeDataType>[] vertices,
+                             final GraphChiContext[] contexts, int chunkSt, final int chunkEn) {
+        final int workers = Math.min(nWorkers, chunkEn - chunkSt);
+        final AtomicInteger nextChunk = new AtomicInteger(chunkSt);
+        final long[] workerUpdates = new long[workers];
+        final CountDownLatch finished = new CountDownLatch(workers - 1);
+
+        for(int w=1; w < workers; w++) {
+            final int workerId = w;
+            executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        workerUpdates[workerId] = runWorker(program, vertices, contexts[workerId], nextChunk, chunkEn);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        workerUpdates[0] = runWorker(program, vertices, contexts[0], nextChunk, chunkEn);
+
+        try {
+            finished.await();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+
+        long total = 0;
+        for(long n : workerUpdates) total += n;
+        return total;
+    }
+
+    private long runWorker(GraphChiProgram<VertexDataType, EdgeDataType> program,
+                           ChiVertex<VertexDataType, EdgeDataType>[] vertices, GraphChiContext threadContext,
+                           AtomicInteger nextChunk, int chunkEn) {
+        long nupdates = 0;
+        try {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunkEn) {
+                int st = (chunk == 0 ? 0 : chunkEnds[chunk - 1]);
+                int en = chunkEnds[chunk];
+                for(int i=st; i < en; i++) {
+                    nupdates++;
+                    program.update(vertices[order[i]], threadContext);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return nupdates;
+    }
+
+    /**
+     * Colors the vertices, orders them by color and splits each color into
+     * chunks weighted by the number of edges.
+     */
+    void split(ChiVertex<VertexDataType, EdgeDataType>[] vertices) {
+        int n = vertices.length;
+        if (levels.length < n) {
+            levels = new int[n];
+            order = new int[n];
+            chunkEnds = new int[n];
+        }
+        Arrays.fill(levels, 0, n, 0);
+
+        int firstId = 0;
+        for(int i=0; i < n; i++) {
+            if (vertices[i] != null) {
+                firstId = vertices[i].getId() - i;
+                break;
+            }
+        }
+
+        int maxLevel = 0;
+        for(int i=0; i < n; i++) {
+            ChiVertex<VertexDataType, EdgeDataType> vertex = vertices[i];
+            if (vertex == null || vertex.parallelSafe) continue;
+            /* An edge is listed by at least one of its endpoints: the lower id pushes its
+               color to the higher one, and the higher one pulls from the lower one. */
+            int level = levels[i];
+            int nin = (ChiVertex.disableInedges ? 0 : vertex.numInEdges());
+            int nout = (ChiVertex.disableOutedges ? 0 : vertex.numOutEdges());
+            for(int e=0; e < nin + nout; e++) {
+                int j = (e < nin ? vertex.getInEdgeId(e) : vertex.getOutEdgeId(e - nin)) - firstId;
+                if (j >= 0 && j < i && vertices[j] != null) level = Math.max(level, levels[j] + 1);
+            }
+            levels[i] = level;
+            for(int e=0; e < nin + nout; e++) {
+                int j = (e < nin ? vertex.getInEdgeId(e) : vertex.getOutEdgeId(e - nin)) - firstId;
+                if (j > i && j < n && vertices[j] != null) levels[j] = Math.max(levels[j], level + 1);
+            }
+            if (level > maxLevel) maxLevel = level;
+        }
+
+        /* Counting sort by color, stable in vertex order */
+        if (phaseEnds.length < maxLevel + 2) phaseEnds = new int[maxLevel + 2];
+        int[] starts = new int[maxLevel + 2];
+        long[] work = new long[maxLevel + 1];
+        for(int i=0; i < n; i++) {
+            if (vertices[i] == null) continue;
+            starts[levels[i] + 1]++;
+            work[levels[i]] += 1 + vertices[i].numEdges();
+        }
+        for(int l=0; l <= maxLevel; l++) starts[l + 1] += starts[l];
+        int nvertices = starts[maxLevel + 1];
+        for(int i=0; i < n; i++) {
+            if (vertices[i] != null) order[starts[levels[i]]++] = i;
+        }
+
+        nChunks = 0;
+        nPhases = 0;
+        int pos = 0;
+        for(int l=0; l <= maxLevel; l++) {
+            long chunkWork = Math.max(MIN_CHUNK_WORK, work[l] / ((long) nWorkers * CHUNKS_PER_WORKER));
+            int phaseEnd = starts[l];
+            long w = 0;
+            for(; pos < phaseEnd; pos++) {
+                w += 1 + vertices[order[pos]].numEdges();
+                if (w >= chunkWork) {
+                    chunkEnds[nChunks++] = pos + 1;
+                    w = 0;
+                }
+            }
+            if (w > 0) chunkEnds[nChunks++] = phaseEnd;
+            if (nChunks > 0 && (nPhases == 0 || phaseEnds[nPhases - 1] < nChunks)) {
+                phaseEnds[nPhases++] = nChunks;
+            }
+        }
+        assert(pos == nvertices);
+    }
+
+    int getNumColors() {
+        return nPhases;
+    }
+
+    int getNumChunks() {
+        return nChunks;
+    }
+
+    /**
+     * @return end position of a chunk in the order of execution
+     */
+    int chunkEnd(int chunk) {
+        return chunkEnds[chunk];
+    }
+
+    /**
+     * @return index of the vertex at a position in the order of execution
+     */
+    int vertexAt(int pos) {
+        return order[pos];
+    }
+}
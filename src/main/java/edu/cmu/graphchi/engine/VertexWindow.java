@@ -0,0 +1,124 @@
+package edu.cmu.graphchi.engine;
+
+import edu.cmu.graphchi.ChiVertex;
+
+import java.util.Arrays;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The vertices of a sub-interval, stored so that they can be reused for the
+ * following sub-intervals and iterations: the edges of all vertices are in one
+ * shared int-buffer, and the ChiVertex objects are views that are reset for each window.
+ * A window must not be reused before the updates and loading of the previous
+ * sub-interval using it have finished.
+ * Usage: begin(), setDegree() for each active vertex, then allocate().
+ */
+public class VertexWindow<VertexDataType, EdgeDataType> {
+
+    private ChiVertex<VertexDataType, EdgeDataType>[] pool = new ChiVertex[0];
+    private ChiVertex<VertexDataType, EdgeDataType>[] vertices = new ChiVertex[0];
+    private int[] inDegrees = new int[0];
+    private int[] outDegrees = new int[0];
+    private int[] edgeBuffer = new int[0];
+    private int nvertices = 0;
+
+    /**
+     * Starts a new window of nvertices vertices, all inactive.
+     */
+    public void begin(int nvertices) {
+        this.nvertices = nvertices;
+        if (vertices.length != nvertices) {
+            vertices = new ChiVertex[nvertices];
+        } else {
+            Arrays.fill(vertices, null);
+        }
+        if (inDegrees.length < nvertices) {
+            inDegrees = new int[nvertices];
+            outDegrees = new int[nvertices];
+        }
+        Arrays.fill(inDegrees, 0, nvertices, -1);
+    }
+
+    /**
+     * Marks the j'th vertex of the window active.
+     */
+    public void setDegree(int j, int inDegree, int outDegree) {
+        inDegrees[j] = inDegree;
+        outDegrees[j] = outDegree;
+    }
+
+    /**
+     * Assigns the edge buffer areas and resets the vertex objects of the active vertices.
+     * Must be called after the edge value converter and the
+     * ChiVertex.disableInedges/disableOutedges flags have been set.
+     * @param firstVertexId id of the first vertex in the window
+     */
+    public void allocate(int firstVertexId) {
+        int slot = ChiVertex.edgeSlotSize();
+        int inSlot = (ChiVertex.disableInedges ? 0 : slot);
+        int outSlot = (ChiVertex.disableOutedges ? 0 : slot);
+
+        long needed = 0;
+        for(int j=0; j < nvertices; j++) {
+            if (inDegrees[j] >= 0) {
+                needed += (long) inDegrees[j] * inSlot + (long) outDegrees[j] * outSlot;
+            }
+        }
+        if (needed > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many edges in a window: " + needed + " edge slots");
+        }
+        if (needed > edgeBuffer.length) {
+            edgeBuffer = new int[(int) Math.min(Integer.MAX_VALUE - 8, needed + needed / 8)];
+        }
+        if (pool.length < nvertices) {
+            ChiVertex<VertexDataType, EdgeDataType>[] newPool = new ChiVertex[nvertices];
+            System.arraycopy(pool, 0, newPool, 0, pool.length);
+            pool = newPool;
+        }
+
+        int pos = 0;
+        for(int j=0; j < nvertices; j++) {
+            if (inDegrees[j] < 0) continue;
+            ChiVertex<VertexDataType, EdgeDataType> v = pool[j];
+            if (v == null) {
+                v = new ChiVertex<VertexDataType, EdgeDataType>();
+                pool[j] = v;
+            }
+            int inBase = pos;
+            pos += inDegrees[j] * inSlot;
+            int outBase = pos;
+            pos += outDegrees[j] * outSlot;
+            v.reset(firstVertexId + j, inDegrees[j], outDegrees[j], edgeBuffer, inBase, outBase);
+            vertices[j] = v;
+        }
+    }
+
+    /**
+     * @return the vertices of the window, null for inactive vertices
+     */
+    public ChiVertex<VertexDataType, EdgeDataType>[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return capacity of the shared edge buffer in ints
+     */
+    public int getEdgeBufferCapacity() {
+        return edgeBuffer.length;
+    }
+}
@@ -7,6 +7,10 @@ import ucar.unidata.io.RandomAccessFile;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 /**
  * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
  *
@@ -34,10 +38,22 @@ import java.io.IOException;
  */
 public class DegreeData {
 
+    /* Vertices per entry of the prefix sums */
+    private static final int PREFIX_BLOCK = 64;
+
     private RandomAccessFile degreeFile;
 
-    private byte[] degreeData;
+    /* In- and out-degree of each loaded vertex, interleaved */
+    private int[] degrees = new int[0];
+    private byte[] readBuffer = new byte[0];
     private int vertexSt, vertexEn;
+    private boolean loaded = false;
+
+    /* Sums of the degrees and counts of vertices with edges before each block */
+    private long[] inPrefix = new long[0];
+    private long[] outPrefix = new long[0];
+    private int[] nonZeroPrefix = new int[0];
+    private boolean prefixValid = false;
 
     private boolean sparse = false;
     private int lastQuery = 0, lastId = -1;
@@ -63,41 +79,51 @@ public class DegreeData {
      * @throws IOException
      */
     public void load(int _vertexSt, int _vertexEn) throws IOException {
-
         int prevVertexEn = vertexEn;
         int prevVertexSt = vertexSt;
+        boolean wasLoaded = loaded;
 
         vertexSt = _vertexSt;
         vertexEn = _vertexEn;
+        loaded = true;
+        prefixValid = false;
 
-        long dataSize =  (long)  (vertexEn - vertexSt + 1) * 4 * 2;
-
-        byte[] prevData = degreeData;
-        degreeData = new byte[(int)dataSize];
-        int len = 0;
-
-        // Little bit cmoplicated book keeping to avoid redundant reads
-        if (prevVertexEn > _vertexSt && prevVertexSt <= _vertexSt) {
-            // Copy previous
-            len = (int) ((prevVertexEn - vertexSt + 1) * 8);
-            System.arraycopy(prevData, prevData.length - len, degreeData, 0, len);
+        int n = vertexEn - vertexSt + 1;
+        int[] prevDegrees = degrees;
+        if (degrees.length < 2 * n) {
+            degrees = new int[2 * n];
         }
 
+        // Little bit complicated book keeping to avoid redundant reads
+        int copied = 0;
+        if (wasLoaded && prevVertexEn >= _vertexSt && prevVertexSt <= _vertexSt) {
+            copied = Math.min(prevVertexEn, vertexEn) - vertexSt + 1;
+            System.arraycopy(prevDegrees, (vertexSt - prevVertexSt) * 2, degrees, 0, copied * 2);
+        }
 
         if (!sparse) {
-            int adjLen = (int) (dataSize - len);
-
-            if (adjLen == 0) return;
-            long dataStart =  (long)  vertexSt * 4l * 2l + len;
+            int nread = n - copied;
+            if (nread == 0) return;
+            long dataStart = ((long) vertexSt + copied) * 4l * 2l;
+            int nbytes = nread * 8;
+            if (readBuffer.length < nbytes) readBuffer = new byte[nbytes];
 
+            Arrays.fill(readBuffer, 0, nbytes, (byte) 0);
             try {
                 degreeFile.seek(dataStart);
-                degreeFile.readFully(degreeData, (int)(dataSize - adjLen), adjLen);
+                degreeFile.readFully(readBuffer, 0, nbytes);
             } catch (EOFException eof) {
-            	ChiLogger.getLogger("engine").info("Error: Tried to read past file: " + dataStart + " --- " + (dataStart + dataSize));
+                ChiLogger.getLogger("engine").info("Error: Tried to read past file: " + dataStart + " --- " + (dataStart + nbytes));
                 // But continue
             }
+            ByteBuffer.wrap(readBuffer, 0, nbytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
+                    .get(degrees, copied * 2, nread * 2);
         } else {
+            /* Vertices missing from the sparse file have no edges */
+            Arrays.fill(degrees, copied * 2, n * 2, 0);
+            if (readBuffer.length < 8) readBuffer = new byte[8];
+            IntBuffer pair = ByteBuffer.wrap(readBuffer, 0, 8).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
             if (lastQuery > _vertexSt) {
                 lastId = -1;
                 degreeFile.seek(0);
@@ -107,8 +133,9 @@ public class DegreeData {
                 while(true) {
                     int vertexId = (lastId < 0 ? degreeFile.readInt() : lastId);
                     if (vertexId >= _vertexSt && vertexId <= _vertexEn) {
-                        degreeFile.readFully(degreeData, (vertexId - vertexSt) * 8, 8);
-                        VertexDegree deg = getDegree(vertexId);
+                        degreeFile.readFully(readBuffer, 0, 8);
+                        pair.rewind();
+                        pair.get(degrees, (vertexId - vertexSt) * 2, 2);
                         lastId = -1;
                     } else if (vertexId > vertexEn){
                         lastId = vertexId; // Remember last one read
@@ -131,17 +158,138 @@ public class DegreeData {
      * @return  VertexDegree object
      */
     public VertexDegree getDegree(int vertexId) {
+        return new VertexDegree(getInDegree(vertexId), getOutDegree(vertexId));
+    }
+
+    /**
+     * In-degree of a vertex in the loaded interval, without creating a VertexDegree.
+     */
+    public int getInDegree(int vertexId) {
         assert(vertexId >= vertexSt && vertexId <= vertexEn);
+        return degrees[(vertexId - vertexSt) * 2];
+    }
 
-        byte[] tmp = new byte[4];
-        int idx = vertexId - vertexSt;
-        System.arraycopy(degreeData, idx * 8, tmp, 0, 4);
+    /**
+     * Out-degree of a vertex in the loaded interval, without creating a VertexDegree.
+     */
+    public int getOutDegree(int vertexId) {
+        assert(vertexId >= vertexSt && vertexId <= vertexEn);
+        return degrees[(vertexId - vertexSt) * 2 + 1];
+    }
+
+    /**
+     * @return sum of the in-degrees of the vertices firstVertex..lastVertex (inclusive)
+     */
+    public long getInDegreeSum(int firstVertex, int lastVertex) {
+        return inSumTo(lastVertex + 1 - vertexSt) - inSumTo(firstVertex - vertexSt);
+    }
 
-        int indeg = ((tmp[3]  & 0xff) << 24) + ((tmp[2] & 0xff) << 16) + ((tmp[1] & 0xff) << 8) + (tmp[0] & 0xff);
+    /**
+     * @return sum of the out-degrees of the vertices firstVertex..lastVertex (inclusive)
+     */
+    public long getOutDegreeSum(int firstVertex, int lastVertex) {
+        return outSumTo(lastVertex + 1 - vertexSt) - outSumTo(firstVertex - vertexSt);
+    }
 
-        System.arraycopy(degreeData, idx * 8 + 4, tmp, 0, 4);
-        int outdeg = ((tmp[3]  & 0xff) << 24) + ((tmp[2] & 0xff) << 16) + ((tmp[1] & 0xff) << 8) + (tmp[0] & 0xff);
+    /**
+     * @return number of vertices with edges among firstVertex..lastVertex (inclusive)
+     */
+    public int getNonZeroCount(int firstVertex, int lastVertex) {
+        return nonZeroTo(lastVertex + 1 - vertexSt) - nonZeroTo(firstVertex - vertexSt);
+    }
+
+    /**
+     * Finds the longest run of vertices starting from firstVertex whose cost fits in the budget.
+     * The cost of a vertex is vertexBytes + inEdgeBytes * inDegree + outEdgeBytes * outDegree.
+     * Uses binary search over the prefix sums.
+     * @param skipZeroDegree if true, vertices without edges cost nothing
+     * @return the last vertex of the run (inclusive), or firstVertex - 1 if not even the first vertex fits
+     */
+    public int findLastVertex(int firstVertex, long budget, long vertexBytes, double inEdgeBytes,
+                              double outEdgeBytes, boolean skipZeroDegree) {
+        ensurePrefix();
+        int from = firstVertex - vertexSt;
+        int n = vertexEn - vertexSt + 1;
+        double base = cost(from, vertexBytes, inEdgeBytes, outEdgeBytes, skipZeroDegree);
+
+        /* Largest block boundary within the budget, then vertex by vertex */
+        int lo = from / PREFIX_BLOCK + 1, hi = (n - 1) / PREFIX_BLOCK;
+        int pos = from;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cost(mid * PREFIX_BLOCK, vertexBytes, inEdgeBytes, outEdgeBytes, skipZeroDegree) - base <= budget) {
+                pos = mid * PREFIX_BLOCK;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        double total = cost(pos, vertexBytes, inEdgeBytes, outEdgeBytes, skipZeroDegree) - base;
+        while (pos < n) {
+            int in = degrees[pos * 2], out = degrees[pos * 2 + 1];
+            double c = (skipZeroDegree && in + out == 0 ? 0 : vertexBytes + inEdgeBytes * in + outEdgeBytes * out);
+            if (total + c > budget) break;
+            total += c;
+            pos++;
+        }
+        return vertexSt + pos - 1;
+    }
+
+    /* Cost of the loaded vertices before index k */
+    private double cost(int k, long vertexBytes, double inEdgeBytes, double outEdgeBytes, boolean skipZeroDegree) {
+        long nvertices = (skipZeroDegree ? nonZeroTo(k) : k);
+        return nvertices * (double) vertexBytes + inEdgeBytes * inSumTo(k) + outEdgeBytes * outSumTo(k);
+    }
+
+    private long inSumTo(int k) {
+        ensurePrefix();
+        long sum = inPrefix[k / PREFIX_BLOCK];
+        for(int i = k - k % PREFIX_BLOCK; i < k; i++) sum += degrees[i * 2];
+        return sum;
+    }
+
+    private long outSumTo(int k) {
+        ensurePrefix();
+        long sum = outPrefix[k / PREFIX_BLOCK];
+        for(int i = k - k % PREFIX_BLOCK; i < k; i++) sum += degrees[i * 2 + 1];
+        return sum;
+    }
+
+    private int nonZeroTo(int k) {
+        ensurePrefix();
+        int count = nonZeroPrefix[k / PREFIX_BLOCK];
+        for(int i = k - k % PREFIX_BLOCK; i < k; i++) {
+            if (degrees[i * 2] + degrees[i * 2 + 1] != 0) count++;
+        }
+        return count;
+    }
+
+    private void ensurePrefix() {
+        if (prefixValid) return;
+        int n = vertexEn - vertexSt + 1;
+        int nblocks = n / PREFIX_BLOCK + 1;
+        if (inPrefix.length < nblocks) {
+            inPrefix = new long[nblocks];
+            outPrefix = new long[nblocks];
+            nonZeroPrefix = new int[nblocks];
+        }
+        long in = 0, out = 0;
+        int nonZero = 0;
+        for(int b=0; b < nblocks; b++) {
+            inPrefix[b] = in;
+            outPrefix[b] = out;
+            nonZeroPrefix[b] = nonZero;
+            int en = Math.min(n, (b + 1) * PREFIX_BLOCK);
+            for(int i = b * PREFIX_BLOCK; i < en; i++) {
+                in += degrees[i * 2];
+                out += degrees[i * 2 + 1];
+                if (degrees[i * 2] + degrees[i * 2 + 1] != 0) nonZero++;
+            }
+        }
+        prefixValid = true;
+    }
 
-        return new VertexDegree(indeg, outdeg);
+    public void close() throws IOException {
+        degreeFile.close();
     }
 }
@@ -11,6 +11,7 @@ import ucar.unidata.io.RandomAccessFile;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.logging.Logger;
 
@@ -41,6 +42,9 @@ public class VertexData <VertexDataType> {
     private int[] index;
     private int lastOffset = 0;
     private int lastStart = 0;
+    /* Sparse index and file offset of each loaded block, as the next block may be loaded before the previous is committed */
+    private final HashMap<Integer, int[]> blockIndices = new HashMap<Integer, int[]>();
+    private final HashMap<Integer, Integer> blockOffsets = new HashMap<Integer, Integer>();
 
     private final static Logger logger = ChiLogger.getLogger("vertex-data");
 
@@ -125,12 +129,19 @@ public class VertexData <VertexDataType> {
 
         } else {
             synchronized (vertexDataFile) {
-                vertexDataFile.seek(lastOffset);
+                int[] blockIndex = blockIndices.remove(blockId);
+                Integer blockOffset = blockOffsets.remove(blockId);
+                if (blockIndex == null || blockOffset == null) {
+                    throw new IllegalStateException("Vertex data block " + blockId + " was not loaded or is already committed");
+                }
+                long filePos = vertexDataFile.getFilePointer();
+                vertexDataFile.seek(blockOffset);
                 int sizeOf = converter.sizeOf();
-                for(int i=0; i < index.length; i++) {
-                    vertexDataFile.writeInt(Integer.reverseBytes(index[i]));  // Note: when writing, the random access file does not take byte order into account!
+                for(int i=0; i < blockIndex.length; i++) {
+                    vertexDataFile.writeInt(Integer.reverseBytes(blockIndex[i]));  // Note: when writing, the random access file does not take byte order into account!
                     vertexDataFile.write(data, i * sizeOf, sizeOf);
                 }
+                vertexDataFile.seek(filePos);
                 blockManager.release(blockId);
                 vertexDataFile.flush();
 
@@ -155,7 +166,7 @@ public class VertexData <VertexDataType> {
                 long dataSize = (long) (vertexEn - vertexSt + 1) *  (long)  converter.sizeOf();
                 long dataStart =  (long) vertexSt *  (long) converter.sizeOf();
 
-                int blockId =  blockManager.allocateBlock((int) dataSize);
+                int blockId =  blockManager.allocateHeapBlock((int) dataSize);
                 vertexData = blockManager.getRawBlock(blockId);
                 vertexDataFile.seek(dataStart);
                 vertexDataFile.readFully(vertexData);
@@ -191,7 +202,7 @@ public class VertexData <VertexDataType> {
 
                 index = new int[n];
                 vertexDataFile.seek(startPos);
-                int blockId =  blockManager.allocateBlock(n * sizeOf);
+                int blockId =  blockManager.allocateHeapBlock(n * sizeOf);
                 vertexData = blockManager.getRawBlock(blockId);
 
                 int i = 0;
@@ -209,24 +220,41 @@ public class VertexData <VertexDataType> {
                 } catch (EOFException eof) {}
                 if (i != n) throw new IllegalStateException("Mismatch when reading sparse vertex data:" + i + " != " + n);
                 lastOffset = (int) startPos;
+                blockIndices.put(blockId, index);
+                blockOffsets.put(blockId, lastOffset);
                 return blockId;
             }
         }
     }
 
     public ChiPointer getVertexValuePtr(int vertexId, int blockId) {
+        int offset = getVertexValueOffset(vertexId);
+        return (offset < 0 ? null : new ChiPointer(blockId, offset));
+    }
+
+    /**
+     * @return offset of the vertex value in the block, or -1 if the vertex has no value (sparse data)
+     */
+    public int getVertexValueOffset(int vertexId) {
         assert(vertexId >= vertexSt && vertexId <= vertexEn);
         if (!sparse) {
-            return new ChiPointer(blockId, (vertexId - vertexSt) * converter.sizeOf());
+            return (vertexId - vertexSt) * converter.sizeOf();
         } else {
             int idx = Arrays.binarySearch(index, vertexId);
             if (idx < 0) {
-                return null;
+                return -1;
             }
-            return new ChiPointer(blockId, idx * converter.sizeOf());
+            return idx * converter.sizeOf();
         }
     }
 
+    /**
+     * @return whether vertex values are stored sparsely with their ids
+     */
+    public boolean isSparse() {
+        return sparse;
+    }
+
     public void setBlockManager(DataBlockManager blockManager) {
         this.blockManager = blockManager;
     }
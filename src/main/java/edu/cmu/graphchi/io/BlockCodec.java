@@ -0,0 +1,45 @@
+package edu.cmu.graphchi.io;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Codec used for storing edge data blocks. Implementations are registered in
+ * BlockCodecs, either built-in or through java.util.ServiceLoader
+ * (META-INF/services/edu.cmu.graphchi.io.BlockCodec).
+ * The codec of a graph is recorded in the shard metadata.
+ */
+public interface BlockCodec {
+
+    /**
+     * Name used in the shard metadata and in -Dgraphchi.codec
+     */
+    String getName();
+
+    /**
+     * Suffix added to the edge data block directory name, so that blocks
+     * encoded with incompatible codecs are never mixed up. Codecs that can
+     * read each other's files may share the suffix.
+     */
+    String getDirectorySuffix();
+
+    void write(File f, byte[] data, int nbytes) throws IOException;
+
+    void read(File f, byte[] buf, int nbytes) throws IOException;
+}
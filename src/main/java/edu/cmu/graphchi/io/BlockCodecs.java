@@ -0,0 +1,58 @@
+package edu.cmu.graphchi.io;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.zip.Deflater;
+
+/**
+ * Registry of block codecs. Built-in: "none", "deflate" (zlib default level),
+ * "deflate-1" (fastest zlib level) and "lz4". Additional codecs are found with ServiceLoader.
+ */
+public class BlockCodecs {
+
+    public static final BlockCodec NONE = new NoneBlockCodec();
+    public static final BlockCodec DEFLATE = new DeflateBlockCodec("deflate", Deflater.DEFAULT_COMPRESSION);
+    public static final BlockCodec DEFLATE_FAST = new DeflateBlockCodec("deflate-1", Deflater.BEST_SPEED);
+    public static final BlockCodec LZ4 = new LZ4BlockCodec();
+
+    private static final Map<String, BlockCodec> codecs = new LinkedHashMap<String, BlockCodec>();
+
+    static {
+        register(NONE);
+        register(DEFLATE);
+        register(DEFLATE_FAST);
+        register(LZ4);
+        for(BlockCodec codec : ServiceLoader.load(BlockCodec.class)) {
+            register(codec);
+        }
+    }
+
+    public static synchronized void register(BlockCodec codec) {
+        codecs.put(codec.getName(), codec);
+    }
+
+    public static synchronized BlockCodec get(String name) {
+        BlockCodec codec = codecs.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown block codec: " + name + ", available: " + codecs.keySet());
+        }
+        return codec;
+    }
+}
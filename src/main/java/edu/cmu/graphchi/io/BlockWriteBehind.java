@@ -0,0 +1,196 @@
+package edu.cmu.graphchi.io;
+
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Write-behind pipeline for edge data blocks. Blocks are compressed and written
+ * by a writer pool, while the caller continues. The amount of block data waiting
+ * to be written is bounded: write() blocks when the limit is reached.
+ * Readers of a block file must call awaitFile() first, and barrier() waits until
+ * everything submitted so far is on disk.
+ */
+public class BlockWriteBehind {
+
+    private final ExecutorService writers;
+    private final long maxBytesInFlight;
+    private long bytesInFlight = 0;
+    private final HashMap<String, Future<?>> pending = new HashMap<String, Future<?>>();
+    private IOException firstError = null;
+
+    /**
+     * @param writers executor used for compressing and writing
+     * @param maxBytesInFlight maximum number of bytes submitted but not yet written.
+     *                         A single block larger than the limit is still accepted.
+     */
+    public BlockWriteBehind(ExecutorService writers, long maxBytesInFlight) {
+        this.writers = writers;
+        this.maxBytesInFlight = maxBytesInFlight;
+    }
+
+    /**
+     * Schedules a block to be written with CompressedIO.writeCompressed().
+     * The data array must not be modified before the write has finished.
+     * @param file block file
+     * @param data block data
+     * @param nbytes number of bytes to write
+     * @param onWritten called by the writer thread after the write (also on failure), may be null.
+     *                  Typically releases the block.
+     * @return future of the write
+     */
+    public Future<?> write(final File file, final byte[] data, final int nbytes, final Runnable onWritten) throws IOException {
+        return submit(file, nbytes, onWritten, new Callable<Object>() {
+            public Object call() throws IOException {
+                CompressedIO.writeCompressed(file, data, nbytes);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Schedules a block of the block manager to be written with CompressedIO.writeBlock(),
+     * directly from the block, which may be off-heap. The block must not be modified
+     * or released before the write has finished.
+     * @param onWritten called by the writer thread after the write (also on failure), may be null.
+     *                  Typically releases the block.
+     * @return future of the write
+     */
+    public Future<?> write(final File file, final DataBlockManager blockManager, final int blockId, final int nbytes,
+                           final Runnable onWritten) throws IOException {
+        return submit(file, nbytes, onWritten, new Callable<Object>() {
+            public Object call() throws IOException {
+                CompressedIO.writeBlock(file, blockManager, blockId, nbytes);
+                return null;
+            }
+        });
+    }
+
+    private Future<?> submit(File file, final int nbytes, final Runnable onWritten,
+                             final Callable<Object> write) throws IOException {
+        final String key = file.getAbsolutePath();
+
+        /* Never write the same file concurrently */
+        awaitFile(file);
+        acquire(nbytes);
+
+        final FutureTask<?>[] self = new FutureTask<?>[1];
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            public Object call() throws Exception {
+                try {
+                    write.call();
+                } catch (IOException ioe) {
+                    synchronized (pending) {
+                        if (firstError == null) firstError = ioe;
+                    }
+                    throw ioe;
+                } finally {
+                    if (onWritten != null) onWritten.run();
+                    synchronized (pending) {
+                        if (pending.get(key) == self[0]) pending.remove(key);
+                    }
+                    release(nbytes);
+                }
+                return null;
+            }
+        });
+        self[0] = task;
+        synchronized (pending) {
+            pending.put(key, task);
+        }
+        writers.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits until a pending write to the file, if any, has finished.
+     * @param file
+     */
+    public void awaitFile(File file) throws IOException {
+        Future<?> f;
+        synchronized (pending) {
+            f = pending.get(file.getAbsolutePath());
+        }
+        if (f != null) waitFor(f);
+    }
+
+    /**
+     * Durability barrier: waits for all writes submitted so far. Throws the first
+     * error any of them encountered.
+     */
+    public void barrier() throws IOException {
+        ArrayList<Future<?>> all;
+        synchronized (pending) {
+            all = new ArrayList<Future<?>>(pending.values());
+        }
+        for(Future<?> f : all) {
+            try {
+                waitFor(f);
+            } catch (IOException ioe) {
+                // Reported below
+            }
+        }
+        synchronized (pending) {
+            if (firstError != null) {
+                IOException err = firstError;
+                firstError = null;
+                throw err;
+            }
+        }
+    }
+
+    public synchronized long getBytesInFlight() {
+        return bytesInFlight;
+    }
+
+    private synchronized void acquire(int nbytes) throws IOException {
+        while (bytesInFlight > 0 && bytesInFlight + nbytes > maxBytesInFlight) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                throw new IOException("Interrupted while waiting for block writes", ie);
+            }
+        }
+        bytesInFlight += nbytes;
+    }
+
+    private synchronized void release(int nbytes) {
+        bytesInFlight -= nbytes;
+        notifyAll();
+    }
+
+    private static void waitFor(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while waiting for block writes", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package edu.cmu.graphchi.io;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A block codec that can also read and write blocks kept in byte buffers (off-heap
+ * blocks), without copying them to an array first. Used by CompressedIO.readBlock()
+ * and writeBlock(); for other codecs, buffer blocks are copied through a per-thread array.
+ * The buffer is accessed from index zero, and its position and limit are not changed.
+ */
+public interface BufferBlockCodec extends BlockCodec {
+
+    void write(File f, ByteBuffer data, int nbytes) throws IOException;
+
+    void read(File f, ByteBuffer buf, int nbytes) throws IOException;
+}
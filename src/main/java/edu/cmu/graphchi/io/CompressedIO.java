@@ -17,61 +17,104 @@ package edu.cmu.graphchi.io;
  */
 
 
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+
 import java.io.*;
-import java.util.zip.*;
+import java.util.Map;
 
 /**
- * Zlib-compressed I/O utilities.
+ * Reads and writes edge data blocks with the current block codec (zlib by default).
+ * The codec can be selected with -Dgraphchi.codec=name, and -Dgraphchi.compression=0
+ * disables compression. The engine switches to the codec recorded in the shard metadata.
  * @author akyrola
  */
 public class CompressedIO {
 
-    static boolean COMPRESSION_ENABLED = true;
+    static BlockCodec codec = BlockCodecs.DEFLATE;
 
     public static void readCompressed(File f, byte[] buf, int nbytes) throws FileNotFoundException, IOException {
-        if (COMPRESSION_ENABLED) {
-            BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f));
-            InflaterInputStream iis = new InflaterInputStream(bis);
-            int read = 0;
-            while (read < nbytes) {
-                read += iis.read(buf, read, nbytes - read);
-            }
-            iis.close(); bis.close();
+        codec.read(f, buf, nbytes);
+    }
+
+    public static void writeCompressed(File f, byte[] data, int nbytes) throws FileNotFoundException, IOException {
+        codec.write(f, data, nbytes);
+    }
+
+    /* Per-thread array for buffer blocks, if the codec cannot access them directly */
+    private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>();
+
+    private static byte[] scratch(int nbytes) {
+        byte[] buf = scratch.get();
+        if (buf == null || buf.length < nbytes) {
+            buf = new byte[nbytes];
+            scratch.set(buf);
+        }
+        return buf;
+    }
+
+    /**
+     * Reads a block file into a block of the block manager, which may be off-heap.
+     */
+    public static void readBlock(File f, DataBlockManager blockManager, int blockId, int nbytes) throws IOException {
+        if (!blockManager.isBufferBlock(blockId)) {
+            readCompressed(f, blockManager.getRawBlock(blockId), nbytes);
+        } else if (codec instanceof BufferBlockCodec) {
+            ((BufferBlockCodec) codec).read(f, blockManager.getBufferBlock(blockId), nbytes);
         } else {
-            FileInputStream in = new FileInputStream(f);
-            int read = 0;
-            while (read < nbytes) {
-                read += in.read(buf, read, buf.length - read);
-            }
-            in.close();
+            byte[] buf = scratch(nbytes);
+            readCompressed(f, buf, nbytes);
+            blockManager.copyToBlock(blockId, buf, nbytes);
         }
     }
 
-    public static void writeCompressed(File f, byte[] data, int nbytes) throws FileNotFoundException, IOException {
-        if (COMPRESSION_ENABLED) {
-            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(f));
-            DeflaterOutputStream dos = new DeflaterOutputStream(bos);
-            dos.write(data, 0, nbytes);
-            dos.close(); bos.close();
+    /**
+     * Writes the first nbytes of a block of the block manager to a block file.
+     */
+    public static void writeBlock(File f, DataBlockManager blockManager, int blockId, int nbytes) throws IOException {
+        if (!blockManager.isBufferBlock(blockId)) {
+            writeCompressed(f, blockManager.getRawBlock(blockId), nbytes);
+        } else if (codec instanceof BufferBlockCodec) {
+            ((BufferBlockCodec) codec).write(f, blockManager.getBufferBlock(blockId), nbytes);
         } else {
-            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(f));
-            bos.write(data, 0, nbytes);
-            bos.close();
+            byte[] buf = scratch(nbytes);
+            blockManager.copyFromBlock(blockId, buf, nbytes);
+            writeCompressed(f, buf, nbytes);
         }
     }
 
     /* Note: I realize this is not a good way to manage compression level (should not be part of the utility class). FIXME */
     public static void disableCompression() {
-        COMPRESSION_ENABLED = false;
+        codec = BlockCodecs.NONE;
     }
 
     public static boolean isCompressionEnabled() {
-        return COMPRESSION_ENABLED;
+        return codec != BlockCodecs.NONE;
+    }
+
+    public static void setCodec(BlockCodec blockCodec) {
+        codec = blockCodec;
+    }
+
+    public static BlockCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Selects the codec recorded in the shard metadata (see FastSharder.readMetadata()).
+     * Graphs sharded before codecs were recorded keep the current codec.
+     */
+    public static void setCodecFromMetadata(Map<String, String> metadata) {
+        String name = metadata.get("codec");
+        if (name != null) {
+            codec = BlockCodecs.get(name);
+        }
     }
 
     static {
         if ("0".equals(System.getProperty("graphchi.compression"))) {
             disableCompression();
+        } else if (System.getProperty("graphchi.codec") != null) {
+            setCodec(BlockCodecs.get(System.getProperty("graphchi.codec")));
         }
     }
 }
@@ -0,0 +1,111 @@
+package edu.cmu.graphchi.io;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Zlib compression. All levels produce the same format, so they share the block directory.
+ * The zlib streams take only arrays, so buffer blocks are passed through them in small chunks.
+ */
+public class DeflateBlockCodec implements BufferBlockCodec {
+
+    private static final int CHUNK = 64 * 1024;
+
+    private final String name;
+    private final int level;
+
+    public DeflateBlockCodec(String name, int level) {
+        this.name = name;
+        this.level = level;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDirectorySuffix() {
+        return ".Z.";
+    }
+
+    public void write(File f, byte[] data, int nbytes) throws IOException {
+        Deflater deflater = new Deflater(level);
+        DeflaterOutputStream dos = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(f)), deflater);
+        try {
+            dos.write(data, 0, nbytes);
+        } finally {
+            dos.close();
+            deflater.end();
+        }
+    }
+
+    public void read(File f, byte[] buf, int nbytes) throws IOException {
+        Inflater inflater = new Inflater();
+        InflaterInputStream iis = new InflaterInputStream(new BufferedInputStream(new FileInputStream(f)), inflater);
+        try {
+            NoneBlockCodec.readFully(iis, buf, nbytes);
+        } finally {
+            iis.close();
+            inflater.end();
+        }
+    }
+
+    public void write(File f, ByteBuffer data, int nbytes) throws IOException {
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        byte[] chunk = new byte[Math.min(CHUNK, Math.max(nbytes, 1))];
+        Deflater deflater = new Deflater(level);
+        DeflaterOutputStream dos = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(f)), deflater);
+        try {
+            int left = nbytes;
+            while (left > 0) {
+                int n = Math.min(left, chunk.length);
+                src.get(chunk, 0, n);
+                dos.write(chunk, 0, n);
+                left -= n;
+            }
+        } finally {
+            dos.close();
+            deflater.end();
+        }
+    }
+
+    public void read(File f, ByteBuffer buf, int nbytes) throws IOException {
+        ByteBuffer dst = buf.duplicate();
+        dst.clear();
+        byte[] chunk = new byte[Math.min(CHUNK, Math.max(nbytes, 1))];
+        Inflater inflater = new Inflater();
+        InflaterInputStream iis = new InflaterInputStream(new BufferedInputStream(new FileInputStream(f)), inflater);
+        try {
+            int left = nbytes;
+            while (left > 0) {
+                int n = iis.read(chunk, 0, Math.min(left, chunk.length));
+                if (n < 0) throw new EOFException("Unexpected end of block, read " + (nbytes - left) + " of " + nbytes + " bytes");
+                dst.put(chunk, 0, n);
+                left -= n;
+            }
+        } finally {
+            iis.close();
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package edu.cmu.graphchi.io;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 compression in pure Java. A block file is the uncompressed length
+ * (4 bytes, big-endian) followed by the data in the LZ4 block format. Compresses less
+ * than zlib, but decompression is several times faster.
+ */
+public class LZ4BlockCodec implements BlockCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 14;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xffff;
+    private static final int SKIP_TRIGGER = 6;
+
+    public String getName() {
+        return "lz4";
+    }
+
+    public String getDirectorySuffix() {
+        return ".lz4.";
+    }
+
+    public void write(File f, byte[] data, int nbytes) throws IOException {
+        byte[] compressed = new byte[maxCompressedLength(nbytes)];
+        int len = compress(data, nbytes, compressed);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(f));
+        try {
+            out.writeInt(nbytes);
+            out.write(compressed, 0, len);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void read(File f, byte[] buf, int nbytes) throws IOException {
+        int fileLen = (int) f.length();
+        byte[] compressed = new byte[fileLen];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        int rawLen;
+        try {
+            rawLen = in.readInt();
+            in.readFully(compressed, 0, fileLen - 4);
+        } finally {
+            in.close();
+        }
+        if (rawLen < nbytes || rawLen > buf.length) {
+            throw new IOException("Block " + f.getName() + " has " + rawLen + " bytes, expected " + nbytes);
+        }
+        decompress(compressed, fileLen - 4, buf, rawLen);
+    }
+
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | (b[i + 3] << 24);
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    /**
+     * @return length of the compressed data in dst
+     */
+    public static int compress(byte[] src, int srcLen, byte[] dst) {
+        int anchor = 0;
+        int op = 0;
+
+        if (srcLen > MF_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+            int limit = srcLen - MF_LIMIT;
+            int matchLimit = srcLen - LAST_LITERALS;
+            int ip = 0;
+            int searches = 1 << SKIP_TRIGGER;
+
+            while (ip < limit) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                    /* Skip faster over incompressible data */
+                    ip += searches++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searches = 1 << SKIP_TRIGGER;
+
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+                ip += matchLen;
+                anchor = ip;
+                if (ip - 2 < limit) table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+        }
+
+        /* Last literals */
+        return writeSequence(src, anchor, srcLen - anchor, 0, 0, dst, op);
+    }
+
+    private static int writeLength(int len, byte[] dst, int op) {
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int writeSequence(byte[] src, int anchor, int litLen, int offset, int matchLen, byte[] dst, int op) {
+        int tokenPos = op++;
+        int token = Math.min(litLen, 15) << 4;
+        if (litLen >= 15) op = writeLength(litLen - 15, dst, op);
+        System.arraycopy(src, anchor, dst, op, litLen);
+        op += litLen;
+
+        if (matchLen > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int ml = matchLen - MIN_MATCH;
+            token |= Math.min(ml, 15);
+            if (ml >= 15) op = writeLength(ml - 15, dst, op);
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    public static void decompress(byte[] src, int srcLen, byte[] dst, int dstLen) throws IOException {
+        int ip = 0;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xff;
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip >= srcLen) break;
+
+                int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+                ip += 2;
+                int matchLen = token & 15;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < 0) throw new IOException("Corrupted block: bad match offset " + offset);
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, ref, dst, op, matchLen);
+                    op += matchLen;
+                } else {
+                    /* Overlapping copy */
+                    for(int i=0; i < matchLen; i++) dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupted block", e);
+        }
+        if (op != dstLen) throw new IOException("Corrupted block: decompressed " + op + " bytes, expected " + dstLen);
+    }
+}
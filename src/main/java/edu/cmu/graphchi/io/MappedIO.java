@@ -0,0 +1,90 @@
+package edu.cmu.graphchi.io;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped access to uncompressed shard files. The mappings stay valid after
+ * the file has been closed, and are unmapped when the buffers are garbage collected.
+ * Changes to a read-write mapping are written back by the operating system, and the
+ * shards force them to the disk when a modified block is committed.
+ */
+public class MappedIO {
+
+    public static MappedByteBuffer mapReadOnly(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static MappedByteBuffer mapReadWrite(File f, int nbytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            if (raf.length() < nbytes) {
+                throw new IOException("File " + f.getName() + " has " + raf.length() + " bytes, expected " + nbytes
+                        + ". Memory mapping requires uncompressed shards.");
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, nbytes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Input stream reading from a buffer without copying it (the buffer's position is not changed).
+     */
+    public static InputStream asInputStream(ByteBuffer buf) {
+        final ByteBuffer b = buf.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return (b.hasRemaining() ? b.get() & 0xff : -1);
+            }
+
+            @Override
+            public int read(byte[] dst, int off, int len) {
+                if (len == 0) return 0;
+                if (!b.hasRemaining()) return -1;
+                len = Math.min(len, b.remaining());
+                b.get(dst, off, len);
+                return len;
+            }
+
+            @Override
+            public long skip(long n) {
+                int k = (int) Math.min(n, b.remaining());
+                b.position(b.position() + k);
+                return k;
+            }
+
+            @Override
+            public int available() {
+                return b.remaining();
+            }
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package edu.cmu.graphchi.io;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stores blocks uncompressed (required for memory mapped shards).
+ */
+public class NoneBlockCodec implements BufferBlockCodec {
+
+    public String getName() {
+        return "none";
+    }
+
+    public String getDirectorySuffix() {
+        return "";
+    }
+
+    public void write(File f, byte[] data, int nbytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data, 0, nbytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void read(File f, byte[] buf, int nbytes) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            readFully(in, buf, nbytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void write(File f, ByteBuffer data, int nbytes) throws IOException {
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        src.limit(nbytes);
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            FileChannel channel = out.getChannel();
+            while (src.hasRemaining()) channel.write(src);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void read(File f, ByteBuffer buf, int nbytes) throws IOException {
+        ByteBuffer dst = buf.duplicate();
+        dst.clear();
+        dst.limit(nbytes);
+        FileInputStream in = new FileInputStream(f);
+        try {
+            FileChannel channel = in.getChannel();
+            while (dst.hasRemaining()) {
+                if (channel.read(dst) < 0) {
+                    throw new EOFException("Unexpected end of block, read " + dst.position() + " of " + nbytes + " bytes");
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    static void readFully(InputStream in, byte[] buf, int nbytes) throws IOException {
+        int read = 0;
+        while (read < nbytes) {
+            int n = in.read(buf, read, nbytes - read);
+            if (n < 0) throw new EOFException("Unexpected end of block, read " + read + " of " + nbytes + " bytes");
+            read += n;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package edu.cmu.graphchi.preprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Sorts packed edges (see FastSharder.packEdges()) together with their values.
+ * Uses a stable LSD radix sort with 16-bit digits; digits that are equal in all keys are
+ * skipped. Each pass is split among threads: the threads count the digits of their own
+ * part of the array, and then move their keys to the positions given by the prefix sums.
+ * The values are not moved in the passes: a permutation is sorted with the keys, and
+ * the values are reordered once in the end.
+ * Needs 16 bytes per key, plus 8 + 2 * sizeOf bytes per key if there are values.
+ */
+public class EdgeSorter {
+
+    private static final int RADIX_BITS = 16;
+    private static final int BUCKETS = 1 << RADIX_BITS;
+    private static final int INSERTION_SORT_MAX = 32;
+    /* Smallest part of the array given to a thread */
+    private static final int MIN_PART = 1 << 16;
+
+    private final ExecutorService executor;
+    private final int nthreads;
+
+    /**
+     * @param executor executor for the sorting threads, or null to sort in the calling thread
+     * @param nthreads maximum number of threads to use, including the calling thread
+     */
+    public EdgeSorter(ExecutorService executor, int nthreads) {
+        this.executor = executor;
+        this.nthreads = (executor == null ? 1 : Math.max(1, nthreads));
+    }
+
+    /**
+     * Sorts the keys in the calling thread.
+     */
+    public static void sortSequential(long[] keys, byte[] values, int sizeOf) {
+        new EdgeSorter(null, 1).sort(keys, keys.length, values, sizeOf);
+    }
+
+    /**
+     * Sorts the first n keys in ascending order. Equal keys keep their order.
+     * @param keys keys to sort
+     * @param n number of keys
+     * @param values sizeOf bytes for each key, moved with the keys
+     * @param sizeOf size of a value, may be zero
+     */
+    public void sort(final long[] keys, int n, final byte[] values, final int sizeOf) {
+        if (n <= INSERTION_SORT_MAX) {
+            insertionSort(keys, n, values, sizeOf);
+            return;
+        }
+
+        final int nparts = Math.max(1, Math.min(nthreads, n / MIN_PART));
+        final int[] partStart = new int[nparts + 1];
+        for(int t=0; t <= nparts; t++) {
+            partStart[t] = (int) ((long) n * t / nparts);
+        }
+
+        /* Bits that differ between the keys */
+        final long[] diffs = new long[nparts];
+        runParts(nparts, new Part() {
+            public void run(int t) {
+                long first = keys[0], diff = 0;
+                for(int i=partStart[t]; i < partStart[t + 1]; i++) {
+                    diff |= keys[i] ^ first;
+                }
+                diffs[t] = diff;
+            }
+        });
+        long diff = 0;
+        for(long d : diffs) diff |= d;
+
+        long[] srcKeys = keys, dstKeys = null;
+        int[] srcPerm = null, dstPerm = null;
+        final int[][] counts = new int[nparts][];
+        for(int t=0; t < nparts; t++) counts[t] = new int[BUCKETS];
+
+        for(int shift=0; shift < 64; shift += RADIX_BITS) {
+            if (((diff >>> shift) & (BUCKETS - 1)) == 0) continue;
+            if (dstKeys == null) {
+                dstKeys = new long[n];
+                if (sizeOf > 0) {
+                    srcPerm = new int[n];
+                    dstPerm = new int[n];
+                    for(int i=0; i < n; i++) srcPerm[i] = i;
+                }
+            }
+            radixPass(srcKeys, dstKeys, srcPerm, dstPerm, partStart, counts, shift);
+            long[] tk = srcKeys; srcKeys = dstKeys; dstKeys = tk;
+            int[] tp = srcPerm; srcPerm = dstPerm; dstPerm = tp;
+        }
+
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+        }
+        if (srcPerm != null) {
+            final int[] perm = srcPerm;
+            final byte[] sorted = new byte[n * sizeOf];
+            runParts(nparts, new Part() {
+                public void run(int t) {
+                    for(int i=partStart[t]; i < partStart[t + 1]; i++) {
+                        System.arraycopy(values, perm[i] * sizeOf, sorted, i * sizeOf, sizeOf);
+                    }
+                }
+            });
+            System.arraycopy(sorted, 0, values, 0, n * sizeOf);
+        }
+    }
+
+    /* The highest digit has the sign bit, which is flipped so that negative keys come first */
+    private static int digit(long key, int shift) {
+        int d = (int) ((key >>> shift) & (BUCKETS - 1));
+        return (shift == 64 - RADIX_BITS ? d ^ (BUCKETS >> 1) : d);
+    }
+
+    private void radixPass(final long[] src, final long[] dst, final int[] srcPerm, final int[] dstPerm,
+                           final int[] partStart, final int[][] counts, final int shift) {
+        final int nparts = counts.length;
+        runParts(nparts, new Part() {
+            public void run(int t) {
+                int[] c = counts[t];
+                Arrays.fill(c, 0);
+                for(int i=partStart[t]; i < partStart[t + 1]; i++) {
+                    c[digit(src[i], shift)]++;
+                }
+            }
+        });
+
+        /* Turn the counts into the first position of each (bucket, part) */
+        int pos = 0;
+        for(int b=0; b < BUCKETS; b++) {
+            for(int t=0; t < nparts; t++) {
+                int c = counts[t][b];
+                counts[t][b] = pos;
+                pos += c;
+            }
+        }
+
+        runParts(nparts, new Part() {
+            public void run(int t) {
+                int[] next = counts[t];
+                for(int i=partStart[t]; i < partStart[t + 1]; i++) {
+                    int j = next[digit(src[i], shift)]++;
+                    dst[j] = src[i];
+                    if (srcPerm != null) dstPerm[j] = srcPerm[i];
+                }
+            }
+        });
+    }
+
+    private static void insertionSort(long[] keys, int n, byte[] values, int sizeOf) {
+        byte[] tmp = new byte[sizeOf];
+        for(int i=1; i < n; i++) {
+            long k = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > k) j--;
+            j++;
+            if (j == i) continue;
+            System.arraycopy(keys, j, keys, j + 1, i - j);
+            keys[j] = k;
+            if (sizeOf > 0) {
+                System.arraycopy(values, i * sizeOf, tmp, 0, sizeOf);
+                System.arraycopy(values, j * sizeOf, values, (j + 1) * sizeOf, (i - j) * sizeOf);
+                System.arraycopy(tmp, 0, values, j * sizeOf, sizeOf);
+            }
+        }
+    }
+
+    private interface Part {
+        void run(int t);
+    }
+
+    /* Runs the parts 1..n-1 in the executor and part 0 in the calling thread */
+    private void runParts(int nparts, final Part part) {
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nparts);
+        for(int t=1; t < nparts; t++) {
+            final int _t = t;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    part.run(_t);
+                }
+            }));
+        }
+        part.run(0);
+        for(Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException(ie);
+            } catch (ExecutionException ee) {
+                throw new RuntimeException(ee.getCause());
+            }
+        }
+    }
+}
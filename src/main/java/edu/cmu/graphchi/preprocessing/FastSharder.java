@@ -10,20 +10,32 @@ import edu.cmu.graphchi.datablocks.IntConverter;
 import edu.cmu.graphchi.engine.auxdata.VertexData;
 import edu.cmu.graphchi.io.CompressedIO;
 import edu.cmu.graphchi.io.MatrixMarketDataReader;
+import edu.cmu.graphchi.shards.AdjacencyFormat;
 import edu.cmu.graphchi.shards.MemoryShard;
 import edu.cmu.graphchi.shards.SlidingShard;
 import edu.cmu.graphchi.toolkits.collaborative_filtering.utils.FileInputDataReader;
 import nom.tam.util.BufferedDataInputStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
-import java.util.Random;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
-import java.util.zip.DeflaterOutputStream;
 
 import org.codehaus.jackson.map.ObjectMapper;
 
@@ -50,7 +62,7 @@ import org.codehaus.jackson.map.ObjectMapper;
  *
  * <b>Note:</b> <a href="http://code.google.com/p/graphchi/wiki/EdgeListFormat">Edge list</a>
  * and <a href="http://code.google.com/p/graphchi/wiki/AdjacencyListFormat">adjacency list</a>
- * formats are supported.
+ * formats are supported, as well as binary edge lists (see setBinaryFormat()).
  *
  * <b>Note:</b>If from and to vertex ids equal (applies only to edge list format), the line is assumed to contain vertex-value.
  *
@@ -58,7 +70,7 @@ import org.codehaus.jackson.map.ObjectMapper;
  */
 public class FastSharder <VertexValueType, EdgeValueType> {
 
-    public enum GraphInputFormat {EDGELIST, ADJACENCY, MATRIXMARKET};
+    public enum GraphInputFormat {EDGELIST, ADJACENCY, MATRIXMARKET, BINARY};
 
     private String baseFilename;
     private int numShards;
@@ -77,6 +89,13 @@ public class FastSharder <VertexValueType, EdgeValueType> {
     private long numEdges = 0;
     private boolean useSparseDegrees = false;
     private boolean allowSparseDegreesAndVertexData = false;
+    private AdjacencyFormat adjacencyFormat = AdjacencyFormat.getDefault();
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private EdgeSorter sorter;
+    private Semaphore memoryReservation;
+    private ByteOrder binaryByteOrder = ByteOrder.LITTLE_ENDIAN;
+    private int binaryValueWidth = 0;
 
     private BytesToValueConverter<EdgeValueType> edgeValueTypeBytesToValueConverter;
     private BytesToValueConverter<VertexValueType> vertexValueTypeBytesToValueConverter;
@@ -161,7 +180,22 @@ public class FastSharder <VertexValueType, EdgeValueType> {
     public void addEdge(int from, int to, String edgeValueToken) throws IOException {
         if (maxVertexId < from) maxVertexId = from;
         if (maxVertexId < to)  maxVertexId = to;
+        addEdge(from, to, edgeValueToken, shovelStreams, vertexShovelStreams, valueTemplate, vertexValueTemplate);
+    }
+
+    /**
+     * Adds an edge of a binary input, whose value bytes are copied to the edge data as they are.
+     * Edges from a vertex to itself carry no vertex value, and are dropped.
+     */
+    private void addBinaryEdge(int from, int to, byte[] valueBytes) throws IOException {
+        if (maxVertexId < from) maxVertexId = from;
+        if (maxVertexId < to)  maxVertexId = to;
+        if (from == to) return;
+        addToShovel(shovelStreams[to % numShards], preIdTranslate.forward(from), preIdTranslate.forward(to), valueBytes);
+    }
 
+    private void addEdge(int from, int to, String edgeValueToken, DataOutputStream[] edgeStreams,
+                         DataOutputStream[] vertexStreams, byte[] valueTemplate, byte[] vertexValueTemplate) throws IOException {
         /* If the from and to ids are same, this entry is assumed to contain value
            for the vertex, and it is passed to the vertexProcessor.
          */
@@ -170,7 +204,7 @@ public class FastSharder <VertexValueType, EdgeValueType> {
             if (vertexProcessor != null && edgeValueToken != null) {
                 VertexValueType value = vertexProcessor.receiveVertexValue(from, edgeValueToken);
                 if (value != null) {
-                    addVertexValue(from % numShards, preIdTranslate.forward(from), value);
+                    addVertexValue(vertexStreams[from % numShards], preIdTranslate.forward(from), value, vertexValueTemplate);
                 }
             }
             return;
@@ -178,8 +212,8 @@ public class FastSharder <VertexValueType, EdgeValueType> {
         int preTranslatedIdFrom = preIdTranslate.forward(from);
         int preTranslatedTo = preIdTranslate.forward(to);
 
-        addToShovel(to % numShards, preTranslatedIdFrom, preTranslatedTo,
-                (edgeProcessor != null ? edgeProcessor.receiveEdge(from, to, edgeValueToken) : null));
+        addToShovel(edgeStreams[to % numShards], preTranslatedIdFrom, preTranslatedTo,
+                (edgeProcessor != null ? edgeProcessor.receiveEdge(from, to, edgeValueToken) : null), valueTemplate);
     }
 
 
@@ -192,27 +226,81 @@ public class FastSharder <VertexValueType, EdgeValueType> {
      * to a temporary internal ids. In the last phase, each vertex-id is assigned its
      * final id. The pretranslation is requried because at this point we do not know
      * the total number of vertices.
-     * @param shard
+     * @param strm shovel stream of the shard
      * @param preTranslatedIdFrom internal from-id
      * @param preTranslatedTo internal to-id
      * @param value
+     * @param valueTemplate temporary for the value bytes
      * @throws IOException
      */
-    private void addToShovel(int shard, int preTranslatedIdFrom, int preTranslatedTo,
-                             EdgeValueType value) throws IOException {
-        DataOutputStream strm = shovelStreams[shard];
-        strm.writeLong(packEdges(preTranslatedIdFrom, preTranslatedTo));
+    private void addToShovel(DataOutputStream strm, int preTranslatedIdFrom, int preTranslatedTo,
+                             EdgeValueType value, byte[] valueTemplate) throws IOException {
         if (edgeValueTypeBytesToValueConverter != null) {
             edgeValueTypeBytesToValueConverter.setValue(valueTemplate, value);
         }
-        strm.write(valueTemplate);
+        addToShovel(strm, preTranslatedIdFrom, preTranslatedTo, valueTemplate);
     }
 
+    /**
+     * Adds an edge to the shovel, with the value already in the layout of the edge value converter.
+     */
+    private void addToShovel(DataOutputStream strm, int preTranslatedIdFrom, int preTranslatedTo,
+                             byte[] valueBytes) throws IOException {
+        strm.writeLong(packEdges(preTranslatedIdFrom, preTranslatedTo));
+        strm.write(valueBytes);
+    }
+
+
+    /**
+     * Number of threads for parsing the input, and for sorting and writing the shards
+     * (default: number of processors). Note: the input is parsed in several threads, so
+     * the edge and vertex processors must be thread-safe.
+     * @param numThreads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Memory for sorting the shards, in bytes (default: half of the maximum heap). Shards are
+     * processed concurrently as long as their edges fit in the budget. The edges of a shard
+     * that does not fit alone are sorted in runs, which are written to disk and merged.
+     * @param memoryBudget
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Layout of the BINARY input format. Each edge is a 32-bit source id and a 32-bit
+     * destination id, followed by valueWidth bytes of edge value. The value bytes are
+     * copied to the edge data as they are, so they must be in the byte layout of the
+     * edge value converter (the converters of GraphChi are little-endian).
+     * Default: little-endian ids, no values.
+     * @param byteOrder byte order of the vertex ids
+     * @param valueWidth size of the edge value in bytes, zero if the edges have no values
+     */
+    public void setBinaryFormat(ByteOrder byteOrder, int valueWidth) {
+        this.binaryByteOrder = byteOrder;
+        this.binaryValueWidth = valueWidth;
+    }
+
+    private int getMemoryBudgetMb() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget >> 20));
+    }
 
     public boolean isAllowSparseDegreesAndVertexData() {
         return allowSparseDegreesAndVertexData;
     }
 
+    /**
+     * Encoding of the adjacency shards, see AdjacencyFormat. Default is AdjacencyFormat.getDefault().
+     * @param adjacencyFormat
+     */
+    public void setAdjacencyFormat(AdjacencyFormat adjacencyFormat) {
+        this.adjacencyFormat = adjacencyFormat;
+    }
+
     /**
      * If set true, GraphChi will use sparse file for vertices and the degree data
      * if the number of edges is smaller than the number of vertices. Default false.
@@ -225,13 +313,14 @@ public class FastSharder <VertexValueType, EdgeValueType> {
 
     /**
      * We keep separate shovel-file for vertex-values.
-     * @param shard
+     * @param strm vertex shovel stream of the shard
      * @param pretranslatedVertexId
      * @param value
+     * @param vertexValueTemplate temporary for the value bytes
      * @throws IOException
      */
-    private void addVertexValue(int shard, int pretranslatedVertexId, VertexValueType value) throws IOException{
-        DataOutputStream strm = vertexShovelStreams[shard];
+    private void addVertexValue(DataOutputStream strm, int pretranslatedVertexId, VertexValueType value,
+                                byte[] vertexValueTemplate) throws IOException{
         strm.writeInt(pretranslatedVertexId);
         vertexValueTypeBytesToValueConverter.setValue(vertexValueTemplate, value);
         strm.write(vertexValueTemplate);
@@ -305,9 +394,14 @@ public class FastSharder <VertexValueType, EdgeValueType> {
         /**
          * Process each shovel to create a final shard.
          */
-        for(int i=0; i<numShards; i++) {
-            processShovel(i);
-        }
+        processShovels();
+
+        /**
+         * Record the codec of the edge data blocks, so that the engine
+         * uses it regardless of the settings it is run with.
+         */
+        metadataMap.put("codec", CompressedIO.getCodec().getName());
+        writeMetadata();
 
         /**
          * If we have more vertices than edges, it makes sense to use sparse representation
@@ -450,235 +544,530 @@ public class FastSharder <VertexValueType, EdgeValueType> {
     }
 
     /**
-     * Converts a shovel-file into a shard.
+     * Processes the shovels concurrently: each reserves the memory it needs from the budget.
+     * @throws IOException
+     */
+    private void processShovels() throws IOException {
+        int nthreads = Math.max(1, numThreads);
+        ExecutorService sortExecutor = Executors.newFixedThreadPool(nthreads);
+        ExecutorService shovelExecutor = Executors.newFixedThreadPool(Math.min(nthreads, numShards));
+        sorter = new EdgeSorter(sortExecutor, nthreads);
+        memoryReservation = new Semaphore(getMemoryBudgetMb(), true);
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+            for(int i=0; i<numShards; i++) {
+                final int shardNum = i;
+                futures.add(shovelExecutor.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        processShovel(shardNum);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (InterruptedException ie) {
+                    throw new IOException("Interrupted while processing shovels", ie);
+                } catch (ExecutionException ee) {
+                    if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+                    throw new RuntimeException(ee.getCause());
+                }
+            }
+        } finally {
+            shovelExecutor.shutdown();
+            sortExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Converts a shovel-file into a shard. The memory for sorting is reserved from the
+     * budget first. If the edges of the shovel do not fit in the budget, they are sorted
+     * in runs that are written to disk and merged.
      * @param shardNum
      * @throws IOException
      */
     private void processShovel(int shardNum) throws IOException {
         File shovelFile = new File(shovelFilename(shardNum));
         int sizeOf = (edgeValueTypeBytesToValueConverter != null ? edgeValueTypeBytesToValueConverter.sizeOf() : 0);
+        long numShoveled = shovelFile.length() / (8 + sizeOf);
 
-        long[] shoveled = new long[(int) (shovelFile.length() / (8 + sizeOf))];
+        /* Changes to a previous version of the shard (see IncrementalSharder) do not apply */
+        new File(ChiFilenames.getFilenameShardDelta(baseFilename, shardNum, numShards)).delete();
 
-        // TODO: improve
-        if (shoveled.length > 500000000) {
-            throw new RuntimeException("Too big shard size, shovel length was: " + shoveled.length + " max: " + 500000000);
+        /* The shard files use 32-bit offsets */
+        if (numShoveled * Math.max(4, sizeOf) > Integer.MAX_VALUE) {
+            throw new RuntimeException("Too big shard size, shovel length was: " + numShoveled + ", use more shards");
         }
-        byte[] edgeValues = new byte[shoveled.length * sizeOf];
 
+        int budgetMb = getMemoryBudgetMb();
+        long bytesPerEdge = 16 + (sizeOf > 0 ? 8 + 2 * sizeOf : 0);
+        long maxChunk = Math.min(((long) budgetMb << 20) / bytesPerEdge, (Integer.MAX_VALUE - 8) / Math.max(8, sizeOf));
+        int chunkSize = (int) Math.max(1, Math.min(numShoveled, maxChunk));
+        int reservedMb = (int) Math.min(budgetMb, Math.max(1, (chunkSize * bytesPerEdge + (1 << 20) - 1) >> 20));
+
+        memoryReservation.acquireUninterruptibly(reservedMb);
+        try {
+            processShovel(shardNum, shovelFile, numShoveled, chunkSize, sizeOf);
+        } finally {
+            memoryReservation.release(reservedMb);
+        }
+    }
+
+    private void processShovel(int shardNum, File shovelFile, long numShoveled, int chunkSize, int sizeOf) throws IOException {
+        long[] shoveled = new long[chunkSize];
+        byte[] edgeValues = new byte[chunkSize * sizeOf];
+        byte[] valueTemplate = new byte[sizeOf];
+        ArrayList<File> runs = new ArrayList<File>();
+        ShardWriter writer = new ShardWriter(ChiFilenames.getFilenameShardsAdj(baseFilename, shardNum, numShards),
+                (sizeOf > 0 ? ChiFilenames.getFilenameShardEdata(baseFilename, edgeValueTypeBytesToValueConverter, shardNum, numShards) : null),
+                sizeOf, adjacencyFormat, (memoryEfficientDegreeCount ? null : outDegrees));
 
         logger.info("Processing shovel " + shardNum);
 
-        /**
-         * Read the edges into memory.
-         */
         BufferedDataInputStream in = new BufferedDataInputStream(new FileInputStream(shovelFile));
-        for(int i=0; i<shoveled.length; i++) {
-            long l = in.readLong();
-            int from = getFirst(l);
-            int to = getSecond(l);
-            in.readFully(valueTemplate);
-
-            int newFrom = finalIdTranslate.forward(preIdTranslate.backward(from));
-            int newTo = finalIdTranslate.forward(preIdTranslate.backward(to));
-            shoveled[i] = packEdges(newFrom, newTo);
-
-            /* Edge value */
-            int valueIdx = i * sizeOf;
-            System.arraycopy(valueTemplate, 0, edgeValues, valueIdx, sizeOf);
-            if (!memoryEfficientDegreeCount) {
-                inDegrees[newTo]++;
-                outDegrees[newFrom]++;
+        try {
+            for(long done=0; done < numShoveled; ) {
+                int n = (int) Math.min(chunkSize, numShoveled - done);
+
+                /**
+                 * Read the edges into memory.
+                 */
+                for(int i=0; i<n; i++) {
+                    long l = in.readLong();
+                    int from = getFirst(l);
+                    int to = getSecond(l);
+                    in.readFully(valueTemplate);
+
+                    int newFrom = finalIdTranslate.forward(preIdTranslate.backward(from));
+                    int newTo = finalIdTranslate.forward(preIdTranslate.backward(to));
+                    shoveled[i] = packEdges(newFrom, newTo);
+
+                    /* Edge value */
+                    System.arraycopy(valueTemplate, 0, edgeValues, i * sizeOf, sizeOf);
+
+                    /* The in-edges of a vertex are all in the same shovel */
+                    if (!memoryEfficientDegreeCount) {
+                        inDegrees[newTo]++;
+                    }
+                }
+                done += n;
+
+                logger.info("Processing shovel " + shardNum + " ... sorting");
+
+                /* Sort the edges */
+                sorter.sort(shoveled, n, edgeValues, sizeOf);  // The source id is  higher order, so sorting the longs will produce right result
+
+                if (n == numShoveled) {
+                    logger.info("Processing shovel " + shardNum + " ... writing shard");
+                    for(int i=0; i < n; i++) {
+                        writer.add(shoveled[i], edgeValues, i * sizeOf);
+                    }
+                } else {
+                    File run = new File(shovelFilename(shardNum) + ".run" + runs.size());
+                    writeRun(run, shoveled, n, edgeValues, sizeOf);
+                    runs.add(run);
+                }
             }
+        } finally {
+            in.close();
         }
-        numEdges += shoveled.length;
-
-        in.close();
 
         /* Delete the shovel-file */
         shovelFile.delete();
 
-        logger.info("Processing shovel " + shardNum + " ... sorting");
+        if (!runs.isEmpty()) {
+            shoveled = null;
+            edgeValues = null;
+            logger.info("Processing shovel " + shardNum + " ... merging " + runs.size() + " runs");
+            mergeRuns(runs, writer, sizeOf);
+        }
+        writer.close();
+        addNumEdges(numShoveled);
+    }
 
-        /* Sort the edges */
-        sortWithValues(shoveled, edgeValues, sizeOf);  // The source id is  higher order, so sorting the longs will produce right result
+    private static void writeRun(File run, long[] keys, int n, byte[] values, int sizeOf) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+        for(int i=0; i < n; i++) {
+            out.writeLong(keys[i]);
+            out.write(values, i * sizeOf, sizeOf);
+        }
+        out.close();
+    }
 
-        logger.info("Processing shovel " + shardNum + " ... writing shard");
+    /**
+     * Merges the sorted runs into the shard. Equal edges are taken from the earlier run first.
+     */
+    private void mergeRuns(ArrayList<File> runs, ShardWriter writer, int sizeOf) throws IOException {
+        int k = runs.size();
+        final long[] heads = new long[k];
+        byte[][] headValues = new byte[k][sizeOf];
+        long[] remaining = new long[k];
+        BufferedDataInputStream[] ins = new BufferedDataInputStream[k];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(k, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                if (heads[a] != heads[b]) return (heads[a] < heads[b] ? -1 : 1);
+                return a - b;
+            }
+        });
 
+        try {
+            for(int r=0; r < k; r++) {
+                ins[r] = new BufferedDataInputStream(new FileInputStream(runs.get(r)), 1 << 16);
+                remaining[r] = runs.get(r).length() / (8 + sizeOf);
+                if (remaining[r] > 0) {
+                    heads[r] = ins[r].readLong();
+                    ins[r].readFully(headValues[r]);
+                    remaining[r]--;
+                    queue.add(r);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int r = queue.poll();
+                writer.add(heads[r], headValues[r], 0);
+                if (remaining[r] > 0) {
+                    heads[r] = ins[r].readLong();
+                    ins[r].readFully(headValues[r]);
+                    remaining[r]--;
+                    queue.add(r);
+                }
+            }
+        } finally {
+            for(int r=0; r < k; r++) {
+                if (ins[r] != null) ins[r].close();
+                runs.get(r).delete();
+            }
+        }
+    }
 
-        /*
-         Now write the final shard in a compact form. Note that there is separate shard
-         for adjacency and the edge-data. The edge-data is split and stored into 4-megabyte compressed blocks.
-         */
+    private synchronized void addNumEdges(long n) {
+        numEdges += n;
+    }
 
-        /**
-         * Step 1: ADJACENCY SHARD
-         */
-        File adjFile = new File(ChiFilenames.getFilenameShardsAdj(baseFilename, shardNum, numShards));
-        DataOutputStream adjOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(adjFile)));
-        File indexFile = new File(adjFile.getAbsolutePath() + ".index");
-        DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
-        int curvid = 0;
-        int istart = 0;
-        int edgeCounter = 0;
-        int lastIndexFlush = 0;
-        int edgesPerIndexEntry = 4096; // Tuned for fast shard queries
-
-        for(int i=0; i <= shoveled.length; i++) {
-            int from = (i < shoveled.length ? getFirst(shoveled[i]) : -1);
-
-            if (from != curvid) {
-                /* Write index */
-                if (edgeCounter - lastIndexFlush >= edgesPerIndexEntry) {
-                    indexOut.writeInt(curvid);
-                    indexOut.writeInt(adjOut.size());
-                    indexOut.writeInt(edgeCounter);
-                    lastIndexFlush = edgeCounter;
-                }
+    /**
+     * Sorts the keys, and moves the values (sizeOf bytes each) with them.
+     */
+    public static void sortWithValues(long[] shoveled, byte[] edgeValues, int sizeOf) {
+        EdgeSorter.sortSequential(shoveled, edgeValues, sizeOf);
+    }
 
-                int count = i - istart;
 
-                if (count > 0) {
-                    if (count < 255) {
-                        adjOut.writeByte(count);
-                    } else {
-                        adjOut.writeByte(0xff);
-                        adjOut.writeInt(Integer.reverseBytes(count));
+    /* Size of the blocks of lines parsed by the worker threads */
+    private static final int PARSE_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * Parses an edge list or adjacency list. The input is read in blocks that end at
+     * a line break, and the blocks are parsed by worker threads into per-block shovel
+     * buffers. The buffers are appended to the shovel files in input order, so the
+     * shovels are the same as when the lines are added one by one with addEdge().
+     * @param inputStream
+     * @param format
+     * @throws IOException
+     */
+    private void parseInput(InputStream inputStream, final GraphInputFormat format) throws IOException {
+        int nthreads = Math.max(1, numThreads);
+        ExecutorService parseExecutor = Executors.newFixedThreadPool(nthreads);
+        LinkedList<Future<ParsedBlock>> pending = new LinkedList<Future<ParsedBlock>>();
+        ArrayList<ParsedBlock> freeBlocks = new ArrayList<ParsedBlock>();
+        byte[] carry = new byte[256];
+        int carryLen = 0;
+        long lineNum = 0;
+        boolean eof = false;
+
+        try {
+            while (lineNum >= 0 && (!eof || !pending.isEmpty())) {
+                if (!eof) {
+                    final ParsedBlock block = (freeBlocks.isEmpty() ? new ParsedBlock() : freeBlocks.remove(freeBlocks.size() - 1));
+
+                    /* Fill the block, starting with the partial line left from the previous block */
+                    byte[] input = block.input;
+                    System.arraycopy(carry, 0, input, 0, carryLen);
+                    int len = carryLen;
+                    int cut = 0;
+                    while (true) {
+                        int n = inputStream.read(input, len, input.length - len);
+                        if (n < 0) {
+                            eof = true;
+                            cut = len;
+                            break;
+                        }
+                        len += n;
+                        if (len == input.length) {
+                            cut = len;
+                            while (cut > 0 && input[cut - 1] != '\n' && input[cut - 1] != '\r') cut--;
+                            if (cut > 0) break;
+                            /* Line is longer than the block */
+                            input = Arrays.copyOf(input, input.length * 2);
+                            block.input = input;
+                        }
                     }
-                }
-                for(int j=istart; j<i; j++) {
-                    adjOut.writeInt(Integer.reverseBytes(getSecond(shoveled[j])));
-                    edgeCounter++;
+                    block.inputLen = cut;
+                    carryLen = len - cut;
+                    if (carryLen > carry.length) carry = new byte[Math.max(carryLen, carry.length * 2)];
+                    System.arraycopy(input, cut, carry, 0, carryLen);
+
+                    pending.add(parseExecutor.submit(new Callable<ParsedBlock>() {
+                        public ParsedBlock call() throws IOException {
+                            block.parse(format);
+                            return block;
+                        }
+                    }));
                 }
 
-                istart = i;
-
-                // Handle zeros
-                if (from != (-1)) {
-                    if (from - curvid > 1 || (i == 0 && from > 0)) {
-                        int nz = from - curvid - 1;
-                        if (i ==0 && from >0) nz = from;
-                        do {
-                            adjOut.writeByte(0);
-                            nz--;
-                            int tnz = Math.min(254, nz);
-                            adjOut.writeByte(tnz);
-                            nz -= tnz;
-                        } while (nz > 0);
-                    }
+                /* Keep the workers busy, but limit the memory of blocks waiting to be appended */
+                while (!pending.isEmpty() && (eof || pending.size() >= 2 * nthreads)) {
+                    ParsedBlock block = waitFor(pending.removeFirst());
+                    lineNum = appendBlock(block, lineNum);
+                    freeBlocks.add(block);
+                    if (lineNum < 0) break;
                 }
-                curvid = from;
             }
+        } finally {
+            parseExecutor.shutdown();
         }
-        adjOut.close();
-        indexOut.close();
+    }
 
+    private ParsedBlock waitFor(Future<ParsedBlock> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while parsing input", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+            if (ee.getCause() instanceof RuntimeException) throw (RuntimeException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        }
+    }
 
+    /**
+     * Appends the edges of a parsed block to the shovels.
+     * @return number of lines read so far, or -1 if reading should stop
+     */
+    private long appendBlock(ParsedBlock block, long lineNum) throws IOException {
+        if (maxVertexId < block.maxVertexId) maxVertexId = block.maxVertexId;
+        for(int i=0; i < numShards; i++) {
+            block.edgeBuffers[i].writeTo(shovelStreams[i]);
+            if (vertexProcessor != null) block.vertexBuffers[i].writeTo(vertexShovelStreams[i]);
+        }
+        if ((lineNum + block.numLines) / 2000000 > lineNum / 2000000) {
+            logger.info("Reading line: " + ((lineNum + block.numLines) / 2000000 * 2000000));
+        }
 
-        /**
-         * Step 2: EDGE DATA
-         */
+        if (block.error != null) {
+            long errorLine = lineNum + block.errorLine;
+            if (errorLine < 10) {
+                throw new IllegalArgumentException("Error on line " + errorLine + "; " + block.error);
+            } else {
+                logger.warning("Error on line " + errorLine + "; " + block.error);
+                return -1;
+            }
+        }
+        return lineNum + block.numLines;
+    }
 
-        /* Create compressed edge data directories */
-        if (sizeOf > 0) {
-            int blockSize = ChiFilenames.getBlocksize(sizeOf);
-            String edataFileName = ChiFilenames.getFilenameShardEdata(baseFilename, new BytesToValueConverter() {
-                @Override
-                public int sizeOf() {
-                    return edgeValueTypeBytesToValueConverter.sizeOf();
-                }
+    /**
+     * Parses an integer from bytes without creating a string.
+     */
+    static int parseInt(byte[] buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+            negative = (buf[i] == '-');
+            i++;
+        }
+        if (i == end) throw new NumberFormatException("For input string: \"" + new String(buf, start, end - start) + "\"");
+
+        /* Accumulate negatively, as Integer.MIN_VALUE has no positive counterpart */
+        int limit = (negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE);
+        int result = 0;
+        for(; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10 || result * 10 < limit + digit) {
+                throw new NumberFormatException("For input string: \"" + new String(buf, start, end - start) + "\"");
+            }
+            result = result * 10 - digit;
+        }
+        return (negative ? result : -result);
+    }
 
-                @Override
-                public Object getValue(byte[] array) {
-                    return null;
+    /**
+     * A block of input lines and the shovel data parsed from it. Parsing does not create
+     * objects, except the strings of edge and vertex value tokens.
+     */
+    private class ParsedBlock {
+        byte[] input = new byte[PARSE_BLOCK_SIZE];
+        int inputLen;
+
+        final ByteArrayOutputStream[] edgeBuffers = new ByteArrayOutputStream[numShards];
+        final DataOutputStream[] edgeStreams = new DataOutputStream[numShards];
+        final ByteArrayOutputStream[] vertexBuffers = new ByteArrayOutputStream[numShards];
+        final DataOutputStream[] vertexStreams = new DataOutputStream[numShards];
+        final byte[] blockValueTemplate = new byte[valueTemplate.length];
+        final byte[] blockVertexValueTemplate = (vertexValueTemplate != null ? new byte[vertexValueTemplate.length] : null);
+
+        int[] tokenStart = new int[16];
+        int[] tokenEnd = new int[16];
+        int numTokens;
+
+        int maxVertexId;
+        long numLines;
+        long errorLine;
+        String error;
+
+        ParsedBlock() {
+            for(int i=0; i < numShards; i++) {
+                edgeBuffers[i] = new ByteArrayOutputStream();
+                edgeStreams[i] = new DataOutputStream(edgeBuffers[i]);
+                if (vertexProcessor != null) {
+                    vertexBuffers[i] = new ByteArrayOutputStream();
+                    vertexStreams[i] = new DataOutputStream(vertexBuffers[i]);
                 }
+            }
+        }
 
-                @Override
-                public void setValue(byte[] array, Object val) {
+        void parse(GraphInputFormat format) throws IOException {
+            for(int i=0; i < numShards; i++) {
+                edgeBuffers[i].reset();
+                if (vertexProcessor != null) vertexBuffers[i].reset();
+            }
+            maxVertexId = 0;
+            numLines = 0;
+            error = null;
+
+            int pos = 0;
+            while (pos < inputLen) {
+                int lineEnd = pos;
+                while (lineEnd < inputLen && input[lineEnd] != '\n' && input[lineEnd] != '\r') lineEnd++;
+                if (lineEnd - pos > 2 && input[pos] != '#') {
+                    numLines++;
+                    if (!parseLine(pos, lineEnd, format)) {
+                        errorLine = numLines;
+                        return;
+                    }
                 }
-            }, shardNum, numShards);
-            File edgeDataSizeFile = new File(edataFileName + ".size");
-            File edgeDataDir = new File(ChiFilenames.getDirnameShardEdataBlock(edataFileName, blockSize));
-            if (!edgeDataDir.exists()) edgeDataDir.mkdir();
-
-            long edatasize = shoveled.length * edgeValueTypeBytesToValueConverter.sizeOf();
-            FileWriter sizeWr = new FileWriter(edgeDataSizeFile);
-            sizeWr.write(edatasize + "");
-            sizeWr.close();
-
-            /* Create compressed blocks */
-            int blockIdx = 0;
-            int edgeIdx= 0;
-            for(long idx=0; idx < edatasize; idx += blockSize) {
-                File blockFile = new File(ChiFilenames.getFilenameShardEdataBlock(edataFileName, blockIdx, blockSize));
-                OutputStream blockOs = (CompressedIO.isCompressionEnabled() ?
-                        new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(blockFile))) :
-                                new FileOutputStream(blockFile));
-                long len = Math.min(blockSize, edatasize - idx);
-                byte[] block = new byte[(int)len];
-
-                System.arraycopy(edgeValues, edgeIdx * sizeOf, block, 0, block.length);
-                edgeIdx += len / sizeOf;
-
-                blockOs.write(block);
-                blockOs.close();
-                blockIdx++;
+                pos = lineEnd + 1;
             }
-
-            assert(edgeIdx == edgeValues.length);
         }
-    }
-
-    private static Random random = new Random();
-
 
+        /* Same tokens as String.split(): separated by tabs, or by spaces if there are no tabs */
+        private void tokenize(int start, int end, byte separator) {
+            numTokens = 0;
+            int tokStart = start;
+            for(int i=start; i <= end; i++) {
+                if (i == end || input[i] == separator) {
+                    if (numTokens == tokenStart.length) {
+                        tokenStart = Arrays.copyOf(tokenStart, numTokens * 2);
+                        tokenEnd = Arrays.copyOf(tokenEnd, numTokens * 2);
+                    }
+                    tokenStart[numTokens] = tokStart;
+                    tokenEnd[numTokens] = i;
+                    numTokens++;
+                    tokStart = i + 1;
+                }
+            }
+            while (numTokens > 0 && tokenStart[numTokens - 1] == tokenEnd[numTokens - 1]) numTokens--;
+        }
 
-    // http://www.algolist.net/Algorithms/Sorting/Quicksort
-    // TODO: implement faster
-    private static int partition(long arr[], byte[] values, int sizeOf, int left, int right)
-    {
-        int i = left, j = right;
-        long tmp;
-        long pivot = arr[left + random.nextInt(right - left + 1)];
-        byte[] valueTemplate = new byte[sizeOf];
+        private int intToken(int i) {
+            return parseInt(input, tokenStart[i], tokenEnd[i]);
+        }
 
-        while (i <= j) {
-            while (arr[i] < pivot)
-                i++;
-            while (arr[j] > pivot)
-                j--;
-            if (i <= j) {
-                tmp = arr[i];
-
-                /* Swap */
-                System.arraycopy(values, j * sizeOf, valueTemplate, 0, sizeOf);
-                System.arraycopy(values, i * sizeOf, values, j * sizeOf, sizeOf);
-                System.arraycopy(valueTemplate, 0, values, i * sizeOf, sizeOf);
-
-                arr[i] = arr[j];
-                arr[j] = tmp;
-                i++;
-                j--;
+        private boolean parseLine(int start, int end, GraphInputFormat format) throws IOException {
+            tokenize(start, end, (byte) '\t');
+            if (numTokens == 1) tokenize(start, end, (byte) ' ');
+
+            if (numTokens > 1) {
+                if (format == GraphInputFormat.EDGELIST) {
+                    /* Edge list: <src> <dst> <value> */
+                    if (numTokens == 2) {
+                        addParsedEdge(intToken(0), intToken(1), null);
+                    } else if (numTokens == 3) {
+                        addParsedEdge(intToken(0), intToken(1), new String(input, tokenStart[2], tokenEnd[2] - tokenStart[2]));
+                    }
+                } else if (format == GraphInputFormat.ADJACENCY) {
+                    /* Adjacency list: <vertex-id> <count> <neighbor-1> <neighbor-2> ... */
+                    int vertexId = intToken(0);
+                    int len = intToken(1);
+                    if (len != numTokens - 2) {
+                        error = "number of edges does not match number of tokens:" + len + " != " + numTokens;
+                        return false;
+                    }
+                    for(int j=2; j < 2 + len; j++) {
+                        addParsedEdge(vertexId, intToken(j), null);
+                    }
+                } else {
+                    throw new IllegalArgumentException("Please specify graph input format");
+                }
             }
+            return true;
         }
 
-        return i;
-    }
-
-    static void quickSort(long arr[], byte[] values, int sizeOf, int left, int right) {
-        int index = partition(arr, values, sizeOf, left, right);
-        if (left < index - 1)
-            quickSort(arr, values, sizeOf, left, index - 1);
-        if (index < right)
-            quickSort(arr, values, sizeOf, index, right);
+        private void addParsedEdge(int from, int to, String edgeValueToken) throws IOException {
+            if (maxVertexId < from) maxVertexId = from;
+            if (maxVertexId < to) maxVertexId = to;
+            addEdge(from, to, edgeValueToken, edgeStreams, vertexStreams, blockValueTemplate, blockVertexValueTemplate);
+        }
     }
 
+    /* Number of edges read from a binary input at a time */
+    private static final int BINARY_BATCH = 65536;
 
-    public static void sortWithValues(long[] shoveled, byte[] edgeValues, int sizeOf) {
-        quickSort(shoveled, edgeValues, sizeOf, 0, shoveled.length - 1);
+    /**
+     * Reads a binary edge list (see setBinaryFormat()). The edges are read in batches
+     * to a buffer of the input byte order, and the ids are decoded in bulk.
+     * @param inputStream
+     * @throws IOException
+     */
+    private void readBinaryInput(InputStream inputStream) throws IOException {
+        int sizeOf = (edgeValueTypeBytesToValueConverter != null ? edgeValueTypeBytesToValueConverter.sizeOf() : 0);
+        if (binaryValueWidth != 0 && binaryValueWidth != sizeOf) {
+            throw new IllegalArgumentException("Binary input has values of " + binaryValueWidth +
+                    " bytes, but the edge values are " + sizeOf + " bytes");
+        }
+        ReadableByteChannel channel = (inputStream instanceof FileInputStream ?
+                ((FileInputStream) inputStream).getChannel() : Channels.newChannel(inputStream));
+
+        int recordSize = 8 + binaryValueWidth;
+        ByteBuffer buf = ByteBuffer.allocateDirect(recordSize * BINARY_BATCH).order(binaryByteOrder);
+        int[] ids = new int[2 * BINARY_BATCH];
+        byte[] value = new byte[binaryValueWidth];
+        long numRead = 0;
+        boolean eof = false;
+
+        while (!eof) {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            buf.flip();
+            int n = buf.remaining() / recordSize;
+            if (binaryValueWidth == 0) {
+                buf.asIntBuffer().get(ids, 0, 2 * n);
+                buf.position(n * recordSize);
+                for(int i=0; i < n; i++) {
+                    addEdge(ids[2 * i], ids[2 * i + 1], null);
+                }
+            } else {
+                for(int i=0; i < n; i++) {
+                    int from = buf.getInt();
+                    int to = buf.getInt();
+                    buf.get(value);
+                    addBinaryEdge(from, to, value);
+                }
+            }
+            if ((numRead + n) / 2000000 > numRead / 2000000) {
+                logger.info("Reading edge: " + ((numRead + n) / 2000000 * 2000000));
+            }
+            numRead += n;
+            buf.compact();
+        }
+        if (buf.position() > 0) {
+            throw new IOException("Binary input ends with a partial edge of " + buf.position() + " bytes");
+        }
     }
 
-
     /**
      * Execute sharding by reading edges from a inputstream
      * @param inputStream
@@ -686,52 +1075,10 @@ public class FastSharder <VertexValueType, EdgeValueType> {
      * @throws IOException
      */
     public void shard(InputStream inputStream, GraphInputFormat format) throws IOException {
-        BufferedReader ins = new BufferedReader(new InputStreamReader(inputStream));
-        String ln;
-        long lineNum = 0;
-
-
-        if (!format.equals(GraphInputFormat.MATRIXMARKET)) {
-            while ((ln = ins.readLine()) != null) {
-                if (ln.length() > 2 && !ln.startsWith("#")) {
-                    lineNum++;
-                    if (lineNum % 2000000 == 0) logger.info("Reading line: " + lineNum);
-
-                    String[] tok = ln.split("\t");
-                    if (tok.length == 1) tok = ln.split(" ");
-
-                    if (tok.length > 1) {
-                        if (format == GraphInputFormat.EDGELIST) {
-                        /* Edge list: <src> <dst> <value> */
-                            if (tok.length == 2) {
-                                this.addEdge(Integer.parseInt(tok[0]), Integer.parseInt(tok[1]), null);
-                            } else if (tok.length == 3) {
-                                this.addEdge(Integer.parseInt(tok[0]), Integer.parseInt(tok[1]), tok[2]);
-                            }
-                        } else if (format == GraphInputFormat.ADJACENCY) {
-                        /* Adjacency list: <vertex-id> <count> <neighbor-1> <neighbor-2> ... */
-                            int vertexId = Integer.parseInt(tok[0]);
-                            int len = Integer.parseInt(tok[1]);
-                            if (len != tok.length - 2) {
-                                if (lineNum < 10) {
-                                    throw new IllegalArgumentException("Error on line " + lineNum + "; number of edges does not match number of tokens:" +
-                                            len + " != " + tok.length);
-                                } else {
-                                    logger.warning("Error on line " + lineNum + "; number of edges does not match number of tokens:" +
-                                            len + " != " + tok.length);
-                                    break;
-                                }
-                            }
-                            for(int j=2; j < 2 + len; j++) {
-                                int dest = Integer.parseInt(tok[j]);
-                                this.addEdge(vertexId, dest, null);
-                            }
-                        } else {
-                            throw new IllegalArgumentException("Please specify graph input format");
-                        }
-                    }
-                }
-            }
+        if (format.equals(GraphInputFormat.BINARY)) {
+            readBinaryInput(inputStream);
+        } else if (!format.equals(GraphInputFormat.MATRIXMARKET)) {
+            parseInput(inputStream, format);
         } else if (format.equals(GraphInputFormat.MATRIXMARKET)) {
             /* Process matrix-market format to create a bipartite graph. */
         	MatrixMarketDataReader in = new MatrixMarketDataReader(inputStream);
@@ -751,7 +1098,7 @@ public class FastSharder <VertexValueType, EdgeValueType> {
     /**
      * Shard a graph
      * @param inputStream
-     * @param format "edgelist" or "adjlist" / "adjacency"
+     * @param format "edgelist", "adjlist" / "adjacency" or "binary"
      * @throws IOException
      */
     public void shard(InputStream inputStream, String format) throws IOException {
@@ -761,6 +1108,9 @@ public class FastSharder <VertexValueType, EdgeValueType> {
         else if (format.equals("adjlist") || format.startsWith("adjacency")) {
             shard(inputStream, GraphInputFormat.ADJACENCY);
         }
+        else if (format.equals("binary")) {
+            shard(inputStream, GraphInputFormat.BINARY);
+        }
     }
 
     /**
@@ -0,0 +1,554 @@
+package edu.cmu.graphchi.preprocessing;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.ChiLogger;
+import edu.cmu.graphchi.datablocks.BytesToValueConverter;
+import edu.cmu.graphchi.engine.VertexInterval;
+import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.shards.AdjacencyFormat;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Adds edges to and deletes edges from a graph sharded by FastSharder, without sharding
+ * it again. The changes are appended to a delta file of the shard of the edge
+ * (see ChiFilenames.getFilenameShardDelta()). On commit(), each shard whose delta has grown
+ * larger than a fraction of the shard (see setMergeRatio()) is rewritten with its delta
+ * merged in, and the degree file is updated.
+ *
+ * The engine sees only merged changes: call mergeAll() to merge all pending deltas.
+ * Merged shards and degrees are first written beside the old files. They replace the old
+ * files, and the deltas are deleted, only after a commit file listing them has been written;
+ * a merge interrupted after that point is completed when the sharder is created again.
+ * Vertex ids must be within the vertex id range of the sharded graph. Deleting an edge
+ * deletes all of its copies. The sharder is not thread-safe, and must not be used while
+ * an engine is running on the graph.
+ *
+ * Usage:
+ * <code>
+ *     IncrementalSharder updater = new IncrementalSharder(graphName, numShards, edgeProcessor, edgeValueConverter);
+ *     updater.addEdge(from, to, valueToken);
+ *     updater.deleteEdge(from, to);
+ *     updater.commit();
+ * </code>
+ */
+public class IncrementalSharder<EdgeValueType> {
+
+    private static final byte DELETE = 0;
+    private static final byte ADD = 1;
+    private static final String MERGE_SUFFIX = ".merging";
+    private static final String COMMIT_SUFFIX = ".mergecommit";
+
+    private final String baseFilename;
+    private final int numShards;
+    private final EdgeProcessor<EdgeValueType> edgeProcessor;
+    private final BytesToValueConverter<EdgeValueType> edgeValueConverter;
+    private final int sizeOf;
+    private final VertexIdTranslate idTranslate;
+    private final ArrayList<VertexInterval> intervals;
+    private final int numVertices;
+    private final DataOutputStream[] deltaStreams;
+    private final byte[] valueTemplate;
+    private final byte[] noValue;
+    private double mergeRatio = 0.1;
+
+    /* Degrees of all vertices while shards are merged, (in, out) pairs */
+    private int[] degrees;
+    private int numDegreesInFile;
+    private int maxChangedVertex;
+
+    private static final Logger logger = ChiLogger.getLogger("incremental-sharder");
+
+    /**
+     * @param baseFilename graph, sharded with FastSharder
+     * @param numShards number of shards
+     * @param edgeProcessor translates value tokens to edge values, may be null
+     * @param edgeValueConverter converter of the edge values, or null if the graph has no edge data
+     * @throws IOException
+     */
+    public IncrementalSharder(String baseFilename, int numShards, EdgeProcessor<EdgeValueType> edgeProcessor,
+                              BytesToValueConverter<EdgeValueType> edgeValueConverter) throws IOException {
+        this.baseFilename = baseFilename;
+        this.numShards = numShards;
+        this.edgeProcessor = edgeProcessor;
+        this.edgeValueConverter = edgeValueConverter;
+        this.sizeOf = (edgeValueConverter != null ? edgeValueConverter.sizeOf() : 0);
+        this.idTranslate = VertexIdTranslate.fromFile(new File(ChiFilenames.getVertexTranslateDefFile(baseFilename, numShards)));
+        this.intervals = ChiFilenames.loadIntervals(baseFilename, numShards);
+        this.numVertices = ChiFilenames.numVertices(baseFilename, numShards);
+        this.deltaStreams = new DataOutputStream[numShards];
+        this.valueTemplate = new byte[sizeOf];
+        this.noValue = new byte[sizeOf];
+
+        /* Merged edge data blocks are written with the codec of the graph */
+        CompressedIO.setCodecFromMetadata(FastSharder.readMetadata(baseFilename, numShards));
+
+        File commitFile = new File(baseFilename + COMMIT_SUFFIX);
+        if (commitFile.exists()) {
+            logger.info("Completing an interrupted merge");
+            installMerged(readCommitFile(commitFile));
+        }
+    }
+
+    /**
+     * A shard is merged on commit() when its delta file is larger than this fraction of
+     * the shard files. Smaller ratios merge more often, keeping fewer changes pending.
+     * Default 0.1.
+     * @param mergeRatio
+     */
+    public void setMergeRatio(double mergeRatio) {
+        this.mergeRatio = mergeRatio;
+    }
+
+    /**
+     * Adds an edge. As in FastSharder, edges from a vertex to itself are ignored.
+     * @param from original id of the source
+     * @param to original id of the destination
+     * @param edgeValueToken passed to the edge processor, may be null
+     * @throws IOException
+     */
+    public void addEdge(int from, int to, String edgeValueToken) throws IOException {
+        if (from == to) return;
+        EdgeValueType value = (edgeProcessor != null ? edgeProcessor.receiveEdge(from, to, edgeValueToken) : null);
+        if (edgeValueConverter != null) {
+            edgeValueConverter.setValue(valueTemplate, value);
+        }
+        addChange(translate(from), translate(to), ADD, valueTemplate);
+    }
+
+    /**
+     * Deletes all edges from a vertex to another, including edges added earlier in
+     * the same batch.
+     * @param from original id of the source
+     * @param to original id of the destination
+     * @throws IOException
+     */
+    public void deleteEdge(int from, int to) throws IOException {
+        if (from == to) return;
+        addChange(translate(from), translate(to), DELETE, noValue);
+    }
+
+    /**
+     * Adds an edge between internal vertex ids (see VertexIdTranslate), for example an edge
+     * added while the engine is running.
+     * @param src internal id of the source
+     * @param dst internal id of the destination
+     * @param value the edge value as bytes of the edge value converter
+     * @throws IOException
+     */
+    public void addInternalEdge(int src, int dst, byte[] value) throws IOException {
+        if (src < 0 || src >= numVertices || dst < 0 || dst >= numVertices) {
+            throw new IllegalArgumentException("Edge " + src + " -> " + dst + " is outside the vertex id range of the graph");
+        }
+        if (src == dst) return;
+        addChange(src, dst, ADD, (value != null ? value : noValue));
+    }
+
+    private void addChange(int src, int dst, byte op, byte[] value) throws IOException {
+        int shard = shardOf(dst);
+        DataOutputStream strm = deltaStreams[shard];
+        if (strm == null) {
+            strm = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(ChiFilenames.getFilenameShardDelta(baseFilename, shard, numShards), true)));
+            deltaStreams[shard] = strm;
+        }
+        strm.writeLong(FastSharder.packEdges(src, dst));
+        strm.writeByte(op);
+        strm.write(value);
+    }
+
+    private int translate(int origId) {
+        int id = idTranslate.forward(origId);
+        if (origId < 0 || id < 0 || id >= numVertices || idTranslate.backward(id) != origId) {
+            throw new IllegalArgumentException("Vertex " + origId + " is outside the vertex id range of the graph; " +
+                    "shard the graph again with FastSharder");
+        }
+        return id;
+    }
+
+    private int shardOf(int vertexId) {
+        for(int p=0; p < intervals.size(); p++) {
+            if (vertexId <= intervals.get(p).getLastVertex()) return p;
+        }
+        throw new IllegalStateException("Vertex " + vertexId + " is not in any interval");
+    }
+
+    /**
+     * Writes the changes to the delta files, and merges the deltas that have grown larger
+     * than the merge ratio.
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        commit(false);
+    }
+
+    /**
+     * Writes the changes to the delta files, and merges all of them.
+     * @throws IOException
+     */
+    public void mergeAll() throws IOException {
+        commit(true);
+    }
+
+    private void commit(boolean mergeAll) throws IOException {
+        ArrayList<Integer> merged = prepareMerge(mergeAll);
+        if (!merged.isEmpty()) {
+            installMerged(merged);
+        }
+    }
+
+    /**
+     * Writes the merged shards and degrees beside the old files, and then the commit file.
+     * @return the merged shards
+     */
+    ArrayList<Integer> prepareMerge(boolean mergeAll) throws IOException {
+        for(int p=0; p < numShards; p++) {
+            if (deltaStreams[p] != null) {
+                deltaStreams[p].close();
+                deltaStreams[p] = null;
+            }
+        }
+
+        ArrayList<Integer> merged = new ArrayList<Integer>();
+        for(int p=0; p < numShards; p++) {
+            File deltaFile = new File(ChiFilenames.getFilenameShardDelta(baseFilename, p, numShards));
+            if (!deltaFile.exists() || deltaFile.length() == 0) continue;
+            if (mergeAll || deltaFile.length() > mergeRatio * shardSize(p)) {
+                if (degrees == null) loadDegrees();
+                merge(p, deltaFile);
+                merged.add(p);
+            }
+        }
+        if (!merged.isEmpty()) {
+            writeDegrees();
+            degrees = null;
+
+            String commitFilename = baseFilename + COMMIT_SUFFIX;
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(commitFilename + MERGE_SUFFIX));
+            try {
+                out.writeInt(merged.size());
+                for(int p : merged) out.writeInt(p);
+            } finally {
+                out.close();
+            }
+            replace(commitFilename + MERGE_SUFFIX, commitFilename);
+        }
+        return merged;
+    }
+
+    private static ArrayList<Integer> readCommitFile(File commitFile) throws IOException {
+        ArrayList<Integer> shards = new ArrayList<Integer>();
+        DataInputStream in = new DataInputStream(new FileInputStream(commitFile));
+        try {
+            int n = in.readInt();
+            for(int i=0; i < n; i++) shards.add(in.readInt());
+        } finally {
+            in.close();
+        }
+        return shards;
+    }
+
+    /**
+     * Replaces the shards and degrees with the merged ones, and deletes the merged deltas and
+     * the commit file. Files already replaced are skipped, so an interrupted call can be repeated.
+     */
+    private void installMerged(ArrayList<Integer> shards) throws IOException {
+        for(int p : shards) {
+            String adjFilename = ChiFilenames.getFilenameShardsAdj(baseFilename, p, numShards);
+            replaceIfExists(adjFilename + MERGE_SUFFIX, adjFilename);
+            replaceIfExists(adjFilename + MERGE_SUFFIX + ".index", adjFilename + ".index");
+            replaceIfExists(adjFilename + MERGE_SUFFIX + ".format", adjFilename + ".format");
+            if (sizeOf > 0) {
+                String edataFilename = ChiFilenames.getFilenameShardEdata(baseFilename, edgeValueConverter, p, numShards);
+                int blockSize = ChiFilenames.getBlocksize(sizeOf);
+                File mergedBlockDir = new File(ChiFilenames.getDirnameShardEdataBlock(edataFilename + MERGE_SUFFIX, blockSize));
+                if (mergedBlockDir.exists()) {
+                    File blockDir = new File(ChiFilenames.getDirnameShardEdataBlock(edataFilename, blockSize));
+                    deleteDirectory(blockDir);
+                    replace(mergedBlockDir.getPath(), blockDir.getPath());
+                }
+                replaceIfExists(edataFilename + MERGE_SUFFIX + ".size", edataFilename + ".size");
+            }
+        }
+        for(boolean sparse : new boolean[] {false, true}) {
+            String degreeFilename = ChiFilenames.getFilenameOfDegreeData(baseFilename, sparse);
+            replaceIfExists(degreeFilename + MERGE_SUFFIX, degreeFilename);
+        }
+        /* The deltas go last: until then, the commit file is needed to finish the merge */
+        for(int p : shards) {
+            new File(ChiFilenames.getFilenameShardDelta(baseFilename, p, numShards)).delete();
+        }
+        new File(baseFilename + COMMIT_SUFFIX).delete();
+    }
+
+    /**
+     * @return number of bytes of changes to a shard waiting to be merged
+     */
+    public long pendingDeltaSize(int shard) {
+        return new File(ChiFilenames.getFilenameShardDelta(baseFilename, shard, numShards)).length();
+    }
+
+    private long shardSize(int p) throws IOException {
+        long size = new File(ChiFilenames.getFilenameShardsAdj(baseFilename, p, numShards)).length();
+        if (sizeOf > 0) {
+            size += ChiFilenames.getShardEdataSize(ChiFilenames.getFilenameShardEdata(baseFilename, edgeValueConverter, p, numShards));
+        }
+        return size;
+    }
+
+    /**
+     * Writes a shard with the changes of its delta file beside the old shard. The changes are sorted
+     * by edge, keeping the order of changes to the same edge, and merged with the sorted edges of the shard.
+     */
+    private void merge(int p, File deltaFile) throws IOException {
+        int changeSize = 1 + sizeOf;
+        long numChanges = deltaFile.length() / (8 + changeSize);
+        if (numChanges * changeSize > Integer.MAX_VALUE) {
+            throw new IOException("Delta of shard " + p + " has too many changes to merge: " + numChanges);
+        }
+        int n = (int) numChanges;
+        long[] keys = new long[n];
+        byte[] changes = new byte[n * changeSize];
+        DataInputStream deltaIn = new DataInputStream(new BufferedInputStream(new FileInputStream(deltaFile)));
+        try {
+            for(int i=0; i < n; i++) {
+                keys[i] = deltaIn.readLong();
+                deltaIn.readFully(changes, i * changeSize, changeSize);
+            }
+        } finally {
+            deltaIn.close();
+        }
+        FastSharder.sortWithValues(keys, changes, changeSize);
+
+        String adjFilename = ChiFilenames.getFilenameShardsAdj(baseFilename, p, numShards);
+        String edataFilename = (sizeOf > 0 ? ChiFilenames.getFilenameShardEdata(baseFilename, edgeValueConverter, p, numShards) : null);
+        AdjacencyFormat adjacencyFormat = AdjacencyFormat.forShard(adjFilename);
+        int blockSize = (sizeOf > 0 ? ChiFilenames.getBlocksize(sizeOf) : 0);
+        if (sizeOf > 0) {
+            /* Blocks left by an interrupted merge */
+            deleteDirectory(new File(ChiFilenames.getDirnameShardEdataBlock(edataFilename + MERGE_SUFFIX, blockSize)));
+        }
+
+        ShardReader reader = new ShardReader(adjFilename, edataFilename, adjacencyFormat);
+        ShardWriter writer = new ShardWriter(adjFilename + MERGE_SUFFIX,
+                (edataFilename != null ? edataFilename + MERGE_SUFFIX : null), sizeOf, adjacencyFormat, null);
+
+        byte[] values = new byte[16 * sizeOf];
+        boolean hasOld = reader.next();
+        int d = 0;
+        try {
+            while (hasOld || d < n) {
+                long edge = (!hasOld ? keys[d] : (d < n ? Math.min(keys[d], reader.edge) : reader.edge));
+
+                /* Copies of the edge in the shard, then the changes in the order they were made */
+                int count = 0;
+                while (hasOld && reader.edge == edge) {
+                    if ((count + 1) * sizeOf > values.length) values = Arrays.copyOf(values, values.length * 2);
+                    System.arraycopy(reader.value, 0, values, count * sizeOf, sizeOf);
+                    count++;
+                    hasOld = reader.next();
+                }
+                int oldCount = count;
+                for(; d < n && keys[d] == edge; d++) {
+                    if (changes[d * changeSize] == DELETE) {
+                        count = 0;
+                    } else {
+                        if ((count + 1) * sizeOf > values.length) values = Arrays.copyOf(values, values.length * 2);
+                        System.arraycopy(changes, d * changeSize + 1, values, count * sizeOf, sizeOf);
+                        count++;
+                    }
+                }
+
+                for(int i=0; i < count; i++) {
+                    writer.add(edge, values, i * sizeOf);
+                }
+                if (count != oldCount) {
+                    changeDegree(FastSharder.getSecond(edge), 0, count - oldCount);
+                    changeDegree(FastSharder.getFirst(edge), 1, count - oldCount);
+                }
+            }
+        } finally {
+            reader.close();
+            writer.close();
+        }
+
+        logger.info("Merged " + n + " changes to shard " + p + ", now " + writer.getNumWritten() + " edges");
+    }
+
+    private void changeDegree(int vertexId, int inOrOut, int change) {
+        degrees[vertexId * 2 + inOrOut] += change;
+        if (vertexId > maxChangedVertex) maxChangedVertex = vertexId;
+    }
+
+    private static void replace(String from, String to) throws IOException {
+        File src = new File(from);
+        File dst = new File(to);
+        if (!src.renameTo(dst)) {
+            /* Some platforms do not rename over an existing file */
+            dst.delete();
+            if (!src.renameTo(dst)) throw new IOException("Could not rename " + src + " to " + dst);
+        }
+    }
+
+    private static void replaceIfExists(String from, String to) throws IOException {
+        if (new File(from).exists()) replace(from, to);
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for(File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Reads the degree file of the graph (dense or sparse, see DegreeData) into memory.
+     */
+    private void loadDegrees() throws IOException {
+        degrees = new int[numVertices * 2];
+        maxChangedVertex = -1;
+        File sparseFile = new File(ChiFilenames.getFilenameOfDegreeData(baseFilename, true));
+        File degreeFile = (sparseFile.exists() ? sparseFile : new File(ChiFilenames.getFilenameOfDegreeData(baseFilename, false)));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(degreeFile)));
+        try {
+            if (sparseFile.exists()) {
+                long numEntries = degreeFile.length() / 12;
+                for(long i=0; i < numEntries; i++) {
+                    int vertexId = Integer.reverseBytes(in.readInt());
+                    degrees[vertexId * 2] = Integer.reverseBytes(in.readInt());
+                    degrees[vertexId * 2 + 1] = Integer.reverseBytes(in.readInt());
+                }
+                numDegreesInFile = -1;
+            } else {
+                numDegreesInFile = (int) (degreeFile.length() / 8);
+                int n = Math.min(numDegreesInFile, numVertices);
+                for(int i=0; i < n * 2; i++) {
+                    degrees[i] = Integer.reverseBytes(in.readInt());
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeDegrees() throws IOException {
+        boolean sparse = (numDegreesInFile < 0);
+        String degreeFilename = ChiFilenames.getFilenameOfDegreeData(baseFilename, sparse);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(degreeFilename + MERGE_SUFFIX)));
+        try {
+            if (sparse) {
+                for(int i=0; i < numVertices; i++) {
+                    if (degrees[i * 2] + degrees[i * 2 + 1] > 0) {
+                        out.writeInt(Integer.reverseBytes(i));
+                        out.writeInt(Integer.reverseBytes(degrees[i * 2]));
+                        out.writeInt(Integer.reverseBytes(degrees[i * 2 + 1]));
+                    }
+                }
+            } else {
+                /* Keep the length of the file, unless vertices after its end got edges */
+                int n = Math.max(numDegreesInFile, maxChangedVertex + 1);
+                for(int i=0; i < n; i++) {
+                    out.writeInt(Integer.reverseBytes(i < numVertices ? degrees[i * 2] : 0));
+                    out.writeInt(Integer.reverseBytes(i < numVertices ? degrees[i * 2 + 1] : 0));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the edges of a shard in sorted order, with their values.
+     */
+    private class ShardReader {
+        private final DataInputStream adjIn;
+        private final AdjacencyFormat.Decoder decoder;
+        private int nextVertex = 0;
+        private int src;
+        private int[] targets;
+        private int numTargets = 0;
+        private int targetIdx = 0;
+
+        private final String edataFilename;
+        private int blockSize;
+        private byte[] block;
+        private int blockIdx = 0;
+        private int blockPos = 0;
+        private int blockLen = 0;
+        private long edataLeft;
+
+        long edge;
+        final byte[] value = new byte[sizeOf];
+
+        ShardReader(String adjFilename, String edataFilename, AdjacencyFormat adjacencyFormat) throws IOException {
+            this.adjIn = new DataInputStream(new BufferedInputStream(new FileInputStream(adjFilename), 1024 * 1024));
+            this.decoder = adjacencyFormat.newDecoder();
+            this.edataFilename = edataFilename;
+            if (sizeOf > 0) {
+                blockSize = ChiFilenames.getBlocksize(sizeOf);
+                block = new byte[blockSize];
+                edataLeft = ChiFilenames.getShardEdataSize(edataFilename);
+            }
+        }
+
+        /**
+         * Moves to the next edge.
+         * @return false if there are no more edges
+         */
+        boolean next() throws IOException {
+            while (targetIdx == numTargets) {
+                int ns = adjIn.read();
+                if (ns < 0) return false;
+                if (ns == 0) {
+                    /* Run of vertices without edges */
+                    nextVertex += 1 + adjIn.readUnsignedByte();
+                    continue;
+                }
+                numTargets = (ns == 0xff ? Integer.reverseBytes(adjIn.readInt()) : ns);
+                decoder.read(adjIn, numTargets);
+                targets = decoder.targets();
+                targetIdx = 0;
+                src = nextVertex++;
+            }
+            edge = FastSharder.packEdges(src, targets[targetIdx++]);
+
+            if (sizeOf > 0) {
+                if (blockPos == blockLen) {
+                    blockLen = (int) Math.min(blockSize, edataLeft);
+                    CompressedIO.readCompressed(new File(ChiFilenames.getFilenameShardEdataBlock(edataFilename, blockIdx, blockSize)),
+                            block, blockLen);
+                    edataLeft -= blockLen;
+                    blockIdx++;
+                    blockPos = 0;
+                }
+                System.arraycopy(block, blockPos, value, 0, sizeOf);
+                blockPos += sizeOf;
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            adjIn.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package edu.cmu.graphchi.preprocessing;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.shards.AdjacencyFormat;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Writes the sorted edges of a shard: the adjacency shard with its index, and the edge data
+ * split into blocks. Optionally counts the out-degrees.
+ */
+class ShardWriter {
+    private static final int EDGES_PER_INDEX_ENTRY = 4096; // Tuned for fast shard queries
+
+    private final int sizeOf;
+    private final AdjacencyFormat adjacencyFormat;
+    private final File adjFile;
+    private final DataOutputStream adjOut;
+    private final DataOutputStream indexOut;
+    private int curvid = 0;
+    private int count = 0;
+    private int edgeCounter = 0;
+    private int lastIndexFlush = 0;
+    private long numWritten = 0;
+    private int[] targets = new int[256];
+
+    private String edataFileName;
+    private int blockSize;
+    private byte[] block;
+    private int blockFill = 0;
+    private int blockIdx = 0;
+
+    /* (vertex, out-degree) pairs not yet added to outDegrees */
+    private final int[] outDegrees;
+    private int[] degreeBuf = new int[8192];
+    private int degreeBufLen = 0;
+
+    /**
+     * @param adjFilename adjacency shard file
+     * @param edataFilename edge data file name (see ChiFilenames.getFilenameShardEdata()), or null if sizeOf is zero
+     * @param sizeOf size of an edge value
+     * @param adjacencyFormat encoding of the adjacency shard
+     * @param outDegrees array where the out-degrees are added, shared by shards written concurrently; or null
+     */
+    ShardWriter(String adjFilename, String edataFilename, int sizeOf, AdjacencyFormat adjacencyFormat,
+                int[] outDegrees) throws IOException {
+        this.sizeOf = sizeOf;
+        this.adjacencyFormat = adjacencyFormat;
+        this.outDegrees = outDegrees;
+
+        /*
+         Now write the final shard in a compact form. Note that there is separate shard
+         for adjacency and the edge-data. The edge-data is split and stored into 4-megabyte compressed blocks.
+         */
+
+        /**
+         * Step 1: ADJACENCY SHARD
+         */
+        adjFile = new File(adjFilename);
+        File shardDir = adjFile.getAbsoluteFile().getParentFile();
+        if (!shardDir.exists()) shardDir.mkdirs();
+        adjOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(adjFile)));
+        File indexFile = new File(adjFile.getAbsolutePath() + ".index");
+        indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+
+        /**
+         * Step 2: EDGE DATA
+         */
+
+        /* Create compressed edge data directories */
+        if (sizeOf > 0) {
+            blockSize = ChiFilenames.getBlocksize(sizeOf);
+            block = new byte[blockSize];
+            edataFileName = edataFilename;
+            File edgeDataDir = new File(ChiFilenames.getDirnameShardEdataBlock(edataFileName, blockSize));
+            if (!edgeDataDir.exists()) edgeDataDir.mkdir();
+        }
+    }
+
+    /**
+     * Adds the next edge, in sorted order.
+     */
+    void add(long edge, byte[] values, int valueIdx) throws IOException {
+        int from = FastSharder.getFirst(edge);
+        if (from != curvid) {
+            endVertex();
+
+            // Handle zeros
+            boolean first = (numWritten == 0);
+            if (from - curvid > 1 || (first && from > 0)) {
+                int nz = (first ? from : from - curvid - 1);
+                do {
+                    adjOut.writeByte(0);
+                    nz--;
+                    int tnz = Math.min(254, nz);
+                    adjOut.writeByte(tnz);
+                    nz -= tnz;
+                } while (nz > 0);
+            }
+            curvid = from;
+        }
+
+        if (count == targets.length) targets = Arrays.copyOf(targets, count * 2);
+        targets[count++] = FastSharder.getSecond(edge);
+        numWritten++;
+
+        /* Create compressed blocks */
+        if (sizeOf > 0) {
+            System.arraycopy(values, valueIdx, block, blockFill, sizeOf);
+            blockFill += sizeOf;
+            if (blockFill == blockSize) writeBlock();
+        }
+    }
+
+    long getNumWritten() {
+        return numWritten;
+    }
+
+    private void endVertex() throws IOException {
+        /* Write index */
+        if (edgeCounter - lastIndexFlush >= EDGES_PER_INDEX_ENTRY) {
+            indexOut.writeInt(curvid);
+            indexOut.writeInt(adjOut.size());
+            indexOut.writeInt(edgeCounter);
+            lastIndexFlush = edgeCounter;
+        }
+
+        if (count > 0) {
+            if (count < 255) {
+                adjOut.writeByte(count);
+            } else {
+                adjOut.writeByte(0xff);
+                adjOut.writeInt(Integer.reverseBytes(count));
+            }
+            adjacencyFormat.writeTargets(adjOut, targets, count);
+            edgeCounter += count;
+            countOutDegree(curvid, count);
+            count = 0;
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        File blockFile = new File(ChiFilenames.getFilenameShardEdataBlock(edataFileName, blockIdx, blockSize));
+        CompressedIO.writeCompressed(blockFile, block, blockFill);
+        blockIdx++;
+        blockFill = 0;
+    }
+
+    private void countOutDegree(int vertexId, int degree) {
+        if (outDegrees == null) return;
+        if (degreeBufLen == degreeBuf.length) flushOutDegrees();
+        degreeBuf[degreeBufLen++] = vertexId;
+        degreeBuf[degreeBufLen++] = degree;
+    }
+
+    /* Shards are written concurrently, and the out-edges of a vertex are in all of them */
+    private void flushOutDegrees() {
+        synchronized (outDegrees) {
+            for(int i=0; i < degreeBufLen; i += 2) {
+                outDegrees[degreeBuf[i]] += degreeBuf[i + 1];
+            }
+        }
+        degreeBufLen = 0;
+    }
+
+    void close() throws IOException {
+        endVertex();
+        adjOut.close();
+        indexOut.close();
+        adjacencyFormat.writeFormatFile(adjFile.getAbsolutePath());
+
+        if (sizeOf > 0) {
+            if (blockFill > 0) writeBlock();
+            FileWriter sizeWr = new FileWriter(new File(edataFileName + ".size"));
+            sizeWr.write((numWritten * sizeOf) + "");
+            sizeWr.close();
+        }
+        if (outDegrees != null) flushOutDegrees();
+    }
+}
@@ -11,6 +11,8 @@ import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.engine.auxdata.DegreeData;
 import edu.cmu.graphchi.engine.auxdata.VertexDegree;
 import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import edu.cmu.graphchi.shards.AdjacencyFormat;
 import edu.cmu.graphchi.shards.ShardIndex;
 import edu.cmu.graphchi.vertexdata.VertexIdValue;
 import ucar.unidata.io.RandomAccessFile;
@@ -29,6 +31,7 @@ public class VertexQuery {
     private ExecutorService executor;
 
     public VertexQuery(String baseFilename, int numShards) throws IOException{
+        CompressedIO.setCodecFromMetadata(FastSharder.readMetadata(baseFilename, numShards));
         shards = new ArrayList<Shard>();
         for(int i=0; i<numShards; i++) {
             shards.add(new Shard(baseFilename, i, numShards));
@@ -192,6 +195,7 @@ public class VertexQuery {
 
     static class Shard {
         RandomAccessFile adjFile;
+        AdjacencyFormat.Decoder decoder;
         ShardIndex index;
         int shardNum;
         int numShards;
@@ -205,6 +209,7 @@ public class VertexQuery {
             File f = new File(ChiFilenames.getFilenameShardsAdj(fileName, shardNum, numShards));
             adjFile = new RandomAccessFile(f.getAbsolutePath(), "r", 64 * 1024);
             index = new ShardIndex(f);
+            decoder = AdjacencyFormat.forShard(f.getAbsolutePath()).newDecoder();
         }
 
         /**
@@ -262,8 +267,10 @@ public class VertexQuery {
                     }
 
                     if (curvid == vertexId) {
-                        while (--n >= 0) {
-                            int target = adjFile.readInt();
+                        decoder.read(adjFile, n);
+                        int[] targets = decoder.targets();
+                        for(int j=0; j < n; j++) {
+                            int target = targets[j];
                             Integer curCount = results.get(target);
                             if (curCount == null) {
                                 results.put(target, 1);
@@ -272,7 +279,7 @@ public class VertexQuery {
                             }
                         }
                     } else {
-                        adjFile.skipBytes(n * 4);
+                        decoder.skip(adjFile, n);
                     }
                     curvid++;
                 }
@@ -336,13 +343,14 @@ public class VertexQuery {
                         ArrayList<Integer> nbrs = new ArrayList<Integer>(n);
                         found = true;
 
-                        while (--n >= 0) {
-                            int target = adjFile.readInt();
-                            nbrs.add(target);
+                        decoder.read(adjFile, n);
+                        int[] targets = decoder.targets();
+                        for(int j=0; j < n; j++) {
+                            nbrs.add(targets[j]);
                         }
                         results.put(vertexId, nbrs);
                     } else {
-                        adjFile.skipBytes(n * 4);
+                        decoder.skip(adjFile, n);
                     }
                     curvid++;
                 }
@@ -403,8 +411,10 @@ public class VertexQuery {
                 }
 
                 if (curvid == vertexId) {
-                    while (--n >= 0) {
-                        int target = adjFile.readInt();
+                    decoder.read(adjFile, n);
+                    int[] targets = decoder.targets();
+                    for(int j=0; j < n; j++) {
+                        int target = targets[j];
 
                         int blockId = edgeOffset * conv.sizeOf() / blockSize;
                         if (blockId != curBlockId) {
@@ -421,7 +431,7 @@ public class VertexQuery {
                         edgeOffset++;
                     }
                 } else {
-                    adjFile.skipBytes(n * 4);
+                    decoder.skip(adjFile, n);
                     edgeOffset += n;
                 }
                 curvid++;
@@ -0,0 +1,256 @@
+package edu.cmu.graphchi.shards;
+
+import java.io.*;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Encoding of the out-neighbors of a vertex in the adjacency shard files.
+ * In all versions, each vertex starts with the edge count (one byte, or 0xff followed by
+ * a reversed 32-bit int), and runs of vertices without edges are a zero byte followed by
+ * the length of the run. Versions differ in how the targets are stored:
+ * <ul>
+ *     <li>Version 1 ("int32"): each target as a reversed 32-bit int.</li>
+ *     <li>Version 2 ("delta-varint"): the length of the encoded list in bytes as a varint, the first
+ *     target as a varint and the differences of consecutive (sorted) targets as varints.
+ *     Typically 2-3x smaller, and lists can be skipped without decoding them.</li>
+ * </ul>
+ * The version of a shard is stored in a file next to it (adjacency file + ".format").
+ * Shards without one are version 1.
+ */
+public abstract class AdjacencyFormat {
+
+    public static final AdjacencyFormat INT32 = new Int32Format();
+    public static final AdjacencyFormat DELTA_VARINT = new DeltaVarintFormat();
+
+    public abstract int getVersion();
+
+    public abstract String getName();
+
+    /**
+     * Writes targets[0..n), which must be sorted.
+     */
+    public abstract void writeTargets(DataOutput out, int[] targets, int n) throws IOException;
+
+    /**
+     * @return a decoder, which is not thread-safe.
+     */
+    public abstract Decoder newDecoder();
+
+    public static AdjacencyFormat byName(String name) {
+        if (INT32.getName().equals(name)) return INT32;
+        if (DELTA_VARINT.getName().equals(name)) return DELTA_VARINT;
+        throw new IllegalArgumentException("Unknown adjacency format: " + name);
+    }
+
+    /**
+     * Format used for new shards: -Dgraphchi.adjformat=int32|delta-varint, default int32.
+     */
+    public static AdjacencyFormat getDefault() {
+        String name = System.getProperty("graphchi.adjformat");
+        return (name == null ? INT32 : byName(name));
+    }
+
+    public static AdjacencyFormat forShard(String adjFilename) throws IOException {
+        File formatFile = new File(adjFilename + ".format");
+        if (!formatFile.exists()) return INT32;
+        BufferedReader rd = new BufferedReader(new FileReader(formatFile));
+        try {
+            int version = Integer.parseInt(rd.readLine().trim());
+            if (version == INT32.getVersion()) return INT32;
+            if (version == DELTA_VARINT.getVersion()) return DELTA_VARINT;
+            throw new IOException("Unsupported adjacency format version " + version + " in " + formatFile.getName());
+        } finally {
+            rd.close();
+        }
+    }
+
+    public void writeFormatFile(String adjFilename) throws IOException {
+        FileWriter wr = new FileWriter(new File(adjFilename + ".format"));
+        wr.write(getVersion() + "\n" + getName() + "\n");
+        wr.close();
+    }
+
+    /**
+     * Decodes the targets of one vertex at a time into an internal array.
+     */
+    public static abstract class Decoder {
+        protected int[] targets = new int[256];
+        protected byte[] buf = new byte[1024];
+
+        /**
+         * Reads the n targets of the next vertex, available from targets().
+         * @return number of bytes read
+         */
+        public abstract int read(DataInput in, int n) throws IOException;
+
+        /**
+         * Skips the n targets of the next vertex.
+         * @return number of bytes skipped
+         */
+        public abstract int skip(DataInput in, int n) throws IOException;
+
+        /**
+         * @return array whose first n entries are the targets read last
+         */
+        public int[] targets() {
+            return targets;
+        }
+
+        protected void ensureCapacity(int n, int nbytes) {
+            if (targets.length < n) targets = new int[Math.max(n, targets.length * 2)];
+            if (buf.length < nbytes) buf = new byte[Math.max(nbytes, buf.length * 2)];
+        }
+
+        protected static void skipFully(DataInput in, int nbytes) throws IOException {
+            while (nbytes > 0) {
+                int k = in.skipBytes(nbytes);
+                if (k <= 0) throw new EOFException();
+                nbytes -= k;
+            }
+        }
+    }
+
+    private static class Int32Format extends AdjacencyFormat {
+        public int getVersion() {
+            return 1;
+        }
+
+        public String getName() {
+            return "int32";
+        }
+
+        public void writeTargets(DataOutput out, int[] targets, int n) throws IOException {
+            for(int i=0; i < n; i++) {
+                out.writeInt(Integer.reverseBytes(targets[i]));
+            }
+        }
+
+        public Decoder newDecoder() {
+            return new Decoder() {
+                public int read(DataInput in, int n) throws IOException {
+                    int nbytes = n * 4;
+                    ensureCapacity(n, nbytes);
+                    in.readFully(buf, 0, nbytes);
+                    byte[] b = buf;
+                    int[] t = targets;
+                    for(int i=0, j=0; i < n; i++, j += 4) {
+                        t[i] = (b[j] & 0xff) | ((b[j + 1] & 0xff) << 8) | ((b[j + 2] & 0xff) << 16) | (b[j + 3] << 24);
+                    }
+                    return nbytes;
+                }
+
+                public int skip(DataInput in, int n) throws IOException {
+                    skipFully(in, n * 4);
+                    return n * 4;
+                }
+            };
+        }
+    }
+
+    private static class DeltaVarintFormat extends AdjacencyFormat {
+        public int getVersion() {
+            return 2;
+        }
+
+        public String getName() {
+            return "delta-varint";
+        }
+
+        private static int putVarint(byte[] b, int pos, int x) {
+            while ((x & ~0x7f) != 0) {
+                b[pos++] = (byte) ((x & 0x7f) | 0x80);
+                x >>>= 7;
+            }
+            b[pos++] = (byte) x;
+            return pos;
+        }
+
+        public void writeTargets(DataOutput out, int[] targets, int n) throws IOException {
+            byte[] enc = new byte[n * 5];
+            int len = 0;
+            int prev = 0;
+            for(int i=0; i < n; i++) {
+                if (i > 0 && targets[i] < prev) {
+                    throw new IllegalArgumentException("Targets must be sorted: " + targets[i] + " < " + prev);
+                }
+                len = putVarint(enc, len, targets[i] - prev);
+                prev = targets[i];
+            }
+            byte[] header = new byte[5];
+            out.write(header, 0, putVarint(header, 0, len));
+            out.write(enc, 0, len);
+        }
+
+        /**
+         * Reads the byte length of the encoded list.
+         * @return length in the low 32 bits, number of bytes used in the high bits
+         */
+        private static long readLength(DataInput in) throws IOException {
+            int x = 0;
+            int shift = 0;
+            int nread = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                nread++;
+                x |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return ((long) nread << 32) | (x & 0xffffffffL);
+        }
+
+        public Decoder newDecoder() {
+            return new Decoder() {
+                public int read(DataInput in, int n) throws IOException {
+                    long lenAndBytes = readLength(in);
+                    int len = (int) lenAndBytes;
+                    ensureCapacity(n, len);
+                    in.readFully(buf, 0, len);
+                    byte[] b = buf;
+                    int[] t = targets;
+                    int pos = 0;
+                    int prev = 0;
+                    for(int i=0; i < n; i++) {
+                        int x = b[pos++];
+                        if (x < 0) {
+                            x &= 0x7f;
+                            int shift = 7;
+                            int c;
+                            do {
+                                c = b[pos++];
+                                x |= (c & 0x7f) << shift;
+                                shift += 7;
+                            } while (c < 0);
+                        }
+                        prev += x;
+                        t[i] = prev;
+                    }
+                    if (pos != len) throw new IOException("Corrupted adjacency list: decoded " + pos + " of " + len + " bytes");
+                    return len + (int) (lenAndBytes >>> 32);
+                }
+
+                public int skip(DataInput in, int n) throws IOException {
+                    long lenAndBytes = readLength(in);
+                    int len = (int) lenAndBytes;
+                    skipFully(in, len);
+                    return len + (int) (lenAndBytes >>> 32);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package edu.cmu.graphchi.shards;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.preprocessing.IncrementalSharder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Copyright [2012] [Aapo Kyrola, Guy Blelloch, Carlos Guestrin / Carnegie Mellon University]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Edges added to a shard while the engine is running (see GraphChiEngine.addEdge()), kept
+ * in memory until they are flushed to the shard files. When a window of vertices is loaded,
+ * the buffered edges are added to its vertices after the shards, with their values copied
+ * to a block of the block manager for the duration of the window.
+ * Edges can be added concurrently with loading: a window uses only the edges that were
+ * in the buffer when its degrees were counted.
+ */
+public class EdgeBuffer {
+
+    private final int sizeOf;
+    private int[] sources = new int[1024];
+    private int[] targets = new int[1024];
+    private byte[] values;
+    private int size = 0;
+
+    /**
+     * @param sizeOf size of an edge value, zero if the edges have no values
+     */
+    public EdgeBuffer(int sizeOf) {
+        this.sizeOf = sizeOf;
+        this.values = new byte[sources.length * sizeOf];
+    }
+
+    /**
+     * Adds an edge.
+     * @param src source vertex (internal id)
+     * @param dst destination vertex (internal id)
+     * @param value sizeOf bytes of edge value
+     */
+    public synchronized void add(int src, int dst, byte[] value) {
+        if (size == sources.length) {
+            sources = Arrays.copyOf(sources, size * 2);
+            targets = Arrays.copyOf(targets, size * 2);
+            values = Arrays.copyOf(values, size * 2 * sizeOf);
+        }
+        sources[size] = src;
+        targets[size] = dst;
+        System.arraycopy(value, 0, values, size * sizeOf, sizeOf);
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Counts the in- and out-edges of the vertices first..last among the first n edges.
+     * @param inDegrees incremented by the in-edges of each vertex, indexed from first
+     * @param outDegrees incremented by the out-edges of each vertex, indexed from first
+     */
+    public synchronized void countDegrees(int n, int first, int last, int[] inDegrees, int[] outDegrees) {
+        for(int i=0; i < n; i++) {
+            int dst = targets[i];
+            if (dst >= first && dst <= last) inDegrees[dst - first]++;
+            int src = sources[i];
+            if (src >= first && src <= last) outDegrees[src - first]++;
+        }
+    }
+
+    /**
+     * @return true if an edge starts or ends in vertices first..last
+     */
+    public synchronized boolean hasEdges(int first, int last) {
+        for(int i=0; i < size; i++) {
+            if ((targets[i] >= first && targets[i] <= last) || (sources[i] >= first && sources[i] <= last)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the first n edges to the vertices first..last that are not null. Each vertex must
+     * have room for the edges counted by countDegrees(). Vertices connected by an edge are
+     * marked not parallel safe.
+     * @param blockManager manager for the block of edge values, or null if the values are not loaded
+     * @return id of the block holding the values of the edges, or -1 if none was allocated
+     */
+    public synchronized int loadVertices(int n, int first, int last, ChiVertex[] vertices, boolean loadInEdges,
+                                         boolean loadOutEdges, DataBlockManager blockManager) {
+        int blockId = -1;
+        for(int i=0; i < n; i++) {
+            int src = sources[i];
+            int dst = targets[i];
+            ChiVertex dstVertex = (dst >= first && dst <= last ? vertices[dst - first] : null);
+            ChiVertex srcVertex = (src >= first && src <= last ? vertices[src - first] : null);
+            if (dstVertex != null && srcVertex != null) {
+                /* As in MemoryShard: both endpoints access the value of the edge */
+                dstVertex.parallelSafe = false;
+                srcVertex.parallelSafe = false;
+            }
+            ChiVertex inVertex = (loadInEdges ? dstVertex : null);
+            ChiVertex outVertex = (loadOutEdges ? srcVertex : null);
+            if (inVertex == null && outVertex == null) continue;
+
+            if (blockId < 0 && blockManager != null && sizeOf > 0) {
+                blockId = blockManager.allocateBlock(n * sizeOf);
+                blockManager.copyToBlock(blockId, values, n * sizeOf);
+            }
+            if (inVertex != null) inVertex.addInEdge(blockId, i * sizeOf, src);
+            if (outVertex != null) outVertex.addOutEdge(blockId, i * sizeOf, dst);
+        }
+        return blockId;
+    }
+
+    /**
+     * Copies the values of the first n edges back from a block returned by
+     * loadVertices(), and releases the block.
+     */
+    public synchronized void commit(int n, int blockId, DataBlockManager blockManager) {
+        if (blockId < 0) return;
+        blockManager.copyFromBlock(blockId, values, n * sizeOf);
+        blockManager.release(blockId);
+    }
+
+    /**
+     * Writes the buffered edges to the delta of the shard, and empties the buffer.
+     * The sharder must be committed to merge the edges into the shard files.
+     */
+    public synchronized void flushTo(IncrementalSharder<?> sharder) throws IOException {
+        byte[] value = new byte[sizeOf];
+        for(int i=0; i < size; i++) {
+            System.arraycopy(values, i * sizeOf, value, 0, sizeOf);
+            sharder.addInternalEdge(sources[i], targets[i], value);
+        }
+        size = 0;
+    }
+}
@@ -1,6 +1,7 @@
 package edu.cmu.graphchi.shards;
 
 import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
 import edu.cmu.graphchi.ChiFilenames;
@@ -8,10 +9,14 @@ import edu.cmu.graphchi.ChiLogger;
 import edu.cmu.graphchi.ChiVertex;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.io.BlockWriteBehind;
 import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.io.MappedIO;
 import nom.tam.util.BufferedDataInputStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -60,11 +65,16 @@ public class MemoryShard <EdgeDataType> {
     private int adjDataLength;
 
     private DataBlockManager dataBlockManager;
+    private BlockWriteBehind writeBehind;
+    private boolean memoryMapped = false;
+    private ByteBuffer adjBuffer;
+    private AdjacencyFormat adjFormat;
     private BytesToValueConverter<EdgeDataType> converter;
     private int streamingOffset, streamingOffsetEdgePtr, streamingOffsetVid;
     private int blocksize = 0;
 
     private final Timer loadAdjTimer = Metrics.defaultRegistry().newTimer(MemoryShard.class, "load-adj", TimeUnit.SECONDS, TimeUnit.MINUTES);
+    private final Counter cleanBlocksSkipped = Metrics.defaultRegistry().newCounter(MemoryShard.class, "clean-blocks-skipped");
     private final Timer loadVerticesTimers = Metrics.defaultRegistry().newTimer(MemoryShard.class, "load-vertices", TimeUnit.SECONDS, TimeUnit.MINUTES);
 
     private static final Logger logger = ChiLogger.getLogger("memoryshard");
@@ -86,51 +96,55 @@ public class MemoryShard <EdgeDataType> {
         int nblocks = blockIds.length;
 
         if (!onlyAdjacency && loaded) {
+            boolean[] commit = new boolean[nblocks];
             if (modifiesInedges) {
-                if (blocksize == 0) {
-                    blocksize = ChiFilenames.getBlocksize(converter.sizeOf());
-                }
-                int startStreamBlock = rangeStartEdgePtr / blocksize;
-                for(int i=0; i < nblocks; i++) {
-                    String blockFilename = ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, i, blocksize);
-                    if (i >= startStreamBlock) {
-                        // Synchronous write
-                        CompressedIO.writeCompressed(new File(blockFilename),
-                                dataBlockManager.getRawBlock(blockIds[i]),
-                                blockSizes[i]);
-                    } else {
-                        // Asynchronous write (not implemented yet, so is same as synchronous)
-                        CompressedIO.writeCompressed(new File(blockFilename),
-                                dataBlockManager.getRawBlock(blockIds[i]),
-                                blockSizes[i]);
-                    }
-                }
-
+                for(int i=0; i < nblocks; i++) commit[i] = true;
             } else if (modifiesOutedges) {
                 int last = streamingOffsetEdgePtr;
                 if (last == 0) {
                     last = edataFilesize;
                 }
                 int startblock = (int) (rangeStartEdgePtr / blocksize);
-                int endblock = (int) (last / blocksize);
-                for(int i=startblock; i <= endblock; i++) {
-                    String blockFilename = ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, i, blocksize);
-                    CompressedIO.writeCompressed(new File(blockFilename),
-                            dataBlockManager.getRawBlock(blockIds[i]),
-                            blockSizes[i]);
-                }
+                int endblock = Math.min(nblocks - 1, last / blocksize);
+                for(int i=startblock; i <= endblock; i++) commit[i] = true;
             }
-            /* Release all blocks */
-            for(Integer blockId : blockIds) {
-                dataBlockManager.release(blockId);
+
+            /* Write (asynchronously if a write-behind pipeline is set), and release the blocks.
+               Blocks that no update modified are identical to the files and are not rewritten. */
+            for(int i=0; i < nblocks; i++) {
+                if (commit[i] && dataBlockManager.isDirty(blockIds[i])) {
+                    commitBlock(i);
+                } else {
+                    if (commit[i]) cleanBlocksSkipped.inc();
+                    dataBlockManager.release(blockIds[i]);
+                }
             }
         }
     }
 
+    private void commitBlock(int i) throws IOException {
+        File blockFile = new File(ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, i, blocksize));
+        final int blockId = blockIds[i];
+        if (memoryMapped) {
+            /* Modified in place, only forced to the disk */
+            ((MappedByteBuffer) dataBlockManager.getBufferBlock(blockId)).force();
+            dataBlockManager.release(blockId);
+        } else if (writeBehind != null) {
+            writeBehind.write(blockFile, dataBlockManager, blockId, blockSizes[i], new Runnable() {
+                public void run() {
+                    dataBlockManager.release(blockId);
+                }
+            });
+        } else {
+            CompressedIO.writeBlock(blockFile, dataBlockManager, blockId, blockSizes[i]);
+            dataBlockManager.release(blockId);
+        }
+    }
+
     public void loadVertices(final int windowStart, final int windowEnd, final ChiVertex[] vertices, final boolean disableOutEdges, final ExecutorService parallelExecutor)
             throws IOException {
         DataInput compressedInput = null;
-        if (adjData == null) {
+        if (adjData == null && adjBuffer == null) {
             compressedInput = loadAdj();
 
             if (!onlyAdjacency) loadEdata();
@@ -200,9 +214,13 @@ public class MemoryShard <EdgeDataType> {
         boolean containsRangeEnd = (vid < rangeEnd && viden > rangeEnd);
         boolean containsRangeSt = (vid <= rangeStart && viden > rangeStart);
 
-        DataInput adjInput = (compressedInput != null ? compressedInput : new DataInputStream(new ByteArrayInputStream(adjData)));
+        DataInput adjInput = compressedInput;
+        if (adjInput == null) {
+            adjInput = new DataInputStream(adjBuffer != null ? MappedIO.asInputStream(adjBuffer) : new ByteArrayInputStream(adjData));
+        }
 
         adjInput.skipBytes(adjOffset);
+        AdjacencyFormat.Decoder decoder = adjFormat.newDecoder();
 
         try {
             while(adjOffset < end) {
@@ -247,9 +265,10 @@ public class MemoryShard <EdgeDataType> {
                     vertex = vertices[vid - windowStart];
                 }
 
-                while (--n >= 0) {
-                    int target = Integer.reverseBytes(adjInput.readInt());
-                    adjOffset += 4;
+                adjOffset += decoder.read(adjInput, n);
+                int[] targets = decoder.targets();
+                for(int j=0; j < n; j++) {
+                    int target = targets[j];
                     if (!(target >= rangeStart && target <= rangeEnd))
                         throw new IllegalStateException("Target " + target + " not in range!");
                     if (vertex != null && !disableOutEdges) {
@@ -287,6 +306,17 @@ public class MemoryShard <EdgeDataType> {
 
     private DataInput loadAdj() throws FileNotFoundException, IOException {
         File compressedFile = new File(adjDataFilename + ".gz");
+        adjFormat = AdjacencyFormat.forShard(adjDataFilename);
+
+        if (memoryMapped && !compressedFile.exists()) {
+            index = new ShardIndex(new File(adjDataFilename)).sparserIndex(1204 * 1024);
+            TimerContext _timer = loadAdjTimer.time();
+            adjBuffer = MappedIO.mapReadOnly(new File(adjDataFilename));
+            adjDataLength = adjBuffer.capacity();
+            _timer.stop();
+            return null;
+        }
+
         InputStream adjStreamRaw;
         long fileSizeEstimate = 0;
         if (compressedFile.exists()) {
@@ -340,10 +370,15 @@ public class MemoryShard <EdgeDataType> {
             blockSizes = new int[nblocks];
             for(int fileBlockId=0; fileBlockId < nblocks; fileBlockId++) {
                 int fsize = Math.min(edataFilesize - blocksize * fileBlockId, blocksize);
-                blockIds[fileBlockId] = dataBlockManager.allocateBlock(fsize);
                 blockSizes[fileBlockId] = fsize;
-                String blockfilename = ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, fileBlockId, blocksize);
-                CompressedIO.readCompressed(new File(blockfilename), dataBlockManager.getRawBlock(blockIds[fileBlockId]), fsize);
+                File blockFile = new File(ChiFilenames.getFilenameShardEdataBlock(edgeDataFilename, fileBlockId, blocksize));
+                if (writeBehind != null) writeBehind.awaitFile(blockFile);
+                if (memoryMapped) {
+                    blockIds[fileBlockId] = dataBlockManager.allocateMappedBlock(MappedIO.mapReadWrite(blockFile, fsize));
+                } else {
+                    blockIds[fileBlockId] = dataBlockManager.allocateBlock(fsize);
+                    CompressedIO.readBlock(blockFile, dataBlockManager, blockIds[fileBlockId], fsize);
+                }
             }
 
             loaded = true;
@@ -358,6 +393,24 @@ public class MemoryShard <EdgeDataType> {
         this.dataBlockManager = dataBlockManager;
     }
 
+    /**
+     * Sets the pipeline used for writing the blocks in commitAndRelease(). If not set,
+     * the blocks are written synchronously.
+     * @param writeBehind
+     */
+    public void setWriteBehind(BlockWriteBehind writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Access the adjacency and edge data files through memory mappings instead of
+     * loading them to the heap. Edge values are modified in place. Requires uncompressed shards.
+     * @param memoryMapped
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
     public void setConverter(BytesToValueConverter<EdgeDataType> converter) {
         this.converter = converter;
     }
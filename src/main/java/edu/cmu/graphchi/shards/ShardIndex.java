@@ -30,12 +30,16 @@ public class ShardIndex {
         fileOffset[0] = 0;
 
         DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
-        int i = 1;
-        while (i < n) {
-            vertices[i] = dis.readInt();
-            fileOffset[i] = dis.readInt();
-            edgePointer[i] = dis.readInt();
-            i++;
+        try {
+            int i = 1;
+            while (i < n) {
+                vertices[i] = dis.readInt();
+                fileOffset[i] = dis.readInt();
+                edgePointer[i] = dis.readInt();
+                i++;
+            }
+        } finally {
+            dis.close();
         }
     }
 
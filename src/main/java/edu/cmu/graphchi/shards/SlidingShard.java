@@ -1,16 +1,25 @@
 package edu.cmu.graphchi.shards;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
 import edu.cmu.graphchi.ChiFilenames;
 import edu.cmu.graphchi.ChiLogger;
 import edu.cmu.graphchi.ChiVertex;
 import edu.cmu.graphchi.datablocks.BytesToValueConverter;
 import edu.cmu.graphchi.datablocks.ChiPointer;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.io.BlockWriteBehind;
 import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.io.MappedIO;
 import nom.tam.util.BufferedDataInputStream;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
@@ -45,6 +54,8 @@ public class SlidingShard <EdgeDataType> {
     private DataBlockManager blockManager;
 
     private ArrayList<Block> activeBlocks;
+    private ArrayList<Block> prefetchedBlocks;
+    private ArrayList<Future<?>> pendingCommits;
 
     public long edataFilesize, adjFilesize;
     private Block curBlock = null;
@@ -55,9 +66,21 @@ public class SlidingShard <EdgeDataType> {
     private int curvid = 0;
     private boolean onlyAdjacency = false;
     private boolean asyncEdataLoading = true;
+    private int prefetchDepth = 2;
+    private int maxPendingCommits = 4;
+    private ExecutorService ioExecutor = null;
+    private BlockWriteBehind writeBehind = null;
+    private boolean memoryMapped = false;
+    private boolean deferRelease = false;
+    private int windowStartOffset = 0;
+    private final Counter cleanBlocksSkipped = Metrics.defaultRegistry().newCounter(SlidingShard.class, "clean-blocks-skipped");
+    private final Counter fastForwards = Metrics.defaultRegistry().newCounter(SlidingShard.class, "fast-forwards");
+    private ShardIndex index = null;
+    private boolean indexLoaded = false;
 
     private BytesToValueConverter<EdgeDataType> converter;
     private BufferedDataInputStream adjFile;
+    private AdjacencyFormat.Decoder adjDecoder;
     private boolean modifiesOutedges = true;
     
     private static final Logger logger = ChiLogger.getLogger("slidingshard");
@@ -71,9 +94,12 @@ public class SlidingShard <EdgeDataType> {
         this.rangeEnd = rangeEnd;
 
         adjFilesize = new File(adjDataFilename).length();
+        adjDecoder = AdjacencyFormat.forShard(adjDataFilename).newDecoder();
         if (edgeDataFilename != null) {
             edataFilesize = ChiFilenames.getShardEdataSize(edgeDataFilename);
             activeBlocks = new ArrayList<Block>();
+            prefetchedBlocks = new ArrayList<Block>();
+            pendingCommits = new ArrayList<Future<?>>();
         } else {
             onlyAdjacency = true;
         }
@@ -83,7 +109,7 @@ public class SlidingShard <EdgeDataType> {
         for (Block b : activeBlocks) b.release();
     }
 
-    private void checkCurblock(int toread) {
+    private void checkCurblock(int toread) throws IOException {
         if (curBlock == null || curBlock.end < edataOffset + toread) {
             if (curBlock != null) {
                 if  (!curBlock.active) {
@@ -93,15 +119,54 @@ public class SlidingShard <EdgeDataType> {
             // Load next
             int start = (edataOffset / blockSize) * blockSize; // align
             int fileBlockId = edataOffset / blockSize;
-            curBlock = new Block(edgeDataFilename, start,
-                    (int) Math.min(start + blockSize, edataFilesize), fileBlockId, blockSize);
+            curBlock = takePrefetched(fileBlockId);
+            if (curBlock == null) {
+                curBlock = new Block(edgeDataFilename, start,
+                        (int) Math.min(start + blockSize, edataFilesize), fileBlockId, blockSize);
+            }
             curBlock.ptr = edataOffset - start; // Correction due to alignment.
             activeBlocks.add(curBlock);
 
         }
     }
 
-    private ChiPointer readEdgePtr() {
+    private Block takePrefetched(int fileBlockId) {
+        for(int i=0; i < prefetchedBlocks.size(); i++) {
+            Block b = prefetchedBlocks.get(i);
+            if (b.fileBlockId == fileBlockId) {
+                prefetchedBlocks.remove(i);
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts reading the blocks following the given block in the background, so that
+     * the disk and decompression of the next blocks overlap with the use of the current one.
+     * At most prefetchDepth blocks are read ahead.
+     */
+    private void prefetchAfter(int fileBlockId) throws IOException {
+        if (ioExecutor == null || !asyncEdataLoading) return;
+        for(int k=1; k <= prefetchDepth; k++) {
+            int nextId = fileBlockId + k;
+            long start = (long) nextId * blockSize;
+            if (start >= edataFilesize) break;
+
+            boolean exists = false;
+            for(Block b : prefetchedBlocks) {
+                if (b.fileBlockId == nextId) exists = true;
+            }
+            if (exists) continue;
+
+            Block b = new Block(edgeDataFilename, (int) start,
+                    (int) Math.min(start + blockSize, edataFilesize), nextId, blockSize);
+            b.readAsync();
+            prefetchedBlocks.add(b);
+        }
+    }
+
+    private ChiPointer readEdgePtr() throws IOException {
         assert(sizeOf >= 0);
         if (onlyAdjacency) return null;
         checkCurblock(sizeOf);
@@ -113,24 +178,53 @@ public class SlidingShard <EdgeDataType> {
 
 
     public void skip(int n) throws IOException {
-        int tot = n * 4;
-        adjOffset += tot;
-        adjFile.skipBytes(tot);
+        adjOffset += adjDecoder.skip(adjFile, n);
         edataOffset += sizeOf * n;
         if (curBlock != null) {
             curBlock.ptr += sizeOf * n;
         }
     }
 
+    /**
+     * Moves to the last indexed vertex before the given one, so that the adjacency
+     * of the vertices in between is not decoded and their edge data is not read.
+     */
+    private void fastForward(int vertexId) throws IOException {
+        if (vertexId <= curvid) return;
+        if (!indexLoaded) {
+            indexLoaded = true;
+            File adj = new File(adjDataFilename);
+            if (new File(adj.getAbsolutePath() + ".index").exists()) {
+                index = new ShardIndex(adj);
+            }
+        }
+        if (index == null) return;
+
+        ShardIndex.IndexEntry entry = index.lookup(vertexId);
+        if (entry.vertex <= curvid) return;
+        if (adjFile != null) {
+            adjFile.skipBytes(entry.fileOffset - adjOffset);
+        }
+        adjOffset = entry.fileOffset;
+        curvid = entry.vertex;
+        edataOffset = (onlyAdjacency ? 0 : entry.edgePointer * sizeOf);
+        fastForwards.inc();
+    }
+
     public void readNextVertices(ChiVertex[] vertices, int start, boolean disableWrites) throws IOException {
         int nvecs = vertices.length;
+        fastForward(start);
         curBlock = null;
-        releasePriorToOffset(false, disableWrites);
-        assert(activeBlocks.size() <= 1);
+        windowStartOffset = edataOffset;
+        if (!deferRelease) {
+            releasePriorToOffset(false, disableWrites);
+            assert(activeBlocks.size() <= 1);
+        }
 
-        /* Read next */
+        /* Read next: continue in the block containing the current offset, if any */
         if (!onlyAdjacency && !activeBlocks.isEmpty()) {
-            curBlock = activeBlocks.get(0);
+            Block last = activeBlocks.get(activeBlocks.size() - 1);
+            if (last.end > edataOffset) curBlock = last;
         }
 
         if (adjFile == null) {
@@ -181,9 +275,10 @@ public class SlidingShard <EdgeDataType> {
                     assert(vertex == null || vertex.getId() == curvid);
 
                     if (vertex != null) {
-                        while (--n >= 0) {
-                            int target = adjFile.readIntReversed();
-                            adjOffset += 4;
+                        adjOffset += adjDecoder.read(adjFile, n);
+                        int[] targets = adjDecoder.targets();
+                        for(int j=0; j < n; j++) {
+                            int target = targets[j];
                             ChiPointer eptr = readEdgePtr();
 
                             if (!onlyAdjacency) {
@@ -193,8 +288,9 @@ public class SlidingShard <EdgeDataType> {
                                     } else {
                                         curBlock.readNow();
                                     }
+                                    curBlock.active = true;
+                                    prefetchAfter(curBlock.fileBlockId);
                                 }
-                                curBlock.active = true;
                             }
                             vertex.addOutEdge(eptr == null ? -1 : eptr.blockId, eptr == null ? -1 : eptr.offset, target);
 
@@ -209,10 +305,67 @@ public class SlidingShard <EdgeDataType> {
                 curvid++;
             }
         } catch (EOFException e) {}    // kosher
+
+        /* The vertices may access the edge data only after the blocks have been read */
+        if (!onlyAdjacency) {
+            for(Block b : activeBlocks) {
+                b.waitForRead();
+            }
+        }
     }
 
+    /**
+     * Commits all blocks and waits until the pending asynchronous writes
+     * have reached the disk.
+     */
     public void flush() throws IOException {
         releasePriorToOffset(true, false);
+        waitForCommits();
+    }
+
+    private void waitForCommits() throws IOException {
+        if (onlyAdjacency) return;
+        for(Future<?> f : pendingCommits) {
+            waitFor(f);
+        }
+        pendingCommits.clear();
+    }
+
+    /**
+     * Forgets the finished commits, and waits for the oldest ones until fewer than
+     * maxPendingCommits are outstanding, so that the blocks held by the commits and the
+     * queue of the I/O executor stay bounded between flushes. Failed commits are reported here.
+     */
+    private void throttleCommits() throws IOException {
+        for(int i=pendingCommits.size() - 1; i >= 0; i--) {
+            if (pendingCommits.get(i).isDone()) waitFor(pendingCommits.remove(i));
+        }
+        while (pendingCommits.size() >= maxPendingCommits) {
+            waitFor(pendingCommits.remove(0));
+        }
+    }
+
+    int getNumPendingCommits() {
+        return (pendingCommits == null ? 0 : pendingCommits.size());
+    }
+
+    private static void waitFor(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while waiting for block I/O", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    /**
+     * Commits all blocks and closes the adjacency file. The shard must not be used afterwards.
+     */
+    public void close() throws IOException {
+        flush();
+        setOffset(0, 0, 0);
     }
 
     public void setOffset(int newoff, int _curvid, int edgeptr) {
@@ -227,14 +380,36 @@ public class SlidingShard <EdgeDataType> {
 
     public void releasePriorToOffset(boolean all, boolean disableWrites)
             throws IOException {
+        releasePriorToOffset(edataOffset, all, disableWrites);
+    }
+
+    /**
+     * With deferred release, commits the blocks that are not used by the window read
+     * last. Must be called when the updates of the previous windows have finished, and
+     * not concurrently with readNextVertices().
+     */
+    public void releaseDeferred(boolean disableWrites) throws IOException {
+        releasePriorToOffset(windowStartOffset, false, disableWrites);
+    }
+
+    private void releasePriorToOffset(int offset, boolean all, boolean disableWrites)
+            throws IOException {
         if (onlyAdjacency) return;
         for(int i=activeBlocks.size() - 1; i >= 0; i--) {
             Block b = activeBlocks.get(i);
-            if (b.end <= edataOffset || all) {
+            if (b.end <= offset || all) {
                 commit(b, all, disableWrites);
                 activeBlocks.remove(i);
             }
         }
+        /* Prefetched blocks that were skipped over were never modified */
+        for(int i=prefetchedBlocks.size() - 1; i >= 0; i--) {
+            Block b = prefetchedBlocks.get(i);
+            if (b.end <= offset || all) {
+                b.release();
+                prefetchedBlocks.remove(i);
+            }
+        }
     }
 
     public long getEdataFilesize() {
@@ -270,6 +445,11 @@ public class SlidingShard <EdgeDataType> {
 
     void commit(Block b, boolean synchronously, boolean disableWrites) throws IOException {
         disableWrites = disableWrites || !modifiesOutedges;
+        /* Unmodified blocks are identical to the file */
+        if (!disableWrites && !blockManager.isDirty(b.blockId)) {
+            cleanBlocksSkipped.inc();
+            disableWrites = true;
+        }
         if (synchronously) {
             if (!disableWrites) b.commitNow();
             b.release();
@@ -287,6 +467,61 @@ public class SlidingShard <EdgeDataType> {
         this.onlyAdjacency = onlyAdjacency;
     }
 
+    /**
+     * Sets the executor used for reading blocks ahead and for writing them
+     * back asynchronously. If null (default), all block I/O is synchronous.
+     * @param ioExecutor
+     */
+    public void setIoExecutor(ExecutorService ioExecutor) {
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Sets the write-behind pipeline shared with the memory shards. Blocks are not read
+     * before their pending writes have finished, and asynchronous commits of this shard
+     * go through the pipeline.
+     * @param writeBehind
+     */
+    public void setWriteBehind(BlockWriteBehind writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Access the edge data blocks through memory mappings: edge values are
+     * modified in place and blocks are never written explicitly. Requires uncompressed shards.
+     * @param memoryMapped
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * If set, readNextVertices() does not commit the blocks of the previous window,
+     * because its updates may still be running. They are committed by releaseDeferred().
+     * @param deferRelease
+     */
+    public void setDeferRelease(boolean deferRelease) {
+        this.deferRelease = deferRelease;
+    }
+
+    /**
+     * Number of edge data blocks to read ahead of the current block (default 2).
+     * @param prefetchDepth
+     */
+    public void setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    /**
+     * Maximum number of blocks being committed asynchronously (default 4). When the limit
+     * is reached, committing a block waits for the oldest commit.
+     * @param maxPendingCommits
+     */
+    public void setMaxPendingCommits(int maxPendingCommits) {
+        if (maxPendingCommits < 1) throw new IllegalArgumentException("At least one pending commit is needed");
+        this.maxPendingCommits = maxPendingCommits;
+    }
+
     public long getNumEdges() {
         if (converter == null) return edataFilesize / 4; // TODO: fix.
         return edataFilesize / converter.sizeOf();
@@ -297,41 +532,125 @@ public class SlidingShard <EdgeDataType> {
         int offset;
         int end;
         int blockId;
+        int fileBlockId;
         int ptr;
         boolean active = false;
+        Future<?> pendingRead = null;
 
-        Block(String edataFileName, int offset, int end, int fileBlockId, int blockSize) {
+        Block(String edataFileName, int offset, int end, int fileBlockId, int blockSize) throws IOException {
             this.end = end;
             this.offset = offset;
-            blockId = blockManager.allocateBlock(end - offset);
+            this.fileBlockId = fileBlockId;
             ptr = 0;
             blockFileName = ChiFilenames.getFilenameShardEdataBlock(edataFileName, fileBlockId, blockSize);
+            if (memoryMapped) {
+                blockId = blockManager.allocateMappedBlock(MappedIO.mapReadWrite(new File(blockFileName), end - offset));
+            } else {
+                blockId = blockManager.allocateBlock(end - offset);
+            }
         }
 
 
         void readAsync() throws IOException {
-            // TODO: actually async
-            readNow();
+            if (pendingRead != null) return; // Already being prefetched
+            if (ioExecutor == null) {
+                readNow();
+                return;
+            }
+            if (memoryMapped) {
+                /* Fault the pages in ahead of use */
+                final MappedByteBuffer buf = (MappedByteBuffer) blockManager.getBufferBlock(blockId);
+                pendingRead = ioExecutor.submit(new Callable<Object>() {
+                    public Object call() {
+                        buf.load();
+                        return null;
+                    }
+                });
+                return;
+            }
+            pendingRead = ioExecutor.submit(new Callable<Object>() {
+                public Object call() throws IOException {
+                    read();
+                    return null;
+                }
+            });
         }
 
         void readNow() throws IOException {
-            byte[] data = blockManager.getRawBlock(blockId);
-            CompressedIO.readCompressed(new File(blockFileName), data, end - offset);
+            if (pendingRead != null) {
+                waitForRead();
+                return;
+            }
+            if (memoryMapped) return;
+            read();
+        }
 
+        private void read() throws IOException {
+            File blockFile = new File(blockFileName);
+            if (writeBehind != null) writeBehind.awaitFile(blockFile);
+            CompressedIO.readBlock(blockFile, blockManager, blockId, end - offset);
+        }
+
+        void waitForRead() throws IOException {
+            if (pendingRead != null) {
+                waitFor(pendingRead);
+            }
         }
 
+        /**
+         * Writes the block to its file. Mapped blocks are modified in place, and
+         * are only forced to the disk.
+         */
         void commitNow() throws IOException {
-            byte[] data = blockManager.getRawBlock(blockId);
-            CompressedIO.writeCompressed(new File(blockFileName), data, end - offset);
+            waitForRead();
+            if (memoryMapped) {
+                ((MappedByteBuffer) blockManager.getBufferBlock(blockId)).force();
+            } else {
+                CompressedIO.writeBlock(new File(blockFileName), blockManager, blockId, end - offset);
+            }
         }
 
+        /**
+         * Write-behind: the block is written and released by the I/O executor.
+         * At most maxPendingCommits writes are outstanding; the rest are waited for in flush().
+         */
         void commitAsync() throws IOException {
-            commitNow();
-            // TODO asynchronous implementation
-            release();
+            if (ioExecutor == null && (writeBehind == null || memoryMapped)) {
+                commitNow();
+                release();
+                return;
+            }
+            waitForRead();
+            throttleCommits();
+            if (writeBehind != null && !memoryMapped) {
+                pendingCommits.add(writeBehind.write(new File(blockFileName), blockManager, blockId, end - offset, new Runnable() {
+                    public void run() {
+                        release();
+                    }
+                }));
+                return;
+            }
+            pendingCommits.add(ioExecutor.submit(new Callable<Object>() {
+                public Object call() throws IOException {
+                    try {
+                        commitNow();
+                    } finally {
+                        release();
+                    }
+                    return null;
+                }
+            }));
         }
 
         void release() {
+            /* A read must not write to the block after it has been released and reused */
+            if (pendingRead != null) {
+                try {
+                    waitForRead();
+                } catch (Exception err) {
+                    // The data is not used anymore
+                }
+            }
             blockManager.release(blockId);
         }
     }
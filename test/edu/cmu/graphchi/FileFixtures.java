@@ -0,0 +1,40 @@
+package edu.cmu.graphchi;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Temporary directories and file contents for tests that write graphs to disk.
+ */
+public class FileFixtures {
+
+    /**
+     * @return a new, empty temporary directory; delete it with delete()
+     */
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    public static byte[] readFile(String name) throws IOException {
+        File f = new File(name);
+        byte[] data = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        in.readFully(data);
+        in.close();
+        return data;
+    }
+
+    /**
+     * Deletes a file, or a directory with its contents.
+     */
+    public static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for(File c : children) delete(c);
+        f.delete();
+    }
+}
@@ -0,0 +1,32 @@
+package edu.cmu.graphchi;
+
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class TestChiFilenames {
+
+    @Test
+    public void testShardStriping() {
+        String base = new File("/data/graphs", "web.txt").getPath();
+        assertEquals(base + ".edata_java.1_4.adj", ChiFilenames.getFilenameShardsAdj(base, 1, 4));
+
+        ChiFilenames.setShardDirectories(new String[] {"/disk0", "/disk1"});
+        try {
+            assertEquals(2, ChiFilenames.getNumShardDevices());
+            assertEquals(1, ChiFilenames.getShardDevice(3));
+            assertEquals(new File("/disk0", "web.txt").getPath() + ".edata_java.2_4.adj",
+                    ChiFilenames.getFilenameShardsAdj(base, 2, 4));
+            assertEquals(new File("/disk1", "web.txt").getPath() + ".edata_java.e4B.3_4",
+                    ChiFilenames.getFilenameShardEdata(base, new FloatConverter(), 3, 4));
+            /* Graph-wide files stay next to the graph */
+            assertEquals(base + ".4.intervalsjava", ChiFilenames.getFilenameIntervals(base, 4));
+        } finally {
+            ChiFilenames.setShardDirectories(null);
+        }
+        assertEquals(1, ChiFilenames.getNumShardDevices());
+    }
+}
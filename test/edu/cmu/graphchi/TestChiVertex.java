@@ -3,6 +3,8 @@ package edu.cmu.graphchi;
 import edu.cmu.graphchi.datablocks.ChiPointer;
 import edu.cmu.graphchi.datablocks.DataBlockManager;
 import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.datablocks.IntConverter;
+import edu.cmu.graphchi.datablocks.LongConverter;
 import edu.cmu.graphchi.engine.auxdata.VertexDegree;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -43,6 +45,30 @@ public class TestChiVertex {
         assertEquals(blockMgr.dereference(vertexDataPtr, floatConv), 999.5f, 1e-15f);
     }
 
+    @Test
+    public void testPrimitiveVertexValue() {
+        DataBlockManager blockMgr = new DataBlockManager();
+        int blockId = blockMgr.allocateBlock(1024);
+        ChiVertex.blockManager = blockMgr;
+
+        ChiVertex.vertexValueConverter = new FloatConverter();
+        ChiVertex<Float, Float> vertex = new ChiVertex<Float, Float>(1, new VertexDegree(0, 0));
+        vertex.setDataPtr(new ChiPointer(blockId, 16));
+        vertex.setFloatValue(2.25f);
+        assertEquals(2.25f, vertex.getFloatValue(), 1e-15);
+        assertEquals(2.25f, vertex.getValue(), 1e-15);
+
+        ChiVertex.vertexValueConverter = new IntConverter();
+        vertex.setIntValue(-77);
+        assertEquals(-77, vertex.getIntValue());
+
+        LongConverter longConv = new LongConverter();
+        ChiVertex.vertexValueConverter = longConv;
+        vertex.setLongValue(9999999999999l);
+        assertEquals(9999999999999l, vertex.getLongValue());
+        assertEquals(9999999999999l, (long) blockMgr.dereference(new ChiPointer(blockId, 16), longConv));
+    }
+
     @Test
     public void testInEdges() {
         DataBlockManager blockMgr = new DataBlockManager();
@@ -117,4 +143,44 @@ public class TestChiVertex {
     }
 
 
+    @Test
+    public void testPrimitiveEdgeAccessors() {
+        DataBlockManager blockMgr = new DataBlockManager();
+        int blockId = blockMgr.allocateBlock(1024);
+
+        FloatConverter floatConv = new FloatConverter();
+        ChiVertex.edgeValueConverter = floatConv;
+        ChiVertex.vertexValueConverter = floatConv;
+        ChiVertex.blockManager = blockMgr;
+
+        ChiVertex<Float, Float> vertex = new ChiVertex<Float, Float>(3, new VertexDegree(10, 10));
+        for(int i=0; i < 10; i++) {
+            blockMgr.writeValue(new ChiPointer(blockId, i * 4), floatConv, i * 0.5f);
+            vertex.addInEdge(blockId, i * 4, i + 100);
+            vertex.addOutEdge(blockId, (i + 10) * 4, i + 200);
+        }
+        blockMgr.clearDirty(blockId);
+
+        for(int i=0; i < 10; i++) {
+            assertEquals(i + 100, vertex.getInEdgeId(i));
+            assertEquals(i * 0.5f, vertex.getInEdgeFloat(i), 1e-10);
+        }
+        assertFalse(blockMgr.isDirty(blockId));
+
+        for(int i=0; i < 10; i++) {
+            vertex.setOutEdgeFloat(i, i + 0.25f);
+            assertEquals(i + 0.25f, vertex.outEdge(i).getValue(), 1e-10);
+            assertEquals(i + 0.25f, vertex.getOutEdgeFloat(i), 1e-10);
+        }
+        assertTrue(blockMgr.isDirty(blockId));
+
+        IntConverter intConv = new IntConverter();
+        ChiVertex.edgeValueConverter = intConv;
+        vertex.setInEdgeInt(2, 12345);
+        assertEquals(12345, vertex.getInEdgeInt(2));
+        assertEquals(12345, (int) blockMgr.dereference(new ChiPointer(blockId, 8), intConv));
+        vertex.setOutEdgeInt(0, -7);
+        assertEquals(-7, vertex.getOutEdgeInt(0));
+    }
+
 }
@@ -0,0 +1,107 @@
+package edu.cmu.graphchi;
+
+import edu.cmu.graphchi.datablocks.ChiPointer;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.auxdata.VertexDegree;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares boxed (getValue/setValue, inEdge(i).getValue()) and primitive
+ * (getFloatValue/setFloatValue, getInEdgeFloat) access with a Pagerank-like update.
+ * Reports time and bytes allocated by the running thread.
+ * Not a unit test: run with java edu.cmu.graphchi.VertexValueAccessBenchmark [rounds]
+ */
+public class VertexValueAccessBenchmark {
+
+    static final int NVERTICES = 10000;
+    static final int DEGREE = 20;
+
+    public static void main(String[] args) {
+        int rounds = (args.length > 0 ? Integer.parseInt(args[0]) : 50);
+
+        DataBlockManager blockMgr = new DataBlockManager();
+        int edgeBlock = blockMgr.allocateBlock(NVERTICES * DEGREE * 2 * 4);
+        int vertexBlock = blockMgr.allocateBlock(NVERTICES * 4);
+        FloatConverter conv = new FloatConverter();
+        ChiVertex.blockManager = blockMgr;
+        ChiVertex.edgeValueConverter = conv;
+        ChiVertex.vertexValueConverter = conv;
+
+        ChiVertex<Float, Float>[] vertices = new ChiVertex[NVERTICES];
+        for(int v=0; v < NVERTICES; v++) {
+            ChiVertex<Float, Float> vertex = new ChiVertex<Float, Float>(v, new VertexDegree(DEGREE, DEGREE));
+            vertex.setDataPtr(new ChiPointer(vertexBlock, v * 4));
+            for(int j=0; j < DEGREE; j++) {
+                vertex.addInEdge(edgeBlock, ((v * DEGREE + j) * 4), (v + j) % NVERTICES);
+                vertex.addOutEdge(edgeBlock, ((NVERTICES + v * DEGREE + j) * 4), (v + j + 1) % NVERTICES);
+            }
+            vertices[v] = vertex;
+        }
+
+        for(int warmup=0; warmup < 2; warmup++) {
+            boxed(vertices, rounds);
+            primitive(vertices, rounds);
+        }
+        report("boxed", vertices, rounds, true);
+        report("primitive", vertices, rounds, false);
+    }
+
+    private static void report(String name, ChiVertex<Float, Float>[] vertices, int rounds, boolean boxed) {
+        long bytes0 = allocatedBytes();
+        long t0 = System.nanoTime();
+        float x = (boxed ? boxed(vertices, rounds) : primitive(vertices, rounds));
+        long t = System.nanoTime() - t0;
+        long bytes = allocatedBytes() - bytes0;
+        long nupdates = (long) rounds * vertices.length;
+        System.out.println(name + ": " + (t / nupdates) + " ns/update, " + (bytes / nupdates)
+                + " bytes allocated/update (checksum " + x + ")");
+    }
+
+    private static float boxed(ChiVertex<Float, Float>[] vertices, int rounds) {
+        float check = 0;
+        for(int r=0; r < rounds; r++) {
+            for(ChiVertex<Float, Float> vertex : vertices) {
+                float sum = 0.f;
+                for(int i=0; i < vertex.numInEdges(); i++) {
+                    sum += vertex.inEdge(i).getValue();
+                }
+                vertex.setValue(0.15f + 0.85f * sum);
+                float outValue = vertex.getValue() / vertex.numOutEdges();
+                for(int i=0; i < vertex.numOutEdges(); i++) {
+                    vertex.outEdge(i).setValue(outValue);
+                }
+                check += outValue;
+            }
+        }
+        return check;
+    }
+
+    private static float primitive(ChiVertex<Float, Float>[] vertices, int rounds) {
+        float check = 0;
+        for(int r=0; r < rounds; r++) {
+            for(ChiVertex<Float, Float> vertex : vertices) {
+                float sum = 0.f;
+                for(int i=0; i < vertex.numInEdges(); i++) {
+                    sum += vertex.getInEdgeFloat(i);
+                }
+                vertex.setFloatValue(0.15f + 0.85f * sum);
+                float outValue = vertex.getFloatValue() / vertex.numOutEdges();
+                for(int i=0; i < vertex.numOutEdges(); i++) {
+                    vertex.setOutEdgeFloat(i, outValue);
+                }
+                check += outValue;
+            }
+        }
+        return check;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,98 @@
+package edu.cmu.graphchi.datablocks;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TestDataBlockManager {
+
+    @Test
+    public void testDirtyTracking() {
+        DataBlockManager manager = new DataBlockManager();
+        FloatConverter conv = new FloatConverter();
+        int a = manager.allocateBlock(64);
+        int b = manager.allocateBlock(64);
+        assertFalse(manager.isDirty(a));
+        assertFalse(manager.isDirty(b));
+
+        manager.writeValue(new ChiPointer(b, 8), conv, 1.5f);
+        assertFalse(manager.isDirty(a));
+        assertTrue(manager.isDirty(b));
+        assertEquals(1.5f, manager.dereference(new ChiPointer(b, 8), conv), 0.0f);
+
+        manager.clearDirty(b);
+        assertFalse(manager.isDirty(b));
+        manager.markDirty(a);
+        assertTrue(manager.isDirty(a));
+
+        manager.release(a);
+        manager.release(b);
+        manager.reset();
+        int c = manager.allocateBlock(16);
+        assertFalse(manager.isDirty(c));
+    }
+
+    @Test
+    public void testMappedBlock() {
+        DataBlockManager manager = new DataBlockManager();
+        IntConverter conv = new IntConverter();
+        ByteBuffer buf = ByteBuffer.allocateDirect(32);
+        int blockId = manager.allocateMappedBlock(buf);
+        assertTrue(manager.isBufferBlock(blockId));
+
+        manager.writeValue(new ChiPointer(blockId, 12), conv, 12345);
+        assertTrue(manager.isDirty(blockId));
+        assertEquals(12345, (int) manager.dereference(new ChiPointer(blockId, 12), conv));
+        assertEquals(0, buf.position());
+
+        assertFalse(manager.empty());
+        manager.release(blockId);
+        assertTrue(manager.empty());
+    }
+
+    @Test
+    public void testOffHeapBlocks() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        OffHeapDataBlockManager manager = new OffHeapDataBlockManager(pool);
+        FloatConverter conv = new FloatConverter();
+
+        int a = manager.allocateBlock(10000);
+        int h = manager.allocateHeapBlock(100);
+        assertTrue(manager.isBufferBlock(a));
+        assertFalse(manager.isBufferBlock(h));
+
+        manager.writeValue(new ChiPointer(a, 40), conv, 2.5f);
+        manager.setFloat(a, 9996, conv, -1.0f);
+        assertEquals(2.5f, manager.getFloat(a, 40, conv), 1e-10);
+        assertEquals(-1.0f, (float) manager.dereference(new ChiPointer(a, 9996), conv), 1e-10);
+        assertTrue(manager.isDirty(a));
+
+        byte[] data = new byte[10000];
+        for(int i=0; i < data.length; i++) data[i] = (byte) i;
+        manager.copyToBlock(a, data, data.length);
+        byte[] copy = new byte[data.length];
+        manager.copyFromBlock(a, copy, data.length);
+        assertArrayEquals(data, copy);
+
+        /* Released buffers are reused */
+        long allocated = pool.getAllocatedBytes();
+        manager.release(a);
+        manager.release(h);
+        assertTrue(manager.empty());
+        int b = manager.allocateBlock(9000);
+        assertEquals(allocated, pool.getAllocatedBytes());
+        assertEquals(9000, manager.getBufferBlock(b).limit());
+        manager.release(b);
+        assertEquals(16384, pool.getFreeBytes());
+    }
+
+    @Test
+    public void testSizeClasses() {
+        assertEquals(4096, DirectBufferPool.sizeClass(1));
+        assertEquals(4096, DirectBufferPool.sizeClass(4096));
+        assertEquals(8192, DirectBufferPool.sizeClass(4097));
+        assertEquals(1 << 20, DirectBufferPool.sizeClass(1 << 20));
+    }
+}
@@ -0,0 +1,108 @@
+package edu.cmu.graphchi.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestBitsetScheduler {
+
+    @Test
+    public void testAgainstBitSet() {
+        int n = 1000;
+        BitsetScheduler scheduler = new BitsetScheduler(n);
+        BitSet expected = new BitSet(n);
+        Random r = new Random(7);
+        for(int round=0; round < 200; round++) {
+            int a = r.nextInt(n), b = a + r.nextInt(200);
+            if (r.nextBoolean()) {
+                for(int i=0; i < 20; i++) {
+                    int v = r.nextInt(n);
+                    scheduler.addTask(v);
+                    expected.set(v);
+                }
+            } else {
+                scheduler.removeTasks(a, b);
+                expected.clear(a, Math.min(n, b + 1));
+            }
+            int to = Math.min(n - 1, b);
+            assertEquals(expected.get(a, to + 1).cardinality(), scheduler.numTasks(a, b));
+            assertEquals(expected.nextSetBit(a), scheduler.nextScheduled(a));
+            assertEquals(expected.cardinality(), scheduler.numTasks());
+        }
+        for(int i=0; i < n; i++) assertEquals(expected.get(i), scheduler.isScheduled(i));
+    }
+
+    @Test
+    public void testAllTasks() {
+        BitsetScheduler scheduler = new BitsetScheduler(130);
+        assertFalse(scheduler.hasTasks());
+        assertEquals(-1, scheduler.nextScheduled(0));
+        scheduler.addAllTasks();
+        assertTrue(scheduler.hasTasks());
+        assertEquals(130, scheduler.numTasks());
+        assertEquals(129, scheduler.nextScheduled(129));
+        assertEquals(-1, scheduler.nextScheduled(130));
+        scheduler.removeTasks(0, 127);
+        assertEquals(128, scheduler.nextScheduled(0));
+        scheduler.removeAllTasks();
+        assertEquals(0, scheduler.numTasks());
+    }
+
+    @Test
+    public void testConcurrentAdds() throws InterruptedException {
+        final int n = 64 * 100;
+        final BitsetScheduler scheduler = new BitsetScheduler(n);
+        Thread[] threads = new Thread[4];
+        for(int t=0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    /* Threads set interleaved bits of the same words */
+                    for(int v=offset; v < n; v += 4) scheduler.addTask(v);
+                }
+            };
+            threads[t].start();
+        }
+        for(Thread t : threads) t.join();
+        assertEquals(n, scheduler.numTasks());
+    }
+
+    @Test
+    public void testIntervalCounts() {
+        int n = 1000;
+        int[] ends = new int[] {99, 130, 131, 600, 999};
+        ArrayList<VertexInterval> intervals = new ArrayList<VertexInterval>();
+        for(int k=0; k < ends.length; k++) {
+            intervals.add(new VertexInterval(k == 0 ? 0 : ends[k - 1] + 1, ends[k]));
+        }
+        BitsetScheduler scheduler = new BitsetScheduler(n);
+        scheduler.addTask(5);
+        scheduler.addTask(131);
+        scheduler.setIntervals(intervals);
+        assertEquals(1, scheduler.numTasksInInterval(0));
+        assertEquals(1, scheduler.numTasksInInterval(2));
+
+        Random r = new Random(11);
+        for(int round=0; round < 300; round++) {
+            int op = r.nextInt(10);
+            if (op == 0) {
+                scheduler.addAllTasks();
+            } else if (op < 4) {
+                int a = r.nextInt(n);
+                scheduler.removeTasks(a, a + r.nextInt(300));
+            } else {
+                for(int i=0; i < 10; i++) scheduler.addTask(r.nextInt(n));
+            }
+            for(VertexInterval iv : intervals) {
+                assertEquals(scheduler.numTasks(iv.getFirstVertex(), iv.getLastVertex()),
+                        scheduler.numTasksInInterval(intervals.indexOf(iv)));
+            }
+        }
+        scheduler.removeAllTasks();
+        for(int k=0; k < ends.length; k++) assertEquals(0, scheduler.numTasksInInterval(k));
+    }
+}
@@ -0,0 +1,148 @@
+package edu.cmu.graphchi.engine;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.GraphChiContext;
+import edu.cmu.graphchi.GraphChiProgram;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.datablocks.IntConverter;
+import edu.cmu.graphchi.preprocessing.EdgeProcessor;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import edu.cmu.graphchi.preprocessing.VertexIdTranslate;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static edu.cmu.graphchi.FileFixtures.*;
+import static org.junit.Assert.*;
+
+public class TestDynamicEdges {
+
+    private static final int N = 200;
+
+    private static String shardRing(File dir) throws IOException {
+        String base = new File(dir, "ring").getAbsolutePath();
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i < N; i++) sb.append(i).append('\t').append((i + 1) % N).append("\t1\n");
+        FastSharder<Integer, Float> sharder = new FastSharder<Integer, Float>(base, 2, null, new EdgeProcessor<Float>() {
+            public Float receiveEdge(int from, int to, String token) {
+                return Float.parseFloat(token);
+            }
+        }, new IntConverter(), new FloatConverter());
+        sharder.shard(new ByteArrayInputStream(sb.toString().getBytes()), "edgelist");
+        return base;
+    }
+
+    private static GraphChiEngine<Integer, Float> newEngine(String base) throws IOException {
+        GraphChiEngine<Integer, Float> engine = new GraphChiEngine<Integer, Float>(base, 2);
+        engine.setEdataConverter(new FloatConverter());
+        engine.setVertexDataConverter(new IntConverter());
+        return engine;
+    }
+
+    /**
+     * Records the in-edges of each vertex (original ids) by iteration, and increments their values.
+     * In the first iteration, adds an edge 10 -> 150 with value 7.
+     */
+    private static class RecordInEdges implements GraphChiProgram<Integer, Float> {
+        final GraphChiEngine<Integer, Float> engine;
+        final VertexIdTranslate translate;
+        final int[][] inDegree = new int[3][N];
+        final float[][] inValueSum = new float[3][N];
+        final boolean addEdge;
+
+        RecordInEdges(GraphChiEngine<Integer, Float> engine, boolean addEdge) {
+            this.engine = engine;
+            this.translate = engine.getVertexIdTranslate();
+            this.addEdge = addEdge;
+        }
+
+        public void update(ChiVertex<Integer, Float> vertex, GraphChiContext context) {
+            int id = translate.backward(vertex.getId());
+            if (id >= N) return;
+            int iter = context.getIteration();
+            inDegree[iter][id] = vertex.numInEdges();
+            for(int i=0; i < vertex.numInEdges(); i++) {
+                float value = vertex.inEdge(i).getValue();
+                inValueSum[iter][id] += value;
+                vertex.inEdge(i).setValue(value + 1);
+            }
+            if (addEdge && iter == 0 && id == 10) {
+                engine.addEdge(vertex.getId(), translate.forward(150), 7.0f);
+            }
+        }
+
+        public void beginIteration(GraphChiContext ctx) {}
+        public void endIteration(GraphChiContext ctx) {}
+        public void beginInterval(GraphChiContext ctx, VertexInterval interval) {}
+        public void endInterval(GraphChiContext ctx, VertexInterval interval) {}
+        public void beginSubInterval(GraphChiContext ctx, VertexInterval interval) {}
+        public void endSubInterval(GraphChiContext ctx, VertexInterval interval) {}
+    }
+
+    @Test
+    public void testAddEdgeSeenAndFlushed() throws IOException {
+        File tmp = createTempDir("dynamic");
+        try {
+            String base = shardRing(tmp);
+            GraphChiEngine<Integer, Float> engine = newEngine(base);
+            engine.setEnableDynamicEdges(true);
+            long numEdges = N;
+
+            RecordInEdges program = new RecordInEdges(engine, true);
+            engine.run(program, 2);
+
+            /* The edge is buffered in the first iteration and seen in the second */
+            assertEquals(1, program.inDegree[0][150]);
+            assertEquals(2, program.inDegree[1][150]);
+            assertEquals(2.0f + 7.0f, program.inValueSum[1][150], 0.0f);
+            assertEquals(1, program.inDegree[1][151]);
+
+            /* Flushed at the end of the run, with the value written by the second iteration */
+            assertEquals(0, engine.numBufferedEdges());
+            assertEquals(numEdges + 1, engine.numEdges());
+
+            GraphChiEngine<Integer, Float> reread = newEngine(base);
+            RecordInEdges check = new RecordInEdges(reread, false);
+            reread.run(check, 1);
+            assertEquals(2, check.inDegree[0][150]);
+            assertEquals(3.0f + 8.0f, check.inValueSum[0][150], 0.0f);
+            assertEquals(1, check.inDegree[0][10]);
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    @Test
+    public void testFlushBetweenIterations() throws IOException {
+        File tmp = createTempDir("dynamic");
+        try {
+            String base = shardRing(tmp);
+            GraphChiEngine<Integer, Float> engine = newEngine(base);
+            engine.setEnableDynamicEdges(true);
+            engine.setMaxBufferedEdges(1);
+
+            RecordInEdges program = new RecordInEdges(engine, true);
+            engine.run(program, 3);
+
+            /* Merged into the shards after the first iteration, and read from them */
+            assertEquals(0, engine.numBufferedEdges());
+            assertEquals(2, program.inDegree[1][150]);
+            assertEquals(2, program.inDegree[2][150]);
+            assertEquals(3.0f + 8.0f, program.inValueSum[2][150], 0.0f);
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddEdgeRequiresDynamicMode() throws IOException {
+        File tmp = createTempDir("dynamic");
+        try {
+            newEngine(shardRing(tmp)).addEdge(0, 1, 1.0f);
+        } finally {
+            delete(tmp);
+        }
+    }
+}
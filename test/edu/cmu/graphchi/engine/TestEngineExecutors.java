@@ -0,0 +1,88 @@
+package edu.cmu.graphchi.engine;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestEngineExecutors {
+
+    @Test
+    public void testPoolsAndMetrics() throws Exception {
+        System.setProperty("graphchi.threads.io", "3");
+        EngineExecutors executors;
+        try {
+            executors = EngineExecutors.fromSystemProperties();
+        } finally {
+            System.clearProperty("graphchi.threads.io");
+        }
+        try {
+            String name = executors.getIoReadExecutor().submit(new Callable<String>() {
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }).get();
+            assertTrue(name.startsWith("graphchi-io-read-"));
+
+            Metric depth = Metrics.defaultRegistry().allMetrics().get(new MetricName(EngineExecutors.class, "queue-depth", "io-read"));
+            assertEquals(0, ((Gauge<Integer>) depth).value().intValue());
+        } finally {
+            executors.shutdown();
+        }
+        /* The task is timed after it has completed */
+        assertTrue(executors.getIoReadExecutor().awaitTermination(10, TimeUnit.SECONDS));
+        Metric busy = Metrics.defaultRegistry().allMetrics().get(new MetricName(EngineExecutors.class, "busy", "io-read"));
+        assertTrue(((Timer) busy).count() >= 1);
+    }
+
+    @Test
+    public void testDevicePools() throws Exception {
+        EngineExecutors single = new EngineExecutors(1, 1, 1, 1, 1);
+        assertSame(single.getLoadExecutor(), single.getLoadExecutor(3));
+        single.shutdown();
+
+        EngineExecutors striped = new EngineExecutors(1, 1, 1, 1, 1, 3, 1);
+        try {
+            assertNotSame(striped.getLoadExecutor(0), striped.getLoadExecutor(1));
+            assertSame(striped.getIoReadExecutor(1), striped.getIoReadExecutor(4));
+            String name = striped.getLoadExecutor(2).submit(new Callable<String>() {
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }).get();
+            assertTrue(name.startsWith("graphchi-load-dev2-"));
+        } finally {
+            striped.shutdown();
+        }
+        ExecutorService pool = striped.getIoReadExecutor(2);
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAutoLoadWithSingleLoadThread() throws Exception {
+        /* The loading task waits for a shard load in the load pool, as AutoLoaderTask does */
+        final EngineExecutors executors = new EngineExecutors(1, 1, 1, 1, 1);
+        try {
+            String name = executors.getAutoLoadExecutor().submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return executors.getLoadExecutor(0).submit(new Callable<String>() {
+                        public String call() {
+                            return Thread.currentThread().getName();
+                        }
+                    }).get(10, TimeUnit.SECONDS);
+                }
+            }).get(20, TimeUnit.SECONDS);
+            assertTrue(name.startsWith("graphchi-load-"));
+        } finally {
+            executors.shutdown();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package edu.cmu.graphchi.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestMemoryModel {
+
+    @Test
+    public void testLayoutModel() {
+        /* 64-bit JVM with compressed references */
+        LayoutMemoryModel model = new LayoutMemoryModel(4, 4, false, true, true, 4, 12);
+        /* ChiVertex 56 + ChiPointer 24 + window arrays 16 + value 4 */
+        assertEquals(100, model.vertexBytes(0, 0));
+        /* 12-byte edge slot with growth slack, and 4 bytes of edge data */
+        assertEquals(100 + 87, model.vertexBytes(2, 3));
+
+        LayoutMemoryModel adjOnly = new LayoutMemoryModel(0, 0, true, true, false, 8, 16);
+        /* Only in-edges, 4-byte slots, and the sparse index entry */
+        assertEquals(72 + 24 + 24 + 4 + 45, adjOnly.vertexBytes(10, 1000));
+    }
+
+    @Test
+    public void testFeedback() {
+        long maxHeap = 1000L * 1024 * 1024;
+        MemoryBudgetFeedback feedback = new MemoryBudgetFeedback(maxHeap);
+        long budget = maxHeap / 4;
+
+        /* Heap almost full: shrink */
+        assertTrue(feedback.adjust(budget, maxHeap * 9 / 10, true) < budget);
+        /* Plenty of heap, but only grow if the windows were limited by the budget */
+        assertEquals(budget, feedback.adjust(budget, maxHeap / 10, false));
+        assertEquals(budget + budget / 4, feedback.adjust(budget, maxHeap / 10, true));
+        /* Bounds */
+        assertEquals(maxHeap / 2, feedback.adjust(maxHeap / 2, 0, true));
+        assertEquals(maxHeap / 64, feedback.adjust(maxHeap / 64, maxHeap, true));
+
+        /* The first measurement is always new */
+        assertTrue(feedback.hasNewMeasurement());
+    }
+}
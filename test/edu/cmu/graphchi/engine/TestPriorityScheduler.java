@@ -0,0 +1,53 @@
+package edu.cmu.graphchi.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestPriorityScheduler {
+
+    @Test
+    public void testThreshold() {
+        PriorityScheduler scheduler = new PriorityScheduler(100, 1.0f);
+        scheduler.addTask(5, 0.5f);
+        assertFalse(scheduler.isScheduled(5));
+        assertFalse(scheduler.hasTasks());
+        scheduler.addTask(5, 0.6f);
+        assertTrue(scheduler.isScheduled(5));
+        assertEquals(1.1f, scheduler.getResidual(5), 1e-6);
+
+        /* Negative residuals count by their absolute value */
+        scheduler.addTask(70, -2.0f);
+        assertTrue(scheduler.isScheduled(70));
+        assertEquals(-2.0f, scheduler.getResidual(70), 1e-6);
+
+        assertEquals(1.1f, scheduler.takeResidual(5), 1e-6);
+        assertEquals(0.0f, scheduler.getResidual(5), 0.0);
+
+        scheduler.removeAllTasks();
+        assertEquals(0, scheduler.numTasks());
+        assertEquals(0.0f, scheduler.getResidual(70), 0.0);
+    }
+
+    @Test
+    public void testConcurrentAdds() throws InterruptedException {
+        final int n = 1000;
+        final PriorityScheduler scheduler = new PriorityScheduler(n, 100.0f);
+        Thread[] threads = new Thread[4];
+        for(int t=0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for(int k=0; k < 50; k++) {
+                        for(int v=0; v < n; v++) scheduler.addTask(v, 1.0f);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for(Thread t : threads) t.join();
+        for(int v=0; v < n; v++) {
+            assertEquals(200.0f, scheduler.getResidual(v), 0.0);
+        }
+        assertEquals(n, scheduler.numTasks());
+    }
+}
@@ -0,0 +1,167 @@
+package edu.cmu.graphchi.engine;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.GraphChiContext;
+import edu.cmu.graphchi.GraphChiProgram;
+import edu.cmu.graphchi.engine.auxdata.VertexDegree;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class TestUpdateExecutor {
+
+    @After
+    public void tearDown() {
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+        ChiVertex.edgeValueConverter = null;
+    }
+
+    /* With edges disabled, the degrees are the edge counts without loading edges */
+    private ChiVertex<Integer, Integer>[] createVertices(int n, int hub, int hubDegree) {
+        ChiVertex.disableInedges = true;
+        ChiVertex.disableOutedges = true;
+        ChiVertex<Integer, Integer>[] vertices = new ChiVertex[n];
+        for(int i=0; i < n; i++) {
+            if (i % 13 == 5) continue;
+            vertices[i] = new ChiVertex<Integer, Integer>(i, new VertexDegree(i == hub ? hubDegree : 2, 1));
+        }
+        return vertices;
+    }
+
+    /**
+     * Window of vertices 100..109: a chain 100->101->102->103, a triangle
+     * 105->106->107, 105->107, vertex 104 with an edge outside of the window,
+     * and inactive vertex 108 with an edge from 109.
+     */
+    private ChiVertex<Integer, Integer>[] createGraph(boolean outEdges) {
+        ChiVertex.edgeValueConverter = null;
+        ChiVertex.disableOutedges = !outEdges;
+        int[][] edges = new int[][] {{100, 101}, {101, 102}, {102, 103}, {105, 106}, {106, 107}, {105, 107}, {104, 500}, {109, 108}};
+        ChiVertex<Integer, Integer>[] vertices = new ChiVertex[10];
+        for(int i=0; i < 10; i++) {
+            if (i == 8) continue;
+            int indeg = 0, outdeg = 0;
+            for(int[] e : edges) {
+                if (e[1] == 100 + i) indeg++;
+                if (e[0] == 100 + i) outdeg++;
+            }
+            vertices[i] = new ChiVertex<Integer, Integer>(100 + i, new VertexDegree(indeg, outdeg));
+        }
+        for(int[] e : edges) {
+            ChiVertex<Integer, Integer> src = (e[0] - 100 < 10 ? vertices[e[0] - 100] : null);
+            ChiVertex<Integer, Integer> dst = (e[1] - 100 < 10 ? vertices[e[1] - 100] : null);
+            if (src != null && outEdges) src.addOutEdge(-1, -1, e[1]);
+            if (dst != null) dst.addInEdge(-1, -1, e[0]);
+            if (src != null && dst != null) {
+                src.parallelSafe = false;
+                dst.parallelSafe = false;
+            }
+        }
+        return vertices;
+    }
+
+    @Test
+    public void testHubGetsOwnChunk() {
+        ChiVertex<Integer, Integer>[] vertices = createVertices(1000, 500, 100000);
+        UpdateExecutor<Integer, Integer> executor = new UpdateExecutor<Integer, Integer>(null, 4);
+        executor.split(vertices);
+        assertEquals(1, executor.getNumColors());
+
+        boolean found = false;
+        int prev = 0;
+        for(int c=0; c < executor.getNumChunks(); c++) {
+            int end = executor.chunkEnd(c);
+            assertTrue(end > prev);
+            if (executor.vertexAt(end - 1) == 500) found = true;
+            prev = end;
+        }
+        assertTrue(found);
+        assertEquals(1000 - 77, prev);
+    }
+
+    @Test
+    public void testColors() {
+        for(boolean outEdges : new boolean[] {true, false}) {
+            ChiVertex<Integer, Integer>[] vertices = createGraph(outEdges);
+            UpdateExecutor<Integer, Integer> executor = new UpdateExecutor<Integer, Integer>(null, 4);
+            executor.split(vertices);
+            assertEquals(4, executor.getNumColors());
+
+            /* Each color is one chunk here, so chunk c is color c */
+            int[] expectedColor = new int[] {0, 1, 2, 3, 0, 0, 1, 2, -1, 0};
+            for(int c=0; c < executor.getNumChunks(); c++) {
+                for(int pos=(c == 0 ? 0 : executor.chunkEnd(c - 1)); pos < executor.chunkEnd(c); pos++) {
+                    assertEquals(c, expectedColor[executor.vertexAt(pos)]);
+                }
+            }
+            assertEquals(9, executor.chunkEnd(executor.getNumChunks() - 1));
+        }
+    }
+
+    @Test
+    public void testAllUpdated() {
+        final ChiVertex<Integer, Integer>[] vertices = createVertices(5000, 10, 50000);
+        final AtomicIntegerArray counts = new AtomicIntegerArray(vertices.length);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            UpdateExecutor<Integer, Integer> executor = new UpdateExecutor<Integer, Integer>(pool, 4);
+            long n = executor.execute(new CountingProgram(counts, null), vertices, new GraphChiContext());
+            int expected = 0;
+            for(int i=0; i < vertices.length; i++) {
+                int c = counts.get(i);
+                assertEquals(vertices[i] == null ? 0 : 1, c);
+                expected += c;
+            }
+            assertEquals(expected, n);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testNeighborsInIdOrder() {
+        ChiVertex<Integer, Integer>[] vertices = createGraph(true);
+        AtomicIntegerArray stamps = new AtomicIntegerArray(110);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            UpdateExecutor<Integer, Integer> executor = new UpdateExecutor<Integer, Integer>(pool, 4);
+            assertEquals(9, executor.execute(new CountingProgram(stamps, new AtomicInteger()), vertices, new GraphChiContext()));
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(stamps.get(100) < stamps.get(101));
+        assertTrue(stamps.get(101) < stamps.get(102));
+        assertTrue(stamps.get(102) < stamps.get(103));
+        assertTrue(stamps.get(105) < stamps.get(106));
+        assertTrue(stamps.get(106) < stamps.get(107));
+    }
+
+    /* Counts updates per vertex, or records the order of updates if clock is given */
+    private static class CountingProgram implements GraphChiProgram<Integer, Integer> {
+        private final AtomicIntegerArray counts;
+        private final AtomicInteger clock;
+
+        CountingProgram(AtomicIntegerArray counts, AtomicInteger clock) {
+            this.counts = counts;
+            this.clock = clock;
+        }
+
+        public void update(ChiVertex<Integer, Integer> vertex, GraphChiContext context) {
+            if (clock != null) counts.set(vertex.getId(), clock.incrementAndGet());
+            else counts.incrementAndGet(vertex.getId());
+        }
+        public void beginIteration(GraphChiContext ctx) {}
+        public void endIteration(GraphChiContext ctx) {}
+        public void beginInterval(GraphChiContext ctx, VertexInterval interval) {}
+        public void endInterval(GraphChiContext ctx, VertexInterval interval) {}
+        public void beginSubInterval(GraphChiContext ctx, VertexInterval interval) {}
+        public void endSubInterval(GraphChiContext ctx, VertexInterval interval) {}
+    }
+}
@@ -0,0 +1,59 @@
+package edu.cmu.graphchi.engine;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestVertexWindow {
+
+    @Test
+    public void testReuse() {
+        ChiVertex.blockManager = new DataBlockManager();
+        ChiVertex.edgeValueConverter = new FloatConverter();
+        ChiVertex.vertexValueConverter = null;
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+
+        VertexWindow<Float, Float> window = new VertexWindow<Float, Float>();
+        window.begin(100);
+        for(int j=0; j < 100; j++) {
+            if (j % 10 != 3) window.setDegree(j, j % 7, j % 5);
+        }
+        window.allocate(1000);
+        ChiVertex<Float, Float>[] vertices = window.getVertices();
+        assertEquals(100, vertices.length);
+        assertNull(vertices[3]);
+
+        /* Fill all edges, then check none of them overlap */
+        for(int j=0; j < 100; j++) {
+            ChiVertex<Float, Float> v = vertices[j];
+            if (v == null) continue;
+            assertEquals(1000 + j, v.getId());
+            assertEquals(0, v.numInEdges());
+            for(int i=0; i < j % 7; i++) v.addInEdge(0, i, j * 100 + i);
+            for(int i=0; i < j % 5; i++) v.addOutEdge(0, i, -(j * 100 + i));
+        }
+        for(int j=0; j < 100; j++) {
+            ChiVertex<Float, Float> v = vertices[j];
+            if (v == null) continue;
+            assertEquals(j % 7, v.numInEdges());
+            assertEquals(j % 5, v.numOutEdges());
+            for(int i=0; i < j % 7; i++) assertEquals(j * 100 + i, v.getInEdgeId(i));
+            for(int i=0; i < j % 5; i++) assertEquals(-(j * 100 + i), v.getOutEdgeId(i));
+        }
+
+        /* The next window reuses the vertex objects and the edge buffer */
+        ChiVertex<Float, Float> first = vertices[0];
+        int capacity = window.getEdgeBufferCapacity();
+        window.begin(50);
+        for(int j=0; j < 50; j++) window.setDegree(j, 1, 1);
+        window.allocate(5000);
+        assertTrue(first == window.getVertices()[0]);
+        assertEquals(5000, first.getId());
+        assertEquals(0, first.numInEdges());
+        assertEquals(capacity, window.getEdgeBufferCapacity());
+    }
+}
@@ -0,0 +1,74 @@
+package edu.cmu.graphchi.engine.auxdata;
+
+import edu.cmu.graphchi.ChiFilenames;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestDegreeData {
+
+    private static final int N = 5000;
+
+    private String writeDegrees(int[] in, int[] out) throws IOException {
+        File base = File.createTempFile("degreedata", ".graph");
+        base.deleteOnExit();
+        File degreeFile = new File(ChiFilenames.getFilenameOfDegreeData(base.getAbsolutePath(), false));
+        degreeFile.deleteOnExit();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(degreeFile)));
+        for(int i=0; i < in.length; i++) {
+            dos.writeInt(Integer.reverseBytes(in[i]));
+            dos.writeInt(Integer.reverseBytes(out[i]));
+        }
+        dos.close();
+        return base.getAbsolutePath();
+    }
+
+    @Test
+    public void testLoadAndSums() throws IOException {
+        Random r = new Random(1);
+        int[] in = new int[N], out = new int[N];
+        for(int i=0; i < N; i++) {
+            if (i % 5 == 0) continue;
+            in[i] = r.nextInt(100);
+            out[i] = (i == 1234 ? 100000 : r.nextInt(20));
+        }
+        DegreeData degreeData = new DegreeData(writeDegrees(in, out));
+
+        /* Overlapping windows reuse what was loaded before */
+        int[][] windows = new int[][] {{0, 999}, {500, 2999}, {2999, 4999}, {100, 200}};
+        for(int[] w : windows) {
+            degreeData.load(w[0], w[1]);
+            long inSum = 0, outSum = 0;
+            int nonZero = 0;
+            for(int v=w[0]; v <= w[1]; v++) {
+                assertEquals(in[v], degreeData.getInDegree(v));
+                assertEquals(out[v], degreeData.getOutDegree(v));
+                inSum += in[v];
+                outSum += out[v];
+                if (in[v] + out[v] > 0) nonZero++;
+            }
+            assertEquals(inSum, degreeData.getInDegreeSum(w[0], w[1]));
+            assertEquals(outSum, degreeData.getOutDegreeSum(w[0], w[1]));
+            assertEquals(nonZero, degreeData.getNonZeroCount(w[0], w[1]));
+        }
+
+        degreeData.load(1000, 4999);
+        for(boolean skipZero : new boolean[] {false, true}) {
+            for(long budget : new long[] {0, 50, 1000, 30000, 100000000}) {
+                int first = 1010;
+                int expected = first - 1;
+                double total = 0;
+                for(int v=first; v <= 4999; v++) {
+                    double c = (skipZero && in[v] + out[v] == 0 ? 0 : 40 + 1.5 * in[v] + 2.0 * out[v]);
+                    if (total + c > budget) break;
+                    total += c;
+                    expected = v;
+                }
+                assertEquals(expected, degreeData.findLastVertex(first, budget, 40, 1.5, 2.0, skipZero));
+            }
+        }
+    }
+}
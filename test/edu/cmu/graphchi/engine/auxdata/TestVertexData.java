@@ -0,0 +1,116 @@
+package edu.cmu.graphchi.engine.auxdata;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.IntConverter;
+import org.junit.Test;
+
+import java.io.*;
+
+import static edu.cmu.graphchi.FileFixtures.*;
+import static org.junit.Assert.*;
+
+public class TestVertexData {
+
+    private static final int N = 40;
+
+    /* Vertices with even ids have edges */
+    private static String writeSparseDegrees(File dir) throws IOException {
+        String base = new File(dir, "graph").getAbsolutePath();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(ChiFilenames.getFilenameOfDegreeData(base, true))));
+        for(int i=0; i < N; i += 2) {
+            dos.writeInt(Integer.reverseBytes(i));
+            dos.writeInt(Integer.reverseBytes(1));
+            dos.writeInt(Integer.reverseBytes(1));
+        }
+        dos.close();
+        return base;
+    }
+
+    private static void setValues(VertexData<Integer> data, DataBlockManager blockManager, int blockId,
+                                  int first, int last, int add) {
+        IntConverter conv = new IntConverter();
+        byte[] block = blockManager.getRawBlock(blockId);
+        byte[] value = new byte[4];
+        for(int v=first; v <= last; v++) {
+            int offset = data.getVertexValueOffset(v);
+            if (offset < 0) continue;
+            conv.setValue(value, v + add);
+            System.arraycopy(value, 0, block, offset, 4);
+        }
+    }
+
+    private static void checkValues(VertexData<Integer> data, DataBlockManager blockManager, int first, int last,
+                                    int add, boolean sparse) throws IOException {
+        IntConverter conv = new IntConverter();
+        int blockId = data.load(first, last);
+        byte[] block = blockManager.getRawBlock(blockId);
+        for(int v=first; v <= last; v++) {
+            int offset = data.getVertexValueOffset(v);
+            if (sparse && v % 2 == 1) {
+                assertEquals(-1, offset);
+                continue;
+            }
+            byte[] value = new byte[4];
+            System.arraycopy(block, offset, value, 0, 4);
+            assertEquals(v + add, conv.getValue(value).intValue());
+        }
+        data.releaseAndCommit(first, blockId);
+    }
+
+    private void testPipelined(boolean sparse) throws IOException {
+        File tmp = createTempDir("vertexdata");
+        try {
+            String base = writeSparseDegrees(tmp);
+            DataBlockManager blockManager = new DataBlockManager();
+            VertexData<Integer> data = new VertexData<Integer>(N, base, new IntConverter(), sparse);
+            data.setBlockManager(blockManager);
+            assertEquals(sparse, data.isSparse());
+
+            /* The second window is loaded before the first is committed, as when loading ahead */
+            int first = data.load(0, 19);
+            setValues(data, blockManager, first, 0, 19, 100);
+            int second = data.load(20, N - 1);
+            setValues(data, blockManager, second, 20, N - 1, 200);
+            data.releaseAndCommit(0, first);
+            data.releaseAndCommit(20, second);
+            assertTrue(blockManager.empty());
+
+            checkValues(data, blockManager, 0, 19, 100, sparse);
+            checkValues(data, blockManager, 20, N - 1, 200, sparse);
+            data.close();
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    @Test
+    public void testPipelinedDense() throws IOException {
+        testPipelined(false);
+    }
+
+    @Test
+    public void testPipelinedSparse() throws IOException {
+        testPipelined(true);
+    }
+
+    @Test
+    public void testCommitUnknownBlock() throws IOException {
+        File tmp = createTempDir("vertexdata");
+        try {
+            DataBlockManager blockManager = new DataBlockManager();
+            VertexData<Integer> data = new VertexData<Integer>(N, writeSparseDegrees(tmp), new IntConverter(), true);
+            data.setBlockManager(blockManager);
+            int blockId = data.load(0, 9);
+            data.releaseAndCommit(0, blockId);
+            try {
+                data.releaseAndCommit(0, blockId);
+                fail();
+            } catch (IllegalStateException ise) {}
+            data.close();
+        } finally {
+            delete(tmp);
+        }
+    }
+}
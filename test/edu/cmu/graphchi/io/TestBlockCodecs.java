@@ -0,0 +1,119 @@
+package edu.cmu.graphchi.io;
+
+import edu.cmu.graphchi.datablocks.DirectBufferPool;
+import edu.cmu.graphchi.datablocks.OffHeapDataBlockManager;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestBlockCodecs {
+
+    private void roundTrip(BlockCodec codec, byte[] data) throws Exception {
+        File f = File.createTempFile("codec", ".blk");
+        f.deleteOnExit();
+        codec.write(f, data, data.length);
+        byte[] buf = new byte[data.length];
+        codec.read(f, buf, data.length);
+        assertArrayEquals(codec.getName() + " " + data.length, data, buf);
+    }
+
+    @Test
+    public void testRoundTrips() throws Exception {
+        Random r = new Random(260);
+        String[] names = new String[] {"none", "deflate", "deflate-1", "lz4"};
+        int[] sizes = new int[] {0, 1, 12, 13, 17, 1000, 65536 + 100, 1 << 20};
+
+        for(String name : names) {
+            BlockCodec codec = BlockCodecs.get(name);
+            for(int size : sizes) {
+                /* Random, repetitive and partly repetitive data */
+                byte[] random = new byte[size];
+                r.nextBytes(random);
+                roundTrip(codec, random);
+
+                byte[] constant = new byte[size];
+                roundTrip(codec, constant);
+
+                byte[] floats = new byte[size];
+                for(int i=0; i < size; i++) floats[i] = (byte) ((i % 4 == 3) ? r.nextInt(4) : (i % 4) * 7);
+                roundTrip(codec, floats);
+            }
+        }
+    }
+
+    @Test
+    public void testBufferRoundTrips() throws Exception {
+        Random r = new Random(261);
+        int[] sizes = new int[] {0, 1, 1000, 65536 + 100, 1 << 20};
+        for(String name : new String[] {"none", "deflate", "deflate-1"}) {
+            BufferBlockCodec codec = (BufferBlockCodec) BlockCodecs.get(name);
+            for(int size : sizes) {
+                byte[] data = new byte[size];
+                for(int i=0; i < size; i++) data[i] = (byte) ((i % 4 == 3) ? r.nextInt(4) : (i % 4) * 7);
+                File f = File.createTempFile("codec", ".blk");
+                f.deleteOnExit();
+
+                /* Files written from buffers and from arrays are interchangeable */
+                ByteBuffer buf = ByteBuffer.allocateDirect(size + 10);
+                buf.put(data);
+                buf.position(3);
+                codec.write(f, buf, size);
+                assertEquals(3, buf.position());
+                byte[] read = new byte[size];
+                codec.read(f, read, size);
+                assertArrayEquals(name + " " + size, data, read);
+
+                ByteBuffer dst = ByteBuffer.allocateDirect(size + 10);
+                codec.read(f, dst, size);
+                assertEquals(0, dst.position());
+                for(int i=0; i < size; i++) assertEquals(data[i], dst.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testOffHeapBlocks() throws Exception {
+        BlockCodec previous = CompressedIO.getCodec();
+        try {
+            for(String name : new String[] {"none", "deflate", "lz4"}) {
+                CompressedIO.setCodec(BlockCodecs.get(name));
+                OffHeapDataBlockManager manager = new OffHeapDataBlockManager(new DirectBufferPool(1 << 20));
+                byte[] data = new byte[50000];
+                for(int i=0; i < data.length; i++) data[i] = (byte) (i % 13);
+                int a = manager.allocateBlock(data.length);
+                manager.copyToBlock(a, data, data.length);
+
+                File f = File.createTempFile("codec", ".blk");
+                f.deleteOnExit();
+                CompressedIO.writeBlock(f, manager, a, data.length);
+                int b = manager.allocateBlock(data.length);
+                CompressedIO.readBlock(f, manager, b, data.length);
+                byte[] read = new byte[data.length];
+                manager.copyFromBlock(b, read, data.length);
+                assertArrayEquals(name, data, read);
+                manager.release(a);
+                manager.release(b);
+            }
+        } finally {
+            CompressedIO.setCodec(previous);
+        }
+    }
+
+    @Test
+    public void testLZ4Compresses() {
+        byte[] data = new byte[100000];
+        for(int i=0; i < data.length; i++) data[i] = (byte) (i % 100);
+        byte[] compressed = new byte[LZ4BlockCodec.maxCompressedLength(data.length)];
+        int len = LZ4BlockCodec.compress(data, data.length, compressed);
+        assertTrue(len < data.length / 50);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCodec() {
+        BlockCodecs.get("no-such-codec");
+    }
+}
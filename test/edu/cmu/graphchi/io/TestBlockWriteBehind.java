@@ -0,0 +1,65 @@
+package edu.cmu.graphchi.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestBlockWriteBehind {
+
+    @Test
+    public void testWriteAndBarrier() throws Exception {
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+        BlockWriteBehind writeBehind = new BlockWriteBehind(writers, 3000);
+        final AtomicInteger written = new AtomicInteger(0);
+
+        File[] files = new File[8];
+        for(int i=0; i < files.length; i++) {
+            files[i] = File.createTempFile("writebehind", ".blk");
+            files[i].deleteOnExit();
+            byte[] data = new byte[1000];
+            for(int j=0; j < data.length; j++) data[j] = (byte) (i + j);
+            writeBehind.write(files[i], data, data.length, new Runnable() {
+                public void run() {
+                    written.incrementAndGet();
+                }
+            });
+            assertTrue(writeBehind.getBytesInFlight() <= 3000);
+        }
+        writeBehind.barrier();
+        assertEquals(files.length, written.get());
+        assertEquals(0, writeBehind.getBytesInFlight());
+
+        for(int i=0; i < files.length; i++) {
+            byte[] buf = new byte[1000];
+            CompressedIO.readCompressed(files[i], buf, buf.length);
+            for(int j=0; j < buf.length; j++) assertEquals((byte) (i + j), buf[j]);
+        }
+        writers.shutdown();
+    }
+
+    @Test
+    public void testSameFileWritesInOrder() throws Exception {
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        BlockWriteBehind writeBehind = new BlockWriteBehind(writers, 1 << 20);
+        File f = File.createTempFile("writebehind", ".blk");
+        f.deleteOnExit();
+
+        for(int i=0; i < 20; i++) {
+            byte[] data = new byte[5000];
+            Arrays.fill(data, (byte) i);
+            writeBehind.write(f, data, data.length, null);
+        }
+        writeBehind.awaitFile(f);
+        byte[] buf = new byte[5000];
+        CompressedIO.readCompressed(f, buf, buf.length);
+        assertEquals((byte) 19, buf[0]);
+        assertEquals((byte) 19, buf[4999]);
+        writers.shutdown();
+    }
+}
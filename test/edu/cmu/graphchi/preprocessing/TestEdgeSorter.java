@@ -0,0 +1,69 @@
+package edu.cmu.graphchi.preprocessing;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class TestEdgeSorter {
+
+    private void checkSort(EdgeSorter sorter, int n, int sizeOf, Random r, boolean negative) {
+        long[] keys = new long[n + 3];
+        byte[] values = new byte[keys.length * sizeOf];
+        long[] expected = new long[n];
+        for(int i=0; i < n; i++) {
+            /* Few distinct keys, so that there are many duplicates */
+            int from = r.nextInt(1000), to = r.nextInt(50);
+            keys[i] = FastSharder.packEdges(negative && r.nextBoolean() ? -from : from, to);
+            for(int j=0; j < sizeOf; j++) values[i * sizeOf + j] = (byte) (i >> (8 * (j % 4)));
+            expected[i] = keys[i];
+        }
+        Integer[] idx = new Integer[n];
+        for(int i=0; i < n; i++) idx[i] = i;
+        /* Stable order: by key, then by the original position */
+        final long[] k = expected;
+        Arrays.sort(idx, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                if (k[a] != k[b]) return (k[a] < k[b] ? -1 : 1);
+                return a - b;
+            }
+        });
+
+        sorter.sort(keys, n, values, sizeOf);
+        for(int i=0; i < n; i++) {
+            int orig = idx[i];
+            assertEquals(expected[orig], keys[i]);
+            for(int j=0; j < sizeOf; j++) {
+                assertEquals((byte) (orig >> (8 * (j % 4))), values[i * sizeOf + j]);
+            }
+        }
+    }
+
+    @Test
+    public void testSequential() {
+        Random r = new Random(3);
+        EdgeSorter sorter = new EdgeSorter(null, 1);
+        checkSort(sorter, 10, 4, r, false);
+        checkSort(sorter, 5000, 4, r, true);
+        checkSort(sorter, 5000, 0, r, false);
+        checkSort(sorter, 5000, 8, r, false);
+    }
+
+    @Test
+    public void testParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            EdgeSorter sorter = new EdgeSorter(executor, 4);
+            Random r = new Random(5);
+            checkSort(sorter, 300000, 4, r, false);
+            checkSort(sorter, 300000, 0, r, true);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package edu.cmu.graphchi.preprocessing;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static edu.cmu.graphchi.FileFixtures.*;
+import static org.junit.Assert.*;
+
+public class TestFastSharder {
+
+    private String shard(File dir, String graph, long memoryBudget) throws IOException {
+        return shard(dir, graph, memoryBudget, "edgelist");
+    }
+
+    private String shard(File dir, String graph, long memoryBudget, String format) throws IOException {
+        return shard(dir, graph.getBytes(), memoryBudget, format, null, 0);
+    }
+
+    private String shard(File dir, byte[] graph, long memoryBudget, String format,
+                         ByteOrder binaryOrder, int binaryValueWidth) throws IOException {
+        dir.mkdirs();
+        String base = new File(dir, "graph").getAbsolutePath();
+        FastSharder<Float, Float> sharder = new FastSharder<Float, Float>(base, 2, null, new EdgeProcessor<Float>() {
+            public Float receiveEdge(int from, int to, String token) {
+                return (float) from + to;
+            }
+        }, new FloatConverter(), new FloatConverter());
+        sharder.setMemoryBudget(memoryBudget);
+        if (binaryOrder != null) sharder.setBinaryFormat(binaryOrder, binaryValueWidth);
+        sharder.shard(new ByteArrayInputStream(graph), format);
+        return base;
+    }
+
+    @Test
+    public void testExternalSortMatchesInMemory() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Random r = new Random(9);
+        for(int i=0; i < 150000; i++) {
+            sb.append(r.nextInt(20000)).append('\t').append(r.nextInt(20000)).append('\n');
+        }
+        File tmp = createTempDir("sharder");
+        try {
+            String inMemory = shard(new File(tmp, "mem"), sb.toString(), 1L << 30);
+            /* 1 megabyte holds only a part of the edges of a shard */
+            String external = shard(new File(tmp, "ext"), sb.toString(), 1L << 20);
+
+            for(int p=0; p < 2; p++) {
+                String adj = ChiFilenames.getFilenameShardsAdj(inMemory, p, 2);
+                assertArrayEquals(readFile(adj), readFile(ChiFilenames.getFilenameShardsAdj(external, p, 2)));
+                assertArrayEquals(readFile(adj + ".index"), readFile(ChiFilenames.getFilenameShardsAdj(external, p, 2) + ".index"));
+                String edata = ChiFilenames.getFilenameShardEdata(inMemory, new FloatConverter(), p, 2);
+                int blockSize = ChiFilenames.getBlocksize(4);
+                assertArrayEquals(readFile(ChiFilenames.getFilenameShardEdataBlock(edata, 0, blockSize)),
+                        readFile(ChiFilenames.getFilenameShardEdataBlock(
+                                ChiFilenames.getFilenameShardEdata(external, new FloatConverter(), p, 2), 0, blockSize)));
+            }
+            assertArrayEquals(readFile(ChiFilenames.getFilenameOfDegreeData(inMemory, false)),
+                    readFile(ChiFilenames.getFilenameOfDegreeData(external, false)));
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    @Test
+    public void testParseInt() {
+        byte[] buf = "12 -7 +3 2147483647 -2147483648 2147483648 1x -".getBytes();
+        assertEquals(12, FastSharder.parseInt(buf, 0, 2));
+        assertEquals(-7, FastSharder.parseInt(buf, 3, 5));
+        assertEquals(3, FastSharder.parseInt(buf, 6, 8));
+        assertEquals(Integer.MAX_VALUE, FastSharder.parseInt(buf, 9, 19));
+        assertEquals(Integer.MIN_VALUE, FastSharder.parseInt(buf, 20, 31));
+        int[][] invalid = {{32, 42}, {43, 45}, {46, 47}, {0, 0}};
+        for(int[] range : invalid) {
+            try {
+                FastSharder.parseInt(buf, range[0], range[1]);
+                fail();
+            } catch (NumberFormatException nfe) {}
+        }
+    }
+
+    @Test
+    public void testAdjacencyMatchesEdgeList() throws IOException {
+        /* Vertex 0 has a line longer than a parse block */
+        StringBuilder adjacency = new StringBuilder("# comment\n");
+        StringBuilder edgeList = new StringBuilder();
+        Random r = new Random(4);
+        for(int v=0; v < 1000; v++) {
+            int n = (v == 0 ? 300000 : r.nextInt(20));
+            adjacency.append(v).append(' ').append(n);
+            for(int i=0; i < n; i++) {
+                int dst = r.nextInt(100000);
+                adjacency.append(' ').append(dst);
+                edgeList.append(v).append('\t').append(dst).append("\r\n");
+            }
+            adjacency.append('\n');
+        }
+        File tmp = createTempDir("sharder");
+        try {
+            String adj = shard(new File(tmp, "adj"), adjacency.toString(), 1L << 30, "adjlist");
+            String edges = shard(new File(tmp, "edges"), edgeList.toString(), 1L << 30, "edgelist");
+            for(int p=0; p < 2; p++) {
+                assertArrayEquals(readFile(ChiFilenames.getFilenameShardsAdj(adj, p, 2)),
+                        readFile(ChiFilenames.getFilenameShardsAdj(edges, p, 2)));
+            }
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    @Test
+    public void testBinaryMatchesEdgeList() throws IOException {
+        StringBuilder edgeList = new StringBuilder();
+        ByteBuffer binary = ByteBuffer.allocate(100000 * 12).order(ByteOrder.BIG_ENDIAN);
+        byte[] value = new byte[4];
+        Random r = new Random(6);
+        for(int i=0; i < 100000; i++) {
+            int from = r.nextInt(30000), to = r.nextInt(30000);
+            edgeList.append(from).append('\t').append(to).append('\n');
+            /* Values in the layout of the converter, as the sharder would compute them */
+            new FloatConverter().setValue(value, (float) from + to);
+            binary.putInt(from).putInt(to).put(value);
+        }
+        File tmp = createTempDir("sharder");
+        try {
+            String text = shard(new File(tmp, "text"), edgeList.toString(), 1L << 30, "edgelist");
+            String bin = shard(new File(tmp, "bin"), binary.array(), 1L << 30, "binary", ByteOrder.BIG_ENDIAN, 4);
+            int blockSize = ChiFilenames.getBlocksize(4);
+            for(int p=0; p < 2; p++) {
+                assertArrayEquals(readFile(ChiFilenames.getFilenameShardsAdj(text, p, 2)),
+                        readFile(ChiFilenames.getFilenameShardsAdj(bin, p, 2)));
+                assertArrayEquals(readFile(ChiFilenames.getFilenameShardEdataBlock(
+                                ChiFilenames.getFilenameShardEdata(text, new FloatConverter(), p, 2), 0, blockSize)),
+                        readFile(ChiFilenames.getFilenameShardEdataBlock(
+                                ChiFilenames.getFilenameShardEdata(bin, new FloatConverter(), p, 2), 0, blockSize)));
+            }
+            assertArrayEquals(readFile(ChiFilenames.getFilenameOfDegreeData(text, false)),
+                    readFile(ChiFilenames.getFilenameOfDegreeData(bin, false)));
+        } finally {
+            delete(tmp);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package edu.cmu.graphchi.preprocessing;
+
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import static edu.cmu.graphchi.FileFixtures.*;
+import static org.junit.Assert.*;
+
+public class TestIncrementalSharder {
+
+    private static final EdgeProcessor<Float> edgeProcessor = new EdgeProcessor<Float>() {
+        public Float receiveEdge(int from, int to, String token) {
+            return (token == null ? 0.0f : Float.parseFloat(token));
+        }
+    };
+
+    private static String shard(File dir, ArrayList<int[]> edges) throws IOException {
+        dir.mkdirs();
+        String base = new File(dir, "graph").getAbsolutePath();
+        StringBuilder sb = new StringBuilder();
+        for(int[] e : edges) sb.append(e[0]).append('\t').append(e[1]).append('\t').append(e[2]).append('\n');
+        FastSharder<Float, Float> sharder = new FastSharder<Float, Float>(base, 2, null, edgeProcessor,
+                new FloatConverter(), new FloatConverter());
+        sharder.shard(new ByteArrayInputStream(sb.toString().getBytes()), "edgelist");
+        return base;
+    }
+
+    private static void assertSameShards(String expected, String actual) throws IOException {
+        int blockSize = ChiFilenames.getBlocksize(4);
+        for(int p=0; p < 2; p++) {
+            String adj = ChiFilenames.getFilenameShardsAdj(expected, p, 2);
+            String adj2 = ChiFilenames.getFilenameShardsAdj(actual, p, 2);
+            assertArrayEquals(readFile(adj), readFile(adj2));
+            assertArrayEquals(readFile(adj + ".index"), readFile(adj2 + ".index"));
+            String edata = ChiFilenames.getFilenameShardEdata(expected, new FloatConverter(), p, 2);
+            String edata2 = ChiFilenames.getFilenameShardEdata(actual, new FloatConverter(), p, 2);
+            assertEquals(ChiFilenames.getShardEdataSize(edata), ChiFilenames.getShardEdataSize(edata2));
+            assertArrayEquals(readFile(ChiFilenames.getFilenameShardEdataBlock(edata, 0, blockSize)),
+                    readFile(ChiFilenames.getFilenameShardEdataBlock(edata2, 0, blockSize)));
+        }
+        assertArrayEquals(readFile(ChiFilenames.getFilenameOfDegreeData(expected, false)),
+                readFile(ChiFilenames.getFilenameOfDegreeData(actual, false)));
+    }
+
+    @Test
+    public void testMergeMatchesFullSharding() throws IOException {
+        Random r = new Random(7);
+        ArrayList<int[]> edges = new ArrayList<int[]>();
+        /* Keeps the largest vertex id, and thus the vertex intervals, the same */
+        edges.add(new int[] {999, 0, 1});
+        for(int i=0; i < 20000; i++) {
+            edges.add(new int[] {r.nextInt(500), r.nextInt(500), r.nextInt(100)});
+        }
+
+        File tmp = createTempDir("incremental");
+        try {
+            String incremental = shard(new File(tmp, "incremental"), edges);
+            IncrementalSharder<Float> updater = new IncrementalSharder<Float>(incremental, 2, edgeProcessor, new FloatConverter());
+            /* Do not merge before mergeAll() */
+            updater.setMergeRatio(1000.0);
+
+            for(int i=0; i < 3000; i++) {
+                if (r.nextInt(3) == 0) {
+                    /* Delete an edge with all of its copies, also added ones */
+                    int[] del = edges.get(1 + r.nextInt(edges.size() - 1));
+                    updater.deleteEdge(del[0], del[1]);
+                    Iterator<int[]> it = edges.iterator();
+                    while (it.hasNext()) {
+                        int[] e = it.next();
+                        if (e[0] == del[0] && e[1] == del[1] && e != edges.get(0)) it.remove();
+                    }
+                } else {
+                    int[] add = new int[] {r.nextInt(700), r.nextInt(700), r.nextInt(100)};
+                    if (add[0] == add[1]) continue;
+                    updater.addEdge(add[0], add[1], add[2] + "");
+                    edges.add(add);
+                }
+                if (i == 1500) updater.commit();
+            }
+            updater.commit();
+            assertTrue(updater.pendingDeltaSize(0) + updater.pendingDeltaSize(1) > 0);
+
+            updater.mergeAll();
+            assertEquals(0, updater.pendingDeltaSize(0) + updater.pendingDeltaSize(1));
+
+            String full = shard(new File(tmp, "full"), edges);
+            assertSameShards(full, incremental);
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    @Test
+    public void testVertexOutsideRange() throws IOException {
+        ArrayList<int[]> edges = new ArrayList<int[]>();
+        edges.add(new int[] {1, 2, 0});
+        edges.add(new int[] {99, 3, 0});
+        File tmp = createTempDir("incremental");
+        try {
+            String base = shard(tmp, edges);
+            IncrementalSharder<Float> updater = new IncrementalSharder<Float>(base, 2, edgeProcessor, new FloatConverter());
+            try {
+                updater.addEdge(1, 1000000, null);
+                fail();
+            } catch (IllegalArgumentException iae) {}
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    @Test
+    public void testMergeRatio() throws IOException {
+        ArrayList<int[]> edges = new ArrayList<int[]>();
+        for(int i=0; i < 1000; i++) edges.add(new int[] {i, (i * 7) % 1000, 0});
+        File tmp = createTempDir("incremental");
+        try {
+            String base = shard(tmp, edges);
+            IncrementalSharder<Float> updater = new IncrementalSharder<Float>(base, 2, edgeProcessor, new FloatConverter());
+            updater.setMergeRatio(0.5);
+            /* Small delta stays pending */
+            updater.addEdge(1, 3, "1.0");
+            updater.commit();
+            assertTrue(updater.pendingDeltaSize(1) > 0);
+
+            /* Delta larger than half of the shard is merged */
+            for(int i=0; i < 500; i++) updater.addEdge(i, 1, "2.0");
+            updater.commit();
+            assertEquals(0, updater.pendingDeltaSize(1));
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    @Test
+    public void testInterruptedMergeIsCompleted() throws IOException {
+        ArrayList<int[]> edges = new ArrayList<int[]>();
+        for(int i=0; i < 1000; i++) edges.add(new int[] {i, (i * 7) % 1000, i % 10});
+        File tmp = createTempDir("incremental");
+        try {
+            String base = shard(new File(tmp, "incremental"), edges);
+            IncrementalSharder<Float> updater = new IncrementalSharder<Float>(base, 2, edgeProcessor, new FloatConverter());
+            for(int i=0; i < 100; i++) {
+                updater.addEdge(i, 999 - i, "5");
+                edges.add(new int[] {i, 999 - i, 5});
+            }
+            updater.deleteEdge(3, 21);
+            edges.remove(3);
+
+            /* Stops after the commit file: the old shards, degrees and deltas are still in place */
+            byte[] oldDegrees = readFile(ChiFilenames.getFilenameOfDegreeData(base, false));
+            updater.prepareMerge(true);
+            assertArrayEquals(oldDegrees, readFile(ChiFilenames.getFilenameOfDegreeData(base, false)));
+            assertTrue(updater.pendingDeltaSize(0) + updater.pendingDeltaSize(1) > 0);
+
+            /* Creating the sharder again completes the merge */
+            IncrementalSharder<Float> recovered = new IncrementalSharder<Float>(base, 2, edgeProcessor, new FloatConverter());
+            assertEquals(0, recovered.pendingDeltaSize(0) + recovered.pendingDeltaSize(1));
+            assertSameShards(shard(new File(tmp, "full"), edges), base);
+
+            /* Nothing is replayed twice */
+            new IncrementalSharder<Float>(base, 2, edgeProcessor, new FloatConverter());
+            assertSameShards(shard(new File(tmp, "full2"), edges), base);
+        } finally {
+            delete(tmp);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package edu.cmu.graphchi.shards;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestAdjacencyFormat {
+
+    private void roundTrip(AdjacencyFormat format) throws IOException {
+        Random r = new Random(format.getVersion());
+        int[][] lists = new int[200][];
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        for(int i=0; i < lists.length; i++) {
+            int n = (i % 50 == 0 ? 5000 : r.nextInt(20));
+            lists[i] = new int[n];
+            int t = r.nextInt(1000);
+            for(int j=0; j < n; j++) {
+                t += (j % 7 == 0 ? r.nextInt(100000) : r.nextInt(3));
+                lists[i][j] = t;
+            }
+            format.writeTargets(out, lists[i], n);
+        }
+        out.close();
+
+        /* Read every other list, skip the rest */
+        byte[] data = bos.toByteArray();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        AdjacencyFormat.Decoder decoder = format.newDecoder();
+        int offset = 0;
+        for(int i=0; i < lists.length; i++) {
+            int n = lists[i].length;
+            if (i % 2 == 0) {
+                offset += decoder.read(in, n);
+                int[] targets = decoder.targets();
+                for(int j=0; j < n; j++) assertEquals(lists[i][j], targets[j]);
+            } else {
+                offset += decoder.skip(in, n);
+            }
+        }
+        assertEquals(data.length, offset);
+    }
+
+    @Test
+    public void testInt32() throws IOException {
+        roundTrip(AdjacencyFormat.INT32);
+    }
+
+    @Test
+    public void testDeltaVarint() throws IOException {
+        roundTrip(AdjacencyFormat.DELTA_VARINT);
+    }
+
+    @Test
+    public void testDeltaVarintIsSmaller() throws IOException {
+        int[] targets = new int[1000];
+        for(int j=0; j < targets.length; j++) targets[j] = 5000000 + j * 3;
+        ByteArrayOutputStream int32 = new ByteArrayOutputStream();
+        ByteArrayOutputStream varint = new ByteArrayOutputStream();
+        AdjacencyFormat.INT32.writeTargets(new DataOutputStream(int32), targets, targets.length);
+        AdjacencyFormat.DELTA_VARINT.writeTargets(new DataOutputStream(varint), targets, targets.length);
+        assertTrue(varint.size() * 3 < int32.size());
+    }
+
+    @Test
+    public void testFormatFile() throws IOException {
+        File f = File.createTempFile("adjformat", ".adj");
+        f.deleteOnExit();
+        assertTrue(AdjacencyFormat.INT32 == AdjacencyFormat.forShard(f.getAbsolutePath()));
+        AdjacencyFormat.DELTA_VARINT.writeFormatFile(f.getAbsolutePath());
+        new File(f.getAbsolutePath() + ".format").deleteOnExit();
+        assertTrue(AdjacencyFormat.DELTA_VARINT == AdjacencyFormat.forShard(f.getAbsolutePath()));
+    }
+}
@@ -0,0 +1,129 @@
+package edu.cmu.graphchi.shards;
+
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.VertexWindow;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestEdgeBuffer {
+
+    @Test
+    public void testLoadAndCommit() {
+        DataBlockManager blockManager = new DataBlockManager();
+        FloatConverter converter = new FloatConverter();
+        ChiVertex.blockManager = blockManager;
+        ChiVertex.edgeValueConverter = converter;
+        ChiVertex.vertexValueConverter = null;
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+
+        /* Enough edges to grow the buffer */
+        EdgeBuffer buffer = new EdgeBuffer(4);
+        byte[] value = new byte[4];
+        for(int i=0; i < 3000; i++) {
+            converter.setValue(value, (float) i);
+            buffer.add(1000 + i % 10, 2000 + i % 20, value);
+        }
+        assertEquals(3000, buffer.size());
+        assertTrue(buffer.hasEdges(1005, 1005));
+        assertFalse(buffer.hasEdges(0, 999));
+
+        /* Window of vertices 2000..2009: only in-edges */
+        int n = buffer.size();
+        int[] inDegrees = new int[10];
+        int[] outDegrees = new int[10];
+        buffer.countDegrees(n, 2000, 2009, inDegrees, outDegrees);
+        VertexWindow<Float, Float> window = new VertexWindow<Float, Float>();
+        window.begin(10);
+        for(int j=0; j < 10; j++) {
+            assertEquals(150, inDegrees[j]);
+            assertEquals(0, outDegrees[j]);
+            window.setDegree(j, inDegrees[j], outDegrees[j]);
+        }
+        window.allocate(2000);
+        ChiVertex<Float, Float>[] vertices = window.getVertices();
+
+        /* Added after the degrees were counted: not loaded */
+        converter.setValue(value, -1.0f);
+        buffer.add(1003, 2003, value);
+
+        int blockId = buffer.loadVertices(n, 2000, 2009, vertices, true, true, blockManager);
+        assertTrue(blockId >= 0);
+        ChiVertex<Float, Float> v = vertices[3];
+        assertEquals(150, v.numInEdges());
+        for(int i=0; i < v.numInEdges(); i++) {
+            float x = v.inEdge(i).getValue();
+            assertEquals(3 + 20 * i, (int) x);
+            assertEquals(1000 + ((int) x) % 10, v.inEdge(i).getVertexId());
+            v.inEdge(i).setValue(x + 0.5f);
+        }
+
+        buffer.commit(n, blockId, blockManager);
+        assertTrue(blockManager.empty());
+
+        /* Changed values are kept in the buffer */
+        window.begin(1);
+        inDegrees = new int[1];
+        outDegrees = new int[1];
+        buffer.countDegrees(buffer.size(), 2003, 2003, inDegrees, outDegrees);
+        assertEquals(151, inDegrees[0]);
+        window.setDegree(0, inDegrees[0], outDegrees[0]);
+        window.allocate(2003);
+        v = window.getVertices()[0];
+        blockId = buffer.loadVertices(buffer.size(), 2003, 2003, window.getVertices(), true, true, blockManager);
+        assertEquals(3.5f, v.inEdge(0).getValue(), 0.0f);
+        assertEquals(-1.0f, v.inEdge(150).getValue(), 0.0f);
+        buffer.commit(buffer.size(), blockId, blockManager);
+    }
+
+    @Test
+    public void testNoValues() {
+        ChiVertex.blockManager = new DataBlockManager();
+        ChiVertex.edgeValueConverter = null;
+        ChiVertex.vertexValueConverter = null;
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+
+        EdgeBuffer buffer = new EdgeBuffer(0);
+        buffer.add(5, 7, new byte[0]);
+        buffer.add(7, 5, new byte[0]);
+
+        VertexWindow<Float, Float> window = new VertexWindow<Float, Float>();
+        window.begin(1);
+        window.setDegree(0, 1, 1);
+        window.allocate(5);
+        assertEquals(-1, buffer.loadVertices(2, 5, 5, window.getVertices(), true, true, null));
+        ChiVertex<Float, Float> v = window.getVertices()[0];
+        assertEquals(7, v.outEdge(0).getVertexId());
+        assertEquals(7, v.inEdge(0).getVertexId());
+        assertTrue(v.parallelSafe);
+    }
+
+    @Test
+    public void testEdgesInsideWindowNotParallelSafe() {
+        ChiVertex.blockManager = new DataBlockManager();
+        ChiVertex.edgeValueConverter = null;
+        ChiVertex.vertexValueConverter = null;
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+
+        EdgeBuffer buffer = new EdgeBuffer(0);
+        buffer.add(5, 7, new byte[0]);
+        buffer.add(9, 20, new byte[0]);
+
+        VertexWindow<Float, Float> window = new VertexWindow<Float, Float>();
+        window.begin(6);
+        window.setDegree(0, 0, 1);
+        window.setDegree(2, 1, 0);
+        window.setDegree(4, 0, 1);
+        window.allocate(5);
+        ChiVertex<Float, Float>[] vertices = window.getVertices();
+        buffer.loadVertices(2, 5, 10, vertices, true, false, null);
+        assertFalse(vertices[0].parallelSafe);
+        assertFalse(vertices[2].parallelSafe);
+        assertTrue(vertices[4].parallelSafe);
+    }
+}
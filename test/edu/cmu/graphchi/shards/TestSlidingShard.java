@@ -0,0 +1,225 @@
+package edu.cmu.graphchi.shards;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import edu.cmu.graphchi.ChiFilenames;
+import edu.cmu.graphchi.ChiVertex;
+import edu.cmu.graphchi.datablocks.DataBlockManager;
+import edu.cmu.graphchi.datablocks.FloatConverter;
+import edu.cmu.graphchi.engine.VertexWindow;
+import edu.cmu.graphchi.engine.auxdata.DegreeData;
+import edu.cmu.graphchi.io.BlockCodec;
+import edu.cmu.graphchi.io.BlockCodecs;
+import edu.cmu.graphchi.io.CompressedIO;
+import edu.cmu.graphchi.preprocessing.EdgeProcessor;
+import edu.cmu.graphchi.preprocessing.FastSharder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static edu.cmu.graphchi.FileFixtures.*;
+import static org.junit.Assert.*;
+
+public class TestSlidingShard {
+
+    private static final int WINDOW = 1000;
+
+    private int blockSizeBase;
+    private File tmp;
+    private String base;
+    private int numVertices;
+    private DataBlockManager blockManager;
+
+    @Before
+    public void setUp() throws IOException {
+        /* Small edge data blocks, so that fast-forwarding skips whole blocks */
+        blockSizeBase = ChiFilenames.BLOCK_SIZE_BASE;
+        ChiFilenames.BLOCK_SIZE_BASE = 1;
+
+        tmp = createTempDir("slidingshard");
+        base = shardGraph("graph");
+
+        blockManager = new DataBlockManager();
+        ChiVertex.blockManager = blockManager;
+        ChiVertex.edgeValueConverter = new FloatConverter();
+        ChiVertex.vertexValueConverter = null;
+        ChiVertex.disableInedges = false;
+        ChiVertex.disableOutedges = false;
+    }
+
+    private String shardGraph(String name) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Random r = new Random(19);
+        for(int i=0; i < 100000; i++) {
+            sb.append(r.nextInt(10000)).append('\t').append(r.nextInt(10000)).append('\n');
+        }
+        String graph = new File(tmp, name).getAbsolutePath();
+        FastSharder<Float, Float> sharder = new FastSharder<Float, Float>(graph, 1, null, new EdgeProcessor<Float>() {
+            public Float receiveEdge(int from, int to, String token) {
+                return (float) from + to;
+            }
+        }, new FloatConverter(), new FloatConverter());
+        sharder.shard(new ByteArrayInputStream(sb.toString().getBytes()), "edgelist");
+        numVertices = ChiFilenames.numVertices(graph, 1);
+        return graph;
+    }
+
+    @After
+    public void tearDown() {
+        ChiFilenames.BLOCK_SIZE_BASE = blockSizeBase;
+        delete(tmp);
+    }
+
+    private SlidingShard<Float> openShard() throws IOException {
+        SlidingShard<Float> shard = new SlidingShard<Float>(
+                ChiFilenames.getFilenameShardEdata(base, new FloatConverter(), 0, 1),
+                ChiFilenames.getFilenameShardsAdj(base, 0, 1), 0, numVertices - 1);
+        shard.setConverter(new FloatConverter());
+        shard.setDataBlockManager(blockManager);
+        shard.setModifiesOutedges(false);
+        return shard;
+    }
+
+    /**
+     * Reads the out-edges of a window of vertices, and returns them as strings
+     * of targets and values.
+     */
+    private String[] readWindow(SlidingShard<Float> shard, DegreeData degrees, int first) throws IOException {
+        return readWindow(shard, degrees, first, 1.0f);
+    }
+
+    /**
+     * @param scale if not one, the edge values are multiplied by it, and the new values are returned
+     */
+    private String[] readWindow(SlidingShard<Float> shard, DegreeData degrees, int first, float scale) throws IOException {
+        int last = Math.min(first + WINDOW, numVertices) - 1;
+        int n = last - first + 1;
+        degrees.load(first, last);
+        VertexWindow<Float, Float> window = new VertexWindow<Float, Float>();
+        window.begin(n);
+        for(int j=0; j < n; j++) {
+            window.setDegree(j, 0, degrees.getOutDegree(first + j));
+        }
+        window.allocate(first);
+        ChiVertex<Float, Float>[] vertices = window.getVertices();
+        shard.readNextVertices(vertices, first, scale == 1.0f);
+
+        String[] edges = new String[n];
+        for(int j=0; j < n; j++) {
+            StringBuilder sb = new StringBuilder();
+            ChiVertex<Float, Float> v = vertices[j];
+            for(int i=0; i < v.numOutEdges(); i++) {
+                if (scale != 1.0f) v.outEdge(i).setValue(v.outEdge(i).getValue() * scale);
+                sb.append(v.outEdge(i).getVertexId()).append(':').append(v.outEdge(i).getValue()).append(' ');
+            }
+            edges[j] = sb.toString();
+        }
+        return edges;
+    }
+
+    private void checkSkippingWindows() throws IOException {
+        DegreeData degrees = new DegreeData(base);
+        int numWindows = (numVertices + WINDOW - 1) / WINDOW;
+        String[][] sequential = new String[numWindows][];
+        SlidingShard<Float> shard = openShard();
+        for(int w=0; w < numWindows; w++) {
+            sequential[w] = readWindow(shard, degrees, w * WINDOW);
+        }
+        shard.close();
+
+        /* Windows after skipped ones are read the same */
+        shard = openShard();
+        int[] read = new int[] {3, 4, 7, numWindows - 1};
+        for(int w : read) {
+            assertArrayEquals(sequential[w], readWindow(shard, degrees, w * WINDOW));
+        }
+        shard.close();
+        degrees.close();
+        assertTrue(blockManager.empty());
+    }
+
+    @Test
+    public void testAsyncCommitsAcrossFlushes() throws IOException {
+        DegreeData degrees = new DegreeData(base);
+        int numWindows = (numVertices + WINDOW - 1) / WINDOW;
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        try {
+            String[][] written = new String[numWindows][];
+            SlidingShard<Float> shard = openShard();
+            shard.setModifiesOutedges(true);
+            shard.setIoExecutor(ioExecutor);
+            shard.setMaxPendingCommits(2);
+            for(int w=0; w < numWindows; w++) {
+                written[w] = readWindow(shard, degrees, w * WINDOW, 2.0f);
+                assertTrue(shard.getNumPendingCommits() <= 2);
+                if (w == numWindows / 2) {
+                    shard.flush();
+                    assertEquals(0, shard.getNumPendingCommits());
+                }
+            }
+            shard.close();
+            assertTrue(blockManager.empty());
+
+            shard = openShard();
+            for(int w=0; w < numWindows; w++) {
+                assertArrayEquals(written[w], readWindow(shard, degrees, w * WINDOW));
+            }
+            shard.close();
+        } finally {
+            ioExecutor.shutdown();
+            degrees.close();
+        }
+    }
+
+    @Test
+    public void testMemoryMappedCommit() throws IOException {
+        BlockCodec codec = CompressedIO.getCodec();
+        CompressedIO.setCodec(BlockCodecs.NONE);
+        DegreeData degrees = null;
+        try {
+            base = shardGraph("uncompressed");
+            degrees = new DegreeData(base);
+            int numWindows = (numVertices + WINDOW - 1) / WINDOW;
+            String[][] written = new String[numWindows][];
+            SlidingShard<Float> shard = openShard();
+            shard.setModifiesOutedges(true);
+            shard.setMemoryMapped(true);
+            for(int w=0; w < numWindows; w++) {
+                written[w] = readWindow(shard, degrees, w * WINDOW, 2.0f);
+            }
+            shard.close();
+            assertTrue(blockManager.empty());
+
+            shard = openShard();
+            for(int w=0; w < numWindows; w++) {
+                assertArrayEquals(written[w], readWindow(shard, degrees, w * WINDOW));
+            }
+            shard.close();
+        } finally {
+            CompressedIO.setCodec(codec);
+            if (degrees != null) degrees.close();
+        }
+    }
+
+    @Test
+    public void testFastForwardWithIndex() throws IOException {
+        Counter fastForwards = Metrics.defaultRegistry().newCounter(SlidingShard.class, "fast-forwards");
+        long before = fastForwards.count();
+        checkSkippingWindows();
+        assertTrue(fastForwards.count() > before);
+    }
+
+    @Test
+    public void testSkipWithoutIndex() throws IOException {
+        File index = new File(ChiFilenames.getFilenameShardsAdj(base, 0, 1) + ".index");
+        assertTrue(index.delete());
+        checkSkippingWindows();
+    }
+}